@@ -16,6 +16,7 @@
  */
 package com.atilika.kuromoji.benchmark;
 
+import com.atilika.kuromoji.NBestResult;
 import com.atilika.kuromoji.TokenBase;
 import com.atilika.kuromoji.TokenizerBase;
 import org.apache.commons.cli.CommandLine;
@@ -52,6 +53,8 @@ public class Benchmark {
 
     private final TokenizerBase tokenizer;
 
+    private final TokenizerBase exactTokenizer;
+
     private final File inputFile;
 
     private final File outputFile;
@@ -68,6 +71,7 @@ public class Benchmark {
 
     private Benchmark(Builder builder) {
         this.tokenizer = builder.tokenizer;
+        this.exactTokenizer = builder.exactTokenizer;
         this.inputFile = builder.inputFile;
         this.outputFile = builder.outputFile;
         this.statisticsFile = builder.statisticsFile;
@@ -79,24 +83,7 @@ public class Benchmark {
 
     public void benchmark() throws IOException {
 
-        BufferedReader reader;
-
-        if (inputFile.getName().endsWith(".gz")) {
-            reader = new BufferedReader(
-                new InputStreamReader(
-                    new GZIPInputStream(
-                        new FileInputStream(inputFile)
-                    ),
-                    StandardCharsets.UTF_8
-                )
-            );
-        } else {
-            reader = new BufferedReader(
-                new InputStreamReader(
-                    new FileInputStream(inputFile), StandardCharsets.UTF_8
-                )
-            );
-        }
+        BufferedReader reader = openInput();
 
         Writer writer;
 
@@ -121,6 +108,65 @@ public class Benchmark {
         reader.close();
         writer.close();
         statisticsWriter.close();
+
+        if (exactTokenizer != null) {
+            compare();
+        }
+    }
+
+    /**
+     * Compares the tokenizations of the beam search with those of the exact search
+     * <p>
+     * This is a separate pass over the input after the timed one, so the exact search does not count towards the
+     * statistics
+     *
+     * @throws IOException if an error occurs reading the input
+     */
+    private void compare() throws IOException {
+        BufferedReader reader = openInput();
+        long comparedDocuments = 0;
+        long changedDocuments = 0;
+
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            String text = EscapeUtils.unescape(line);
+
+            if (!isSameTokenization(tokenizer.tokenize(text), exactTokenizer.tokenize(text))) {
+                changedDocuments++;
+            }
+            comparedDocuments++;
+
+            if (0 < count && comparedDocuments == count) {
+                break;
+            }
+        }
+
+        reader.close();
+
+        System.out.println(
+            "Beam search changed " + changedDocuments + " of " + comparedDocuments + " documents (" +
+                (comparedDocuments == 0 ? 0 : 100.0 * changedDocuments / comparedDocuments) + "%)"
+        );
+    }
+
+    private BufferedReader openInput() throws IOException {
+        if (inputFile.getName().endsWith(".gz")) {
+            return new BufferedReader(
+                new InputStreamReader(
+                    new GZIPInputStream(
+                        new FileInputStream(inputFile)
+                    ),
+                    StandardCharsets.UTF_8
+                )
+            );
+        }
+
+        return new BufferedReader(
+            new InputStreamReader(
+                new FileInputStream(inputFile), StandardCharsets.UTF_8
+            )
+        );
     }
 
     public void tokenize(BufferedReader reader, Writer writer, Writer statisticsWriter) throws IOException {
@@ -147,9 +193,13 @@ public class Benchmark {
     }
 
     private void tokenizeDocument(Writer writer, String text) throws IOException {
-        List<? extends TokenBase> tokens = tokenizer.tokenize(text);
+        List<? extends TokenBase> tokens;
         if (nbest > 1) {
-            List<List<TokenBase>> multiTokens = tokenizer.multiTokenizeNBest(text, nbest);
+            // Both from a single lattice. The best tokenization is then found by an exact search
+            NBestResult<TokenBase> result = tokenizer.tokenizeWithNBest(text, nbest);
+            tokens = result.getBestTokens();
+        } else {
+            tokens = tokenizer.tokenize(text);
         }
 
         updateStatistics(text, tokens);
@@ -165,6 +215,24 @@ public class Benchmark {
         }
     }
 
+    private boolean isSameTokenization(List<? extends TokenBase> tokens, List<? extends TokenBase> otherTokens) {
+        if (tokens.size() != otherTokens.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < tokens.size(); i++) {
+            TokenBase token = tokens.get(i);
+            TokenBase otherToken = otherTokens.get(i);
+
+            if (token.getPosition() != otherToken.getPosition() ||
+                !token.getSurface().equals(otherToken.getSurface()) ||
+                !token.getAllFeatures().equals(otherToken.getAllFeatures())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void updateStatistics(String text, List<? extends TokenBase> tokens) {
         this.documents.incrementAndGet();
         this.characters.getAndAdd(text.length());
@@ -245,6 +313,8 @@ public class Benchmark {
 
         private TokenizerBase tokenizer;
 
+        private TokenizerBase exactTokenizer;
+
         private File inputFile;
 
         private File outputFile;
@@ -266,6 +336,17 @@ public class Benchmark {
             return this;
         }
 
+        /**
+         * Sets a tokenizer with an exact search to compare the tokenizations of a beam search tokenizer with
+         *
+         * @param exactTokenizer  tokenizer with an exact search
+         * @return this builder
+         */
+        public Builder exactTokenizer(TokenizerBase exactTokenizer) {
+            this.exactTokenizer = exactTokenizer;
+            return this;
+        }
+
         public Builder setOutputStatistiscs(boolean outputStatistiscs) {
             this.outputStatistics = outputStatistiscs;
             return this;
@@ -319,8 +400,10 @@ public class Benchmark {
         options.addOption("c", "count", true, "Number of documents ot process (Default: 0, which means all");
 //        options.addOption("v", "validation-input", true, "Validation filename");
         options.addOption("o", "output", true, "Output filename.  If unset, segmentation is done, but the result is discarded");
-        options.addOption("n", "n-best", true, "The number of tokenizations to get per input");
+        options.addOption("n", "n-best", true, "The number of tokenizations to get per input. A beam search is not used when greater than 1");
         options.addOption(null, "benchmark-output", true, "Benchmark metrics output filename filename");
+        options.addOption(null, "beam-width", true, "Maximum number of candidates kept per position by a beam search, compared with an exact search");
+        options.addOption(null, "beam-margin", true, "Maximum cost above the best candidate kept per position by a beam search, compared with an exact search");
 
         CommandLineParser parser = new DefaultParser();
         CommandLine commandLine = null;
@@ -345,30 +428,25 @@ public class Benchmark {
 
         String userDictionaryFilename = commandLine.getOptionValue("u");
 
-        TokenizerBase tokenizer = null;
-        try {
-            Class clazz = Class.forName(className);
+        String beamWidth = commandLine.getOptionValue("beam-width");
+        String beamMargin = commandLine.getOptionValue("beam-margin");
 
-            // Make builder
-            Object builder = clazz.getDeclaredConstructor(null)
-                .newInstance();
+        TokenizerBase tokenizer = createTokenizer(className, userDictionaryFilename, beamWidth, beamMargin);
+        TokenizerBase exactTokenizer = null;
 
-            // Set user dictionary
-            if (userDictionaryFilename != null) {
-                builder.getClass()
-                    .getMethod("userDictionary", String.class)
-                    .invoke(builder, userDictionaryFilename);
-            }
+        System.err.println("Dictionary load times (ms): " + tokenizer.getDictionaryLoadTimes());
 
-            // Build tokenizer
-            tokenizer = (TokenizerBase) builder.getClass()
-                .getMethod("build")
-                .invoke(builder);
+        int nbest = Integer.parseInt(
+            commandLine.getOptionValue("n", "1")
+        );
 
-        } catch (Exception e) {
-            System.err.println("Could not create tokenizer. Got " + e);
-            e.printStackTrace();
-            System.exit(1);
+        if (beamWidth != null || beamMargin != null) {
+            if (nbest > 1) {
+                // N-best tokenizations and the best one among them are found by an exact search
+                System.err.println("The beam search is not used with -n greater than 1, so it is not compared");
+            } else {
+                exactTokenizer = createTokenizer(className, userDictionaryFilename, null, null);
+            }
         }
 
         File outputFile = null;
@@ -389,12 +467,9 @@ public class Benchmark {
             commandLine.getOptionValue("c", "0")
         );
 
-        int nbest = Integer.parseInt(
-            commandLine.getOptionValue("n", "1")
-        );
-
         Benchmark benchmark = new Builder()
             .tokenizer(tokenizer)
+            .exactTokenizer(exactTokenizer)
             .inputFile(new File(inputFilename))
             .outputFile(outputFile)
             .outputStatisticsFile(statisticsFile)
@@ -406,6 +481,49 @@ public class Benchmark {
         benchmark.benchmark();
     }
 
+    private static TokenizerBase createTokenizer(String className,
+                                                 String userDictionaryFilename,
+                                                 String beamWidth,
+                                                 String beamMargin) {
+        try {
+            Class clazz = Class.forName(className);
+
+            // Make builder
+            Object builder = clazz.getDeclaredConstructor(null)
+                .newInstance();
+
+            // Set user dictionary
+            if (userDictionaryFilename != null) {
+                builder.getClass()
+                    .getMethod("userDictionary", String.class)
+                    .invoke(builder, userDictionaryFilename);
+            }
+
+            // Set beam search
+            if (beamWidth != null) {
+                builder.getClass()
+                    .getMethod("beamWidth", int.class)
+                    .invoke(builder, Integer.parseInt(beamWidth));
+            }
+
+            if (beamMargin != null) {
+                builder.getClass()
+                    .getMethod("beamCostMargin", int.class)
+                    .invoke(builder, Integer.parseInt(beamMargin));
+            }
+
+            // Build tokenizer
+            return (TokenizerBase) builder.getClass()
+                .getMethod("build")
+                .invoke(builder);
+        } catch (Exception e) {
+            System.err.println("Could not create tokenizer. Got " + e);
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
+
     public static void usage(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("benchmark [options] inputfilename", "", options, "");
@@ -0,0 +1,105 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji;
+
+import com.atilika.kuromoji.viterbi.LatticeConstraints;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token boundaries known before tokenizing, such as the edges of markup, and spans of text that must be a single
+ * token, such as product codes or text segmented upstream
+ * <p>
+ * Tokens that cross a boundary or split a protected span are left out while the lattice is built, instead of being
+ * created and searched. A protected span that is not a dictionary word becomes an unknown word. A boundary inside a
+ * protected span is ignored, overlapping protected spans are merged, and hints beyond the end of the text are ignored.
+ *
+ * @see TokenizerBase#tokenize(String, BoundaryHints)
+ */
+public class BoundaryHints {
+
+    private final List<Integer> boundaries = new ArrayList<>();
+
+    private final List<int[]> protectedSpans = new ArrayList<>();
+
+    /**
+     * Adds a boundary that every tokenization has a token boundary at
+     *
+     * @param position  character position of the boundary, not negative
+     * @return this hints
+     */
+    public BoundaryHints boundary(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Boundary position must not be negative, got " + position);
+        }
+        boundaries.add(position);
+        return this;
+    }
+
+    /**
+     * Adds a span of text that every tokenization has as a single token
+     *
+     * @param start  position of the first character of the span, not negative
+     * @param end  position after the last character of the span, greater than start
+     * @return this hints
+     */
+    public BoundaryHints protectedSpan(int start, int end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Span start must not be negative, got " + start);
+        }
+        if (end <= start) {
+            throw new IllegalArgumentException("Span end must be greater than its start " + start + ", got " + end);
+        }
+        protectedSpans.add(new int[]{start, end});
+        return this;
+    }
+
+    /**
+     * Gets the constraints of a text
+     *
+     * @param length  length of the text
+     * @return constraints with indices in the text, not null
+     */
+    LatticeConstraints getConstraints(int length) {
+        boolean[] boundaryIndices = new boolean[length + 1];
+        boolean[] protectedIndices = new boolean[length + 1];
+
+        for (int position : boundaries) {
+            if (position <= length) {
+                boundaryIndices[position] = true;
+            }
+        }
+
+        for (int[] span : protectedSpans) {
+            if (span[0] > length) {
+                continue;
+            }
+
+            int end = Math.min(span[1], length);
+
+            boundaryIndices[span[0]] = true;
+            boundaryIndices[end] = true;
+
+            for (int index = span[0] + 1; index < end; index++) {
+                protectedIndices[index] = true;
+            }
+        }
+
+        return new LatticeConstraints(boundaryIndices, protectedIndices);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji;
+
+import java.util.List;
+
+/**
+ * The best tokenization of a text together with its N-best tokenizations, found from a single lattice
+ *
+ * @param <T>  token type
+ * @see TokenizerBase#tokenizeWithMultiple(String, int, int)
+ */
+public class NBestResult<T extends TokenBase> {
+
+    private final List<T> bestTokens;
+
+    private final List<List<T>> tokenizations;
+
+    public NBestResult(List<T> bestTokens, List<List<T>> tokenizations) {
+        this.bestTokens = bestTokens;
+        this.tokenizations = tokenizations;
+    }
+
+    /**
+     * Gets the best tokenization, as returned by {@link TokenizerBase#tokenize(String)} without a beam
+     *
+     * @return list of Token, not null
+     */
+    public List<T> getBestTokens() {
+        return bestTokens;
+    }
+
+    /**
+     * Gets the tokenizations ordered in ascending order by cost, as returned by
+     * {@link TokenizerBase#multiTokenize(String, int, int)}
+     *
+     * @return list of tokenizations, not null
+     */
+    public List<List<T>> getTokenizations() {
+        return tokenizations;
+    }
+}
@@ -17,6 +17,7 @@
 package com.atilika.kuromoji;
 
 import com.atilika.kuromoji.dict.Dictionary;
+import com.atilika.kuromoji.dict.FeatureRecord;
 import com.atilika.kuromoji.viterbi.ViterbiNode.Type;
 
 /**
@@ -96,6 +97,42 @@ public abstract class TokenBase {
         return dictionary.getAllFeaturesArray(wordId);
     }
 
+    /**
+     * Gets a record with the features of this token
+     * <p>
+     * The dictionary entry is decoded once, which makes the record cheaper than calling several feature getters
+     * when most features are needed.
+     * Features in the record are numbered like the feature getters of the token, i.e. using the feature
+     * constants of the dictionary's {@code DictionaryEntry}
+     *
+     * @param features  feature numbers to include. If none are provided, all features are included
+     * @return feature record, not null
+     * @throws IllegalArgumentException if a feature number is not a feature of this token
+     */
+    public FeatureRecord getFeatureRecord(int... features) {
+        int[] fields = new int[features.length];
+
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] < META_DATA_SIZE) {
+                throw new IllegalArgumentException(
+                    "Feature " + features[i] + " is out of range, features start at " + META_DATA_SIZE
+                );
+            }
+            fields[i] = features[i] - META_DATA_SIZE;
+        }
+
+        return new FeatureRecord(dictionary.getFeatureRecord(wordId, fields), META_DATA_SIZE);
+    }
+
+    /**
+     * Gets the right connection id of this token, used to tokenize text that continues after this token
+     *
+     * @return right connection id
+     */
+    int getRightId() {
+        return dictionary.getRightId(wordId);
+    }
+
     @Override
     public String toString() {
         return "Token{" +
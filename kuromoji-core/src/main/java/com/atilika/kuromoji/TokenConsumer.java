@@ -0,0 +1,38 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji;
+
+import java.io.IOException;
+
+/**
+ * Receives the tokens of a text that is tokenized as a stream
+ *
+ * @param <T>  token type
+ * @see TokenizerBase#tokenize(java.io.Reader, TokenConsumer)
+ */
+public interface TokenConsumer<T extends TokenBase> {
+
+    /**
+     * Receives the next token
+     *
+     * @param token  token
+     * @param position  start of the token in the entire input. Unlike {@link TokenBase#getPosition()}, it is
+     *                  correct for inputs longer than {@link Integer#MAX_VALUE} characters
+     * @throws IOException if the consumer fails, which stops tokenizing
+     */
+    void accept(T token, long position) throws IOException;
+}
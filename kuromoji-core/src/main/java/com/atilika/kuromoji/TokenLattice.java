@@ -0,0 +1,66 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji;
+
+import java.util.List;
+
+/**
+ * The tokens of a text that are on tokenizations with cost at most OPT + costSlack, where OPT is the cost of the
+ * best tokenization, forming a directed acyclic graph
+ * <p>
+ * Each token is unique and appears once, even if it is part of many tokenizations. A token is followed by the
+ * tokens at the position after its surface, and every token is on a path of tokens from the start to the end of the
+ * text, so the graph can be indexed directly instead of a list of N-best tokenizations.
+ *
+ * @param <T>  token type
+ * @see TokenizerBase#tokenizeLattice(String, int)
+ */
+public class TokenLattice<T extends TokenBase> {
+
+    private final List<T> tokens;
+
+    private final List<Integer> margins;
+
+    public TokenLattice(List<T> tokens, List<Integer> margins) {
+        this.tokens = tokens;
+        this.margins = margins;
+    }
+
+    /**
+     * Gets the tokens, ordered by position
+     *
+     * @return list of Token, not null
+     */
+    public List<T> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Gets the cost margin of a token, which is how much more the best tokenization with the token costs than the
+     * best tokenization. The tokens of the best tokenization have margin 0
+     *
+     * @param index  index of the token
+     * @return cost margin, at most costSlack
+     */
+    public int getMargin(int index) {
+        return margins.get(index);
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+}
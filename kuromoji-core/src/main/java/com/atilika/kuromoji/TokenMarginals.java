@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji;
+
+import java.util.List;
+
+/**
+ * The best tokenization of a text with the confidence of each token and of each boundary between characters
+ * <p>
+ * Confidence is given both as a cost margin, which is how much more the best tokenization that disagrees costs than
+ * the best tokenization, and as a marginal probability over all tokenizations. A margin of {@link Integer#MAX_VALUE}
+ * means that no tokenization disagrees.
+ *
+ * @param <T>  token type
+ * @see TokenizerBase#tokenizeWithMarginals(String, double)
+ */
+public class TokenMarginals<T extends TokenBase> {
+
+    private final List<T> tokens;
+
+    private final int[] margins;
+
+    private final double[] probabilities;
+
+    private final int[] boundaryMargins;
+
+    private final double[] boundaryProbabilities;
+
+    public TokenMarginals(List<T> tokens, int[] margins, double[] probabilities, int[] boundaryMargins,
+                          double[] boundaryProbabilities) {
+        this.tokens = tokens;
+        this.margins = margins;
+        this.probabilities = probabilities;
+        this.boundaryMargins = boundaryMargins;
+        this.boundaryProbabilities = boundaryProbabilities;
+    }
+
+    /**
+     * Gets the tokens of the best tokenization
+     *
+     * @return list of Token, not null
+     */
+    public List<T> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Gets how much more the best tokenization without a token costs than the best tokenization
+     *
+     * @param index  index of the token
+     * @return cost margin, not negative
+     */
+    public int getMargin(int index) {
+        return margins[index];
+    }
+
+    /**
+     * Gets the probability of the tokenizations with a token
+     *
+     * @param index  index of the token
+     * @return probability from 0 to 1
+     */
+    public double getProbability(int index) {
+        return probabilities[index];
+    }
+
+    /**
+     * Gets how much more the best tokenization that disagrees with the best tokenization on whether there is a
+     * token boundary at a position costs than the best tokenization
+     *
+     * @param position  character position from 0 to the length of the text, both inclusive
+     * @return cost margin, not negative
+     */
+    public int getBoundaryMargin(int position) {
+        return boundaryMargins[position];
+    }
+
+    /**
+     * Gets the probability of the tokenizations with a token boundary at a position
+     *
+     * @param position  character position from 0 to the length of the text, both inclusive
+     * @return probability from 0 to 1
+     */
+    public double getBoundaryProbability(int position) {
+        return boundaryProbabilities[position];
+    }
+}
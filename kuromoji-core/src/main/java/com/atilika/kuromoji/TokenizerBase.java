@@ -24,26 +24,46 @@ import com.atilika.kuromoji.dict.TokenInfoDictionary;
 import com.atilika.kuromoji.dict.UnknownDictionary;
 import com.atilika.kuromoji.dict.UserDictionary;
 import com.atilika.kuromoji.fst.FST;
+import com.atilika.kuromoji.util.PackedResourceResolver;
 import com.atilika.kuromoji.util.ResourceResolver;
+import com.atilika.kuromoji.viterbi.LatticeConstraints;
 import com.atilika.kuromoji.viterbi.MultiSearchMerger;
 import com.atilika.kuromoji.viterbi.MultiSearchResult;
 import com.atilika.kuromoji.viterbi.TokenFactory;
 import com.atilika.kuromoji.viterbi.ViterbiBuilder;
 import com.atilika.kuromoji.viterbi.ViterbiFormatter;
 import com.atilika.kuromoji.viterbi.ViterbiLattice;
+import com.atilika.kuromoji.viterbi.ViterbiMarginals;
 import com.atilika.kuromoji.viterbi.ViterbiNode;
 import com.atilika.kuromoji.viterbi.ViterbiSearcher;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TokenizerBase main class
@@ -54,6 +74,21 @@ public abstract class TokenizerBase {
         NORMAL, SEARCH, EXTENDED
     }
 
+    public static final String FST_PHASE = "fst";
+
+    public static final String CONNECTION_COSTS_PHASE = "connectionCosts";
+
+    public static final String TOKEN_INFO_DICTIONARY_PHASE = "tokenInfoDictionary";
+
+    public static final String UNKNOWN_DICTIONARY_PHASE = "unknownDictionary";
+
+    public static final String TOTAL_PHASE = "total";
+
+    private static final int LOAD_THREADS = 4;
+
+    // Characters read at a time when tokenizing a stream
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     private ViterbiBuilder viterbiBuilder;
 
     private ViterbiSearcher viterbiSearcher;
@@ -62,6 +97,10 @@ public abstract class TokenizerBase {
 
     private boolean split;
 
+    private ExecutorService segmentExecutor;
+
+    private int segmentWindowLength;
+
     private TokenInfoDictionary tokenInfoDictionary;
 
     private UnknownDictionary unknownDictionary;
@@ -74,10 +113,18 @@ public abstract class TokenizerBase {
 
     protected EnumMap<ViterbiNode.Type, Dictionary> dictionaryMap = new EnumMap<>(ViterbiNode.Type.class);
 
+    private Map<String, Long> dictionaryLoadTimes;
+
     protected void configure(Builder builder) {
 
         builder.loadDictionaries();
 
+        synchronized (builder.loadTimes) {
+            this.dictionaryLoadTimes = Collections.unmodifiableMap(
+                new LinkedHashMap<>(builder.loadTimes)
+            );
+        }
+
         this.tokenFactory = builder.tokenFactory;
 
         this.tokenInfoDictionary = builder.tokenInfoDictionary;
@@ -97,11 +144,15 @@ public abstract class TokenizerBase {
             builder.mode,
             builder.connectionCosts,
             unknownDictionary,
-            builder.penalties
+            builder.penalties,
+            builder.beamWidth,
+            builder.beamCostMargin
         );
 
         this.viterbiFormatter = new ViterbiFormatter(builder.connectionCosts);
         this.split = builder.split;
+        this.segmentExecutor = builder.segmentExecutor;
+        this.segmentWindowLength = builder.segmentWindowLength;
 
         initDictionaryMap();
     }
@@ -113,10 +164,229 @@ public abstract class TokenizerBase {
         dictionaryMap.put(ViterbiNode.Type.INSERTED, insertedDictionary);
     }
 
+    /**
+     * Gets the time spent loading the dictionaries of this tokenizer
+     * <p>
+     * The map holds the load time in milliseconds of each loading phase, such as {@link #FST_PHASE}, and the
+     * wall time of the entire load as {@link #TOTAL_PHASE}.
+     * Phases are loaded concurrently, so their times typically add up to more than the total
+     *
+     * @return map from loading phase to milliseconds, not null
+     */
+    public Map<String, Long> getDictionaryLoadTimes() {
+        return dictionaryLoadTimes;
+    }
+
     public List<? extends TokenBase> tokenize(String text) {
         return createTokenList(text);
     }
 
+    /**
+     * Tokenizes text held in any character sequence, such as a {@link StringBuilder} or a {@link CharBuffer},
+     * without copying it to a string first
+     * <p>
+     * The text must not change while it is tokenized
+     *
+     * @param text  text to tokenize
+     * @return list of tokens, not null
+     */
+    public List<? extends TokenBase> tokenize(CharSequence text) {
+        return createTokenList(text);
+    }
+
+    /**
+     * Tokenizes text[offset, offset + length) without copying it to a string first
+     * <p>
+     * Token positions are relative to offset. The characters must not change while they are tokenized
+     *
+     * @param text  buffer with the text to tokenize
+     * @param offset  index of the first character to tokenize
+     * @param length  number of characters to tokenize
+     * @return list of tokens, not null
+     */
+    public List<? extends TokenBase> tokenize(char[] text, int offset, int length) {
+        return createTokenList(text, offset, length);
+    }
+
+    /**
+     * Tokenizes text with token boundaries known before tokenizing
+     * <p>
+     * Every token ends at the boundaries of the hints and every protected span is a single token. Tokens that contradict
+     * the hints are never created, so text with many hints, such as markup, has a smaller lattice and is tokenized
+     * faster. Text is not split at 句読点 inside a protected span
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param hints  boundaries and protected spans, with positions in the text
+     * @return list of tokens, not null
+     */
+    public List<? extends TokenBase> tokenize(String text, BoundaryHints hints) {
+        return createTokenList(text, hints);
+    }
+
+    /**
+     * Tokenizes the text read from a reader, passing tokens to a consumer as soon as they are known
+     * <p>
+     * The text is read in a bounded buffer, so memory use does not depend on the length of the text.
+     * The buffer is tokenized up to the last 。 or 、 in it when splitting is enabled. Otherwise, its tokens are
+     * emitted up to the last node that all paths through the buffer pass through, before any word that may continue
+     * past the end of the buffer, and tokenizing continues after that node. Either way, the tokens are the same as
+     * for {@link #tokenize(String)} on the entire text. Only if the buffer has no such node, it is tokenized
+     * entirely, so tokens longer than the buffer, such as very long runs of unknown characters, are cut at the
+     * buffer size.
+     * <p>
+     * Tokens are passed in the order of {@link #tokenize(String)} for each tokenized part of the buffer. In extended
+     * mode, the unigrams of unknown words come after the other tokens of their part, so without 句読点 the order can
+     * differ from tokenize(String). {@link TokenBase#getPosition()} is the position in the entire text for texts of
+     * up to {@link Integer#MAX_VALUE} characters, and the consumer receives the position of any length of text
+     * <p>
+     * This method is thread safe
+     *
+     * @param reader  reader to read the text from, not closed by this method
+     * @param consumer  consumer to pass tokens to
+     * @param <T>  token type
+     * @throws IOException if an error occurs reading the text, or the consumer fails
+     */
+    public <T extends TokenBase> void tokenize(final Reader reader, final TokenConsumer<T> consumer) throws IOException {
+        tokenize(new CharSource<T>() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return reader.read(buffer, offset, length);
+            }
+
+            @Override
+            public void accept(T token, long position, int start, int end) throws IOException {
+                consumer.accept(token, position);
+            }
+        }, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Tokenizes UTF-8 encoded text, passing tokens to a consumer with their location in both characters and bytes
+     * <p>
+     * The bytes are decoded incrementally into a bounded character buffer, so no string is created for the text,
+     * and tokens are found as by {@link #tokenize(Reader, TokenConsumer)}. Malformed bytes are decoded as
+     * U+FFFD with the byte length of the malformed sequence, so byte locations always refer to the input.
+     * Byte locations of tokens that start or end between the two characters of a surrogate pair are rounded to
+     * the end of the pair
+     * <p>
+     * This method is thread safe
+     *
+     * @param utf8  UTF-8 encoded text from its position to its limit, read by this method
+     * @param consumer  consumer to pass tokens to
+     * @param <T>  token type
+     * @throws IOException if the consumer fails
+     */
+    public <T extends TokenBase> void tokenize(ByteBuffer utf8, Utf8TokenConsumer<T> consumer) throws IOException {
+        // UTF-8 never decodes to more characters than bytes, so small inputs fit a buffer of their size
+        int bufferSize = Math.max(1, Math.min(STREAM_BUFFER_SIZE, utf8.remaining()));
+
+        tokenize(new Utf8Source<>(utf8, consumer, bufferSize), bufferSize);
+    }
+
+    /**
+     * Tokenizes UTF-8 encoded text in utf8[offset, offset + length), passing tokens to a consumer with their location in
+     * both characters and bytes
+     *
+     * @param utf8  buffer with UTF-8 encoded text
+     * @param offset  index of the first byte of the text
+     * @param length  number of bytes in the text
+     * @param consumer  consumer to pass tokens to
+     * @param <T>  token type
+     * @throws IOException if the consumer fails
+     * @see #tokenize(ByteBuffer, Utf8TokenConsumer)
+     */
+    public <T extends TokenBase> void tokenize(byte[] utf8, int offset, int length, Utf8TokenConsumer<T> consumer) throws IOException {
+        tokenize(ByteBuffer.wrap(utf8, offset, length).slice(), consumer);
+    }
+
+    private <T extends TokenBase> void tokenize(CharSource<T> source, int bufferSize) throws IOException {
+        char[] buffer = new char[bufferSize];
+        int length = 0;
+        long bufferPosition = 0;
+        int contextId = 0;
+        boolean eof = false;
+
+        while (true) {
+            while (!eof && length < buffer.length) {
+                int read = source.read(buffer, length, buffer.length - length);
+
+                if (read < 0) {
+                    eof = true;
+                } else if (read == 0) {
+                    // The next character does not fit, such as a surrogate pair in the last free slot
+                    break;
+                } else {
+                    length += read;
+                }
+            }
+
+            if (length == 0) {
+                return;
+            }
+
+            // Token positions are int, so they stop increasing once the text no longer fits
+            int offset = (int) Math.min(bufferPosition, Integer.MAX_VALUE - buffer.length);
+            int consumed = eof ? length : getLastSplitPosition(buffer, length) + 1;
+            List<T> tokens;
+
+            if (consumed > 0) {
+                tokens = createSplitTokenList(offset, CharBuffer.wrap(buffer, 0, consumed), contextId);
+
+                // The next buffer starts a sentence, like split sentences
+                contextId = 0;
+            } else {
+                // No 句読点, so only the tokens up to the last node that all paths pass through are known
+                CharBuffer text = CharBuffer.wrap(buffer, 0, length);
+                ViterbiLattice lattice = buildLattice(text, contextId, null);
+                List<ViterbiNode> bestPath = searchLattice(lattice, text.length());
+                ViterbiNode cut = viterbiSearcher.findLastCut(lattice, viterbiBuilder.findOpenIndex(text, lattice));
+
+                if (cut != null) {
+                    consumed = cut.getStartIndex() + cut.getLength();
+                    contextId = cut.getRightId();
+                } else {
+                    // Tokens longer than the buffer are cut at its end, continuing after the node before EOS
+                    consumed = length;
+                    contextId = lattice.getEndIndexArr()[0][0].getLeftNode().getRightId();
+                }
+
+                List<ViterbiNode> knownPath = new ArrayList<>();
+
+                for (ViterbiNode node : bestPath) {
+                    if (node.getStartIndex() < consumed) {
+                        knownPath.add(node);
+                    }
+                }
+                tokens = createTokens(offset, knownPath);
+            }
+
+            for (T token : tokens) {
+                int start = token.getPosition() - offset;
+                source.accept(token, bufferPosition + start, start, start + token.getSurface().length());
+            }
+
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            source.shift(consumed, length);
+            length -= consumed;
+            bufferPosition += consumed;
+        }
+    }
+
+    private int getLastSplitPosition(char[] buffer, int length) {
+        if (!split) {
+            return -1;
+        }
+
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '。' || buffer[i] == '、') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public <T extends TokenBase> List<List<T>> multiTokenize(String text, int maxCount, int costSlack) {
 
         return createMultiTokenList(text, maxCount, costSlack);
@@ -130,6 +400,72 @@ public abstract class TokenizerBase {
         return multiTokenize(text, Integer.MAX_VALUE, costSlack);
     }
 
+    /**
+     * Tokenizes the provided text and returns both the best tokenization and the tokenizations returned by
+     * {@link #multiTokenize(String, int, int)}
+     * <p>
+     * The lattice and its path costs are computed once for both, instead of once by {@link #tokenize(String)}
+     * and again by multiTokenize. The best tokenization is found by an exact search, also if a beam is set.
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param maxCount  maximum number of different tokenizations
+     * @param costSlack  maximum cost slack of a tokenization
+     * @param <T>  token type
+     * @return best tokenization and tokenizations, not null
+     */
+    public <T extends TokenBase> NBestResult<T> tokenizeWithMultiple(String text, int maxCount, int costSlack) {
+        return createNBestResult(text, maxCount, costSlack);
+    }
+
+    public <T extends TokenBase> NBestResult<T> tokenizeWithNBest(String text, int n) {
+        return tokenizeWithMultiple(text, n, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Tokenizes the provided text and returns every token of the tokenizations with cost at most OPT + costSlack,
+     * where OPT is the optimal solution, as a lattice of unique tokens with their cost margins
+     * <p>
+     * The tokens are the same as in the tokenizations returned by {@link #multiTokenizeBySlack(String, int)}, but
+     * are found without enumerating the tokenizations. Like multiTokenize, unknown words are not split into unigrams
+     * in extended mode.
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param costSlack  maximum cost margin of a token
+     * @param <T>  token type
+     * @return lattice of tokens, not null
+     */
+    public <T extends TokenBase> TokenLattice<T> tokenizeLattice(String text, int costSlack) {
+        return createTokenLattice(text, costSlack);
+    }
+
+    /**
+     * Tokenizes the provided text and returns the best tokenization with the cost margin and marginal probability
+     * of each token and of each boundary between characters
+     * <p>
+     * The margins and probabilities are found by a forward and a backward pass over the lattice, in time linear in the
+     * number of lattice edges, instead of enumerating tokenizations with {@link #multiTokenizeBySlack(String, int)}.
+     * A tokenization is weighed by exp(-cost / temperature). The best tokenization is found by an exact search, and
+     * like multiTokenize, unknown words are not split into unigrams in extended mode.
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param temperature  cost scale of the probabilities, where a higher temperature gives a flatter distribution
+     * @param <T>  token type
+     * @return best tokenization with margins and probabilities, not null
+     * @throws IllegalArgumentException if temperature is not positive
+     */
+    public <T extends TokenBase> TokenMarginals<T> tokenizeWithMarginals(String text, double temperature) {
+        if (!(temperature > 0)) {
+            throw new IllegalArgumentException("Temperature must be positive, got " + temperature);
+        }
+        return createTokenMarginals(text, temperature);
+    }
+
     /**
      * Tokenizes the provided text and returns a list of tokens with various feature information
      * <p>
@@ -139,34 +475,109 @@ public abstract class TokenizerBase {
      * @param <T>  token type
      * @return list of Token, not null
      */
-    protected <T extends TokenBase> List<T> createTokenList(String text) {
+    protected <T extends TokenBase> List<T> createTokenList(CharSequence text) {
+        return createSplitTokenList(0, text, 0);
+    }
+
+    /**
+     * Tokenizes text[offset, offset + length) and returns a list of tokens with positions relative to offset
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  buffer with the text to tokenize
+     * @param offset  index of the first character to tokenize
+     * @param length  number of characters to tokenize
+     * @param <T>  token type
+     * @return list of Token, not null
+     */
+    protected <T extends TokenBase> List<T> createTokenList(char[] text, int offset, int length) {
+        return createTokenList(CharBuffer.wrap(text, offset, length).slice());
+    }
+
+    /**
+     * Tokenizes the provided text with token boundaries known before tokenizing, split at 句読点 outside of protected
+     * spans if splitting is enabled
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param hints  boundaries and protected spans, with positions in the text
+     * @param <T>  token type
+     * @return list of Token, not null
+     */
+    protected <T extends TokenBase> List<T> createTokenList(String text, BoundaryHints hints) {
+        LatticeConstraints constraints = hints.getConstraints(text.length());
+        List<Integer> splitPositions = split ? getSplitPositions(text) : Collections.<Integer>emptyList();
+        List<T> result = new ArrayList<>();
+        int offset = 0;
+
+        for (int position : splitPositions) {
+            if (constraints.isProtected(position + 1)) {
+                continue;
+            }
+            result.addAll(this.<T>createTokenList(offset, text.substring(offset, position + 1), 0, constraints.slice(offset, position + 1)));
+            offset = position + 1;
+        }
+
+        if (offset < text.length()) {
+            result.addAll(this.<T>createTokenList(offset, text.substring(offset), 0, constraints.slice(offset, text.length())));
+        }
+
+        return result;
+    }
+
+    /**
+     * Tokenizes text, split at 句読点 if splitting is enabled
+     *
+     * @param position  position of the text in the input
+     * @param text  text to tokenize
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @return list of Token, not null
+     */
+    private <T extends TokenBase> List<T> createSplitTokenList(int position, CharSequence text, int contextId) {
 
         if (!split) {
-            return createTokenList(0, text);
+            return createTokenList(position, text, contextId, null);
         }
 
         List<Integer> splitPositions = getSplitPositions(text);
 
         if (splitPositions.size() == 0) {
-            return createTokenList(0, text);
+            return createTokenList(position, text, contextId, null);
         }
 
         ArrayList<T> result = new ArrayList<>();
 
         int offset = 0;
 
-        for (int position : splitPositions) {
-            result.addAll(this.<T>createTokenList(offset, text.substring(offset, position + 1)));
-            offset = position + 1;
+        for (int splitPosition : splitPositions) {
+            result.addAll(this.<T>createTokenList(position + offset, segment(text, offset, splitPosition + 1), contextId, null));
+            offset = splitPosition + 1;
+            contextId = 0;
         }
 
         if (offset < text.length()) {
-            result.addAll(this.<T>createTokenList(offset, text.substring(offset)));
+            result.addAll(this.<T>createTokenList(position + offset, segment(text, offset, text.length()), contextId, null));
         }
 
         return result;
     }
 
+    /**
+     * Gets text[start, end) as a character sequence, sharing the characters of text unless it is a string
+     *
+     * @param text  text to get the segment of
+     * @param start  index of the first character in the segment
+     * @param end  index after the last character in the segment
+     * @return segment of text, not null
+     */
+    private static CharSequence segment(CharSequence text, int start, int end) {
+        if (text instanceof String || text instanceof CharBuffer) {
+            return text.subSequence(start, end);
+        }
+        return CharBuffer.wrap(text, start, end);
+    }
+
     /**
      * Tokenizes the provided text and returns up to maxCount lists of tokens with various feature information.
      * Each list corresponds to a possible tokenization with cost at most OPT + costSlack, where OPT is the optimal solution.
@@ -209,34 +620,199 @@ public abstract class TokenizerBase {
         return convertMultiSearchResultToList(mergedResult);
     }
 
+    /**
+     * Tokenizes the provided text like {@link #createTokenList(CharSequence)} and {@link #createMultiTokenList(String, int, int)},
+     * building and searching the lattice of each sentence only once
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param maxCount  maximum number of different tokenizations
+     * @param costSlack  maximum cost slack of a tokenization
+     * @param <T>  token type
+     * @return best tokenization and tokenizations, not null
+     */
+    protected <T extends TokenBase> NBestResult<T> createNBestResult(String text, int maxCount, int costSlack) {
+        List<Integer> splitPositions = split ? getSplitPositions(text) : Collections.<Integer>emptyList();
+
+        if (splitPositions.size() == 0) {
+            ViterbiLattice lattice = viterbiBuilder.build(text);
+            MultiSearchResult multiSearchResult = viterbiSearcher.searchMultiple(lattice, maxCount, costSlack);
+
+            return new NBestResult<>(
+                this.<T>createTokens(0, viterbiSearcher.getBestPath(lattice)),
+                this.<T>convertMultiSearchResultToList(multiSearchResult)
+            );
+        }
+
+        List<T> bestTokens = new ArrayList<>();
+        List<MultiSearchResult> results = new ArrayList<>();
+        int offset = 0;
+
+        for (int position : splitPositions) {
+            ViterbiLattice lattice = viterbiBuilder.build(text.substring(offset, position + 1));
+            results.add(viterbiSearcher.searchMultiple(lattice, maxCount, costSlack));
+            bestTokens.addAll(this.<T>createTokens(offset, viterbiSearcher.getBestPath(lattice)));
+            offset = position + 1;
+        }
+
+        if (offset < text.length()) {
+            ViterbiLattice lattice = viterbiBuilder.build(text.substring(offset));
+            results.add(viterbiSearcher.searchMultiple(lattice, maxCount, costSlack));
+            bestTokens.addAll(this.<T>createTokens(offset, viterbiSearcher.getBestPath(lattice)));
+        }
+
+        MultiSearchMerger merger = new MultiSearchMerger(maxCount, costSlack);
+
+        return new NBestResult<>(bestTokens, this.<T>convertMultiSearchResultToList(merger.merge(results)));
+    }
+
+    /**
+     * Tokenizes the provided text into a lattice of the tokens with cost margin at most costSlack, split at 句読点 if
+     * splitting is enabled
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param costSlack  maximum cost margin of a token
+     * @param <T>  token type
+     * @return lattice of tokens, not null
+     */
+    protected <T extends TokenBase> TokenLattice<T> createTokenLattice(String text, int costSlack) {
+        List<Integer> splitPositions = split ? getSplitPositions(text) : Collections.<Integer>emptyList();
+        List<T> tokens = new ArrayList<>();
+        List<Integer> margins = new ArrayList<>();
+        int offset = 0;
+
+        // Sentences are searched independently, so the margins within a sentence are also margins in the text
+        for (int position : splitPositions) {
+            addLatticeTokens(offset, text.substring(offset, position + 1), costSlack, tokens, margins);
+            offset = position + 1;
+        }
+
+        if (offset < text.length()) {
+            addLatticeTokens(offset, text.substring(offset), costSlack, tokens, margins);
+        }
+
+        return new TokenLattice<>(tokens, margins);
+    }
+
+    /**
+     * Tokenizes the provided text into its best tokenization with margins and probabilities, split at 句読点 if
+     * splitting is enabled
+     * <p>
+     * This method is thread safe
+     *
+     * @param text  text to tokenize
+     * @param temperature  cost scale of the probabilities
+     * @param <T>  token type
+     * @return best tokenization with margins and probabilities, not null
+     */
+    protected <T extends TokenBase> TokenMarginals<T> createTokenMarginals(String text, double temperature) {
+        List<Integer> splitPositions = split ? getSplitPositions(text) : Collections.<Integer>emptyList();
+        List<Integer> offsets = new ArrayList<>();
+        List<ViterbiMarginals> sentences = new ArrayList<>();
+        int offset = 0;
+
+        for (int position : splitPositions) {
+            offsets.add(offset);
+            sentences.add(viterbiSearcher.searchMarginals(viterbiBuilder.build(text.substring(offset, position + 1)), temperature));
+            offset = position + 1;
+        }
+
+        if (offset < text.length() || sentences.isEmpty()) {
+            offsets.add(offset);
+            sentences.add(viterbiSearcher.searchMarginals(viterbiBuilder.build(text.substring(offset)), temperature));
+        }
+
+        int tokenCount = 0;
+
+        for (ViterbiMarginals sentence : sentences) {
+            tokenCount += sentence.getBestPath().size();
+        }
+
+        List<T> tokens = new ArrayList<>(tokenCount);
+        int[] margins = new int[tokenCount];
+        double[] probabilities = new double[tokenCount];
+        int[] boundaryMargins = new int[text.length() + 1];
+        double[] boundaryProbabilities = new double[text.length() + 1];
+
+        // Sentences are searched independently, and the boundaries between them are in every tokenization
+        for (int i = 0; i < sentences.size(); i++) {
+            ViterbiMarginals sentence = sentences.get(i);
+            int sentenceOffset = offsets.get(i);
+
+            for (int j = 0; j < sentence.getBestPath().size(); j++) {
+                margins[tokens.size() + j] = sentence.getNodeMargin(j);
+                probabilities[tokens.size() + j] = sentence.getNodeProbability(j);
+            }
+            tokens.addAll(this.<T>createTokens(sentenceOffset, sentence.getBestPath()));
+
+            int sentenceEnd = i + 1 < sentences.size() ? offsets.get(i + 1) : text.length();
+
+            for (int position = sentenceOffset; position <= sentenceEnd; position++) {
+                boundaryMargins[position] = sentence.getBoundaryMargin(position - sentenceOffset);
+                boundaryProbabilities[position] = sentence.getBoundaryProbability(position - sentenceOffset);
+            }
+        }
+
+        return new TokenMarginals<>(tokens, margins, probabilities, boundaryMargins, boundaryProbabilities);
+    }
+
+    private <T extends TokenBase> void addLatticeTokens(int offset, String text, int costSlack, List<T> tokens, List<Integer> margins) {
+        ViterbiLattice lattice = viterbiBuilder.build(text);
+        List<ViterbiNode> nodes = viterbiSearcher.searchLattice(lattice, costSlack);
+        int bestCost = lattice.getEndIndexArr()[0][0].getPathCost();
+
+        tokens.addAll(this.<T>createTokens(offset, nodes));
+
+        for (ViterbiNode node : nodes) {
+            margins.add(node.getPathCost() + node.getBackwardCost() - bestCost);
+        }
+    }
+
     private <T extends TokenBase> List<List<T>> convertMultiSearchResultToList(MultiSearchResult multiSearchResult) {
         List<List<T>> result = new ArrayList<>();
 
         List<List<ViterbiNode>> paths = multiSearchResult.getTokenizedResultsList();
 
         for (List<ViterbiNode> path : paths) {
-            ArrayList<T> tokens = new ArrayList<>();
-            for (ViterbiNode node : path) {
-                int wordId = node.getWordId();
-                if (node.getType() == ViterbiNode.Type.KNOWN && wordId == -1) { // Do not include BOS/EOS
-                    continue;
-                }
-                @SuppressWarnings("unchecked")
-                T token = (T) tokenFactory.createToken(
-                        wordId,
-                        node.getSurface(),
-                        node.getType(),
-                        node.getStartIndex(),
-                        dictionaryMap.get(node.getType())
-                );
-                tokens.add(token);
-            }
-            result.add(tokens);
+            result.add(this.<T>createTokens(0, path));
         }
 
         return result;
     }
 
+    /**
+     * Creates the tokens of a path, leaving out BOS and EOS
+     *
+     * @param offset  offset of the sentence of the path in the input text
+     * @param path  path to create tokens for
+     * @param <T>  token type
+     * @return list of Token, not null
+     */
+    private <T extends TokenBase> List<T> createTokens(int offset, List<ViterbiNode> path) {
+        ArrayList<T> tokens = new ArrayList<>();
+
+        for (ViterbiNode node : path) {
+            int wordId = node.getWordId();
+            if (node.getType() == ViterbiNode.Type.KNOWN && wordId == -1) { // Do not include BOS/EOS
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            T token = (T) tokenFactory.createToken(
+                wordId,
+                node.getSurface(),
+                node.getType(),
+                offset + node.getStartIndex(),
+                dictionaryMap.get(node.getType())
+            );
+            tokens.add(token);
+        }
+
+        return tokens;
+    }
+
     /**
      * Tokenizes the provided text and outputs the corresponding Viterbi lattice and the Viterbi path to the provided output stream
      * <p>
@@ -284,26 +860,14 @@ public abstract class TokenizerBase {
      * @param text
      * @return list of split position
      */
-    private List<Integer> getSplitPositions(String text) {
+    private List<Integer> getSplitPositions(CharSequence text) {
         ArrayList<Integer> splitPositions = new ArrayList<>();
-        int position;
-        int currentPosition = 0;
-
-        while (true) {
-            int indexOfMaru = text.indexOf("。", currentPosition);
-            int indexOfTen = text.indexOf("、", currentPosition);
 
-            if (indexOfMaru < 0 || indexOfTen < 0) {
-                position = Math.max(indexOfMaru, indexOfTen);
-            } else {
-                position = Math.min(indexOfMaru, indexOfTen);
-            }
+        for (int position = 0; position < text.length(); position++) {
+            char c = text.charAt(position);
 
-            if (position >= 0) {
+            if (c == '。' || c == '、') {
                 splitPositions.add(position);
-                currentPosition = position + 1;
-            } else {
-                break;
             }
         }
 
@@ -315,31 +879,49 @@ public abstract class TokenizerBase {
      *
      * @param offset   offset of sentence in original input text
      * @param text sentence to tokenize
+     * @param contextId  right connection id of the token before the sentence, or 0 at its beginning
+     * @param constraints  constraints with indices in the sentence, or null if there are none
      * @return list of Token
      */
-    private <T extends TokenBase> List<T> createTokenList(int offset, String text) {
-        ArrayList<T> result = new ArrayList<>();
+    private <T extends TokenBase> List<T> createTokenList(int offset, CharSequence text, int contextId, LatticeConstraints constraints) {
+        ViterbiLattice lattice = buildLattice(text, contextId, constraints);
 
-        ViterbiLattice lattice = viterbiBuilder.build(text);
-        List<ViterbiNode> bestPath = viterbiSearcher.search(lattice);
+        return createTokens(offset, searchLattice(lattice, text.length()));
+    }
 
-        for (ViterbiNode node : bestPath) {
-            int wordId = node.getWordId();
-            if (node.getType() == ViterbiNode.Type.KNOWN && wordId == -1) { // Do not include BOS/EOS
-                continue;
-            }
-            @SuppressWarnings("unchecked")
-            T token = (T) tokenFactory.createToken(
-                wordId,
-                node.getSurface(),
-                node.getType(),
-                offset + node.getStartIndex(),
-                dictionaryMap.get(node.getType())
-            );
-            result.add(token);
+    /**
+     * Builds the lattice of a text, looking up words in parallel if a segment executor is set and the text is long
+     * enough
+     *
+     * @param text  text to build the lattice of
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @param constraints  constraints with indices in the text, or null if there are none
+     * @return built lattice, not null
+     */
+    private ViterbiLattice buildLattice(CharSequence text, int contextId, LatticeConstraints constraints) {
+        if (isSegmented(text.length())) {
+            return viterbiBuilder.build(text, contextId, constraints, segmentExecutor, segmentWindowLength);
         }
+        return viterbiBuilder.build(text, contextId, constraints);
+    }
 
-        return result;
+    /**
+     * Finds the best path of a lattice, searching segments in parallel if a segment executor is set and the text is
+     * long enough
+     *
+     * @param lattice  lattice to search
+     * @param textLength  length of the text of the lattice
+     * @return best path, not null
+     */
+    private List<ViterbiNode> searchLattice(ViterbiLattice lattice, int textLength) {
+        if (isSegmented(textLength)) {
+            return viterbiSearcher.search(lattice, segmentExecutor, segmentWindowLength);
+        }
+        return viterbiSearcher.search(lattice);
+    }
+
+    private boolean isSegmented(int textLength) {
+        return segmentExecutor != null && textLength >= 2 * segmentWindowLength;
     }
 
     /**
@@ -376,23 +958,183 @@ public abstract class TokenizerBase {
         protected int readingFeature = -1;
         protected int partOfSpeechFeature = -1;
 
+        protected boolean materializeFeatures = false;
+
+        protected int beamWidth = Integer.MAX_VALUE;
+        protected int beamCostMargin = Integer.MAX_VALUE;
+
+        protected ExecutorService segmentExecutor = null;
+        protected int segmentWindowLength;
+
         protected ResourceResolver resolver;
 
         protected TokenFactory tokenFactory;
 
+        protected ExecutorService loadExecutor = null;
+
+        protected Map<String, Long> loadTimes = new LinkedHashMap<>();
+
+        /**
+         * Loads the dictionaries
+         * <p>
+         * The dictionaries are independent of each other and are loaded concurrently, using the executor given by
+         * {@link #loadExecutor(ExecutorService)} or a temporary thread pool otherwise.
+         * The load time of each dictionary is recorded in {@link #loadTimes}.
+         * If a load fails or the calling thread is interrupted, the remaining loads are cancelled, and an interrupt
+         * is reported by restoring the thread's interrupt status
+         */
         protected void loadDictionaries() {
+            long start = System.nanoTime();
+
+            ExecutorService executor = loadExecutor;
+
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(LOAD_THREADS, new DaemonThreadFactory());
+            }
+
+            List<Future<?>> futures = new ArrayList<>();
+            boolean loaded = false;
+
             try {
-                fst = FST.newInstance(resolver);
-                connectionCosts = ConnectionCosts.newInstance(resolver);
-                tokenInfoDictionary = TokenInfoDictionary.newInstance(resolver);
-                characterDefinitions = CharacterDefinitions.newInstance(resolver);
-                unknownDictionary = UnknownDictionary.newInstance(
-                    resolver, characterDefinitions, totalFeatures
-                );
+                Future<FST> fstFuture = executor.submit(new TimedLoad<FST>(FST_PHASE) {
+                    @Override
+                    protected FST load() throws IOException {
+                        return FST.newInstance(resolver);
+                    }
+                });
+                futures.add(fstFuture);
+
+                Future<ConnectionCosts> connectionCostsFuture = executor.submit(new TimedLoad<ConnectionCosts>(CONNECTION_COSTS_PHASE) {
+                    @Override
+                    protected ConnectionCosts load() throws IOException {
+                        return ConnectionCosts.newInstance(resolver);
+                    }
+                });
+                futures.add(connectionCostsFuture);
+
+                Future<TokenInfoDictionary> tokenInfoDictionaryFuture = executor.submit(new TimedLoad<TokenInfoDictionary>(TOKEN_INFO_DICTIONARY_PHASE) {
+                    @Override
+                    protected TokenInfoDictionary load() throws IOException {
+                        return TokenInfoDictionary.newInstance(resolver, true, materializeFeatures);
+                    }
+                });
+                futures.add(tokenInfoDictionaryFuture);
+
+                Future<UnknownDictionary> unknownDictionaryFuture = executor.submit(new TimedLoad<UnknownDictionary>(UNKNOWN_DICTIONARY_PHASE) {
+                    @Override
+                    protected UnknownDictionary load() throws IOException {
+                        // The unknown dictionary refers to the character definitions, so load both in order
+                        characterDefinitions = CharacterDefinitions.newInstance(resolver);
+                        configureCharacterDefinitions(characterDefinitions);
+
+                        return UnknownDictionary.newInstance(
+                            resolver, characterDefinitions, totalFeatures
+                        );
+                    }
+                });
+                futures.add(unknownDictionaryFuture);
+
                 insertedDictionary = new InsertedDictionary(totalFeatures);
-            } catch (Exception ouch) {
-                throw new RuntimeException("Could not load dictionaries.", ouch);
+
+                fst = fstFuture.get();
+                connectionCosts = connectionCostsFuture.get();
+                tokenInfoDictionary = tokenInfoDictionaryFuture.get();
+                unknownDictionary = unknownDictionaryFuture.get();
+                loaded = true;
+            } catch (ExecutionException ouch) {
+                throw new RuntimeException("Could not load dictionaries.", ouch.getCause());
+            } catch (InterruptedException ouch) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading dictionaries.", ouch);
+            } finally {
+                if (!loaded) {
+                    // Stop the remaining loads, which may be running on a caller's executor
+                    for (Future<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+
+                if (executor != loadExecutor) {
+                    executor.shutdown();
+                }
+            }
+
+            recordLoadTime(TOTAL_PHASE, System.nanoTime() - start);
+        }
+
+        /**
+         * Adjusts the character definitions after they are loaded and before the unknown dictionary is created
+         * <p>
+         * This is called on a loader thread.
+         * The default implementation does nothing
+         *
+         * @param characterDefinitions  loaded character definitions
+         */
+        protected void configureCharacterDefinitions(CharacterDefinitions characterDefinitions) {
+        }
+
+        private void recordLoadTime(String phase, long nanos) {
+            synchronized (loadTimes) {
+                loadTimes.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+        }
+
+        /**
+         * Creates a Tokenizer instance in the background
+         * <p>
+         * Dictionaries are loaded on a new daemon thread, which allows the caller to continue with other startup work.
+         * The Builder must not be modified until the returned future completes
+         *
+         * @param <T> token type
+         * @return future Tokenizer instance, not null
+         */
+        public <T extends TokenizerBase> Future<T> buildAsync() {
+            FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() {
+                    return Builder.this.build();
+                }
+            });
+
+            Thread thread = new DaemonThreadFactory().newThread(task);
+            thread.start();
+            return task;
+        }
+
+        /**
+         * Sets the executor used to load dictionaries concurrently
+         * <p>
+         * The executor is not shut down by the Builder.
+         * By default, a temporary thread pool is used
+         *
+         * @param executor  executor to load dictionaries with
+         * @return this builder
+         */
+        public Builder loadExecutor(ExecutorService executor) {
+            this.loadExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Loads a dictionary and records its load time
+         */
+        private abstract class TimedLoad<V> implements Callable<V> {
+
+            private final String phase;
+
+            public TimedLoad(String phase) {
+                this.phase = phase;
             }
+
+            @Override
+            public V call() throws IOException {
+                long start = System.nanoTime();
+                V value = load();
+                recordLoadTime(phase, System.nanoTime() - start);
+                return value;
+            }
+
+            protected abstract V load() throws IOException;
         }
 
         /**
@@ -403,6 +1145,99 @@ public abstract class TokenizerBase {
          */
         public abstract <T extends TokenizerBase> T build();
 
+        /**
+         * Sets whether all dictionary feature values are decoded when the dictionaries are loaded
+         * <p>
+         * Materialized features are shared String instances and reading a feature does not allocate, which helps
+         * applications that read most features of most tokens.
+         * This costs additional heap, see {@link com.atilika.kuromoji.buffer.StringValueMapBuffer#getMaterializedSize()}.
+         * Part-of-speech values are always materialized.
+         * This feature is off by default.
+         *
+         * @param materialize  true to decode all feature values when loading, false to decode them on each lookup
+         * @return this builder
+         */
+        public Builder materializeFeatures(boolean materialize) {
+            this.materializeFeatures = materialize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of candidate left nodes kept at each position when searching the best path
+         * <p>
+         * This is an expert feature that bounds the search work per character for inputs with very many overlapping
+         * candidates, at the risk of not finding the best tokenization. Candidates with the same connection costs
+         * count as one. Multiple tokenizations are always found by an exact search.
+         * The search is exact by default.
+         *
+         * @param width  maximum number of candidates kept, at least 1
+         * @return this builder
+         */
+        public Builder beamWidth(int width) {
+            if (width < 1) {
+                throw new IllegalArgumentException("Beam width must be at least 1, got " + width);
+            }
+            this.beamWidth = width;
+            return this;
+        }
+
+        /**
+         * Sets the maximum path cost above the cheapest candidate of candidate left nodes kept at each position when
+         * searching the best path
+         * <p>
+         * This is an expert feature like {@link #beamWidth(int)}, and both limits apply when both are set.
+         * The search is exact by default.
+         *
+         * @param costMargin  maximum cost above the cheapest candidate, not negative
+         * @return this builder
+         */
+        public Builder beamCostMargin(int costMargin) {
+            if (costMargin < 0) {
+                throw new IllegalArgumentException("Beam cost margin must not be negative, got " + costMargin);
+            }
+            this.beamCostMargin = costMargin;
+            return this;
+        }
+
+        /**
+         * Sets an executor to tokenize long segments of text in parallel
+         * <p>
+         * Segments are the text between 句読点 when splitting is enabled, or else the entire text. Segments of at least
+         * twice the window length have their dictionary words looked up in windows in parallel, and their best path is
+         * searched in parallel between positions that every path passes through, at least a window apart.
+         * The tokens are the same as without an executor.
+         * The executor is not shut down by the Builder or the tokenizer, and tokenizing on a thread of the executor
+         * may deadlock if the executor has no other threads available.
+         * By default, all segments are tokenized by the calling thread
+         *
+         * @param executor  executor to tokenize long segments with
+         * @param windowLength  number of characters in a window, at least 1
+         * @return this builder
+         */
+        public Builder segmentExecutor(ExecutorService executor, int windowLength) {
+            if (windowLength < 1) {
+                throw new IllegalArgumentException("Window length must be at least 1, got " + windowLength);
+            }
+            this.segmentExecutor = executor;
+            this.segmentWindowLength = windowLength;
+            return this;
+        }
+
+        /**
+         * Loads the system dictionary from a packed container file instead of the bundled resources
+         * <p>
+         * Containers are written by the dictionary compiler when given a container filename.
+         * The container is memory-mapped and large dictionary sections are used in place without copying.
+         *
+         * @param filename  dictionary container filename
+         * @return this builder
+         * @throws java.io.IOException if an error occurs when opening the container
+         */
+        public Builder packedDictionary(String filename) throws IOException {
+            this.resolver = new PackedResourceResolver(new File(filename));
+            return this;
+        }
+
         /**
          * Sets an optional user dictionary as an input stream
          * <p>
@@ -435,5 +1270,146 @@ public abstract class TokenizerBase {
             input.close();
             return this;
         }
+
+        /**
+         * Creates daemon threads, so loading dictionaries never keeps the JVM alive
+         */
+        private static class DaemonThreadFactory implements ThreadFactory {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "kuromoji-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }
+    }
+
+    /**
+     * Source of the characters to tokenize as a stream, and receiver of their tokens
+     *
+     * @param <T>  token type
+     */
+    private abstract static class CharSource<T extends TokenBase> {
+
+        /**
+         * Reads characters into the buffer
+         *
+         * @param buffer  buffer to read into
+         * @param offset  index to read the first character to
+         * @param length  maximum number of characters to read
+         * @return number of characters read, or -1 at the end of the text
+         * @throws IOException if an error occurs reading
+         */
+        public abstract int read(char[] buffer, int offset, int length) throws IOException;
+
+        /**
+         * Receives the next token
+         *
+         * @param token  token
+         * @param position  start of the token in the entire text
+         * @param start  index of the first character of the token in the buffer
+         * @param end  index after the last character of the token in the buffer
+         * @throws IOException if the receiver fails
+         */
+        public abstract void accept(T token, long position, int start, int end) throws IOException;
+
+        /**
+         * Called when the buffer is shifted to drop its first characters
+         *
+         * @param consumed  number of characters dropped
+         * @param length  number of characters in the buffer before dropping
+         */
+        public void shift(int consumed, int length) {
+        }
+    }
+
+    /**
+     * Decodes UTF-8 bytes while keeping the number of bytes of each character in the buffer, to find the
+     * location of tokens in the bytes
+     *
+     * @param <T>  token type
+     */
+    private static class Utf8Source<T extends TokenBase> extends CharSource<T> {
+
+        private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+        private final ByteBuffer input;
+
+        private final Utf8TokenConsumer<T> consumer;
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        // Position in bytes of each character in the buffer and of the end of the last one, relative to bytePosition
+        private final int[] byteOffsets;
+
+        // Position in bytes of the first character in the buffer
+        private long bytePosition = 0;
+
+        public Utf8Source(ByteBuffer input, Utf8TokenConsumer<T> consumer, int bufferSize) {
+            this.input = input;
+            this.consumer = consumer;
+            this.byteOffsets = new int[bufferSize + 1];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (!input.hasRemaining()) {
+                return -1;
+            }
+
+            CharBuffer chars = CharBuffer.wrap(buffer, offset, length);
+
+            while (chars.hasRemaining()) {
+                int start = chars.position();
+                CoderResult result = decoder.decode(input, chars, true);
+
+                for (int i = start; i < chars.position(); i++) {
+                    byteOffsets[i + 1] = byteOffsets[i] + getUtf8Length(buffer[i]);
+                }
+
+                if (!result.isError() || !chars.hasRemaining()) {
+                    break;
+                }
+
+                byteOffsets[chars.position() + 1] = byteOffsets[chars.position()] + result.length();
+                chars.put(REPLACEMENT_CHARACTER);
+                input.position(input.position() + result.length());
+            }
+
+            return chars.position() - offset;
+        }
+
+        @Override
+        public void accept(T token, long position, int start, int end) throws IOException {
+            // Tokens are not always in position order, like the unigrams of unknown words in extended mode
+            consumer.accept(token, position, bytePosition + byteOffsets[start], byteOffsets[end] - byteOffsets[start]);
+        }
+
+        @Override
+        public void shift(int consumed, int length) {
+            int consumedBytes = byteOffsets[consumed];
+
+            for (int i = 0; i <= length - consumed; i++) {
+                byteOffsets[i] = byteOffsets[i + consumed] - consumedBytes;
+            }
+            bytePosition += consumedBytes;
+        }
+
+        private static byte getUtf8Length(char c) {
+            if (c < 0x80) {
+                return 1;
+            } else if (c < 0x800) {
+                return 2;
+            } else if (Character.isHighSurrogate(c)) {
+                return 4; // The entire surrogate pair
+            } else if (Character.isLowSurrogate(c)) {
+                return 0;
+            } else {
+                return 3;
+            }
+        }
     }
 }
@@ -42,6 +42,22 @@ public class FeatureInfoMap {
         return posFeatureIds;
     }
 
+    /**
+     * Maps a single feature, assigning the next id if the feature is new
+     *
+     * @param feature  feature to map
+     * @return feature id
+     */
+    public int mapFeature(String feature) {
+        Integer id = featureMap.get(feature);
+
+        if (id == null) {
+            id = maxValue++;
+            featureMap.put(feature, id);
+        }
+        return id;
+    }
+
     public TreeMap<Integer, String> invert() {
         TreeMap<Integer, String> features = new TreeMap<>();
 
@@ -17,30 +17,68 @@
 package com.atilika.kuromoji.buffer;
 
 import com.atilika.kuromoji.io.ByteBufferIO;
-import com.atilika.kuromoji.util.ScriptUtils;
 
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
+/**
+ * Map from keys 0 to n - 1 to string values, each stored in the most compact of several encodings
+ * <p>
+ * The encoded map starts with {@link #MAGIC} and {@link #VERSION}, so value maps compiled in another layout are
+ * rejected when loaded instead of being misread
+ */
 public class StringValueMapBuffer {
 
+    public static final int MAGIC = 0x4b56414c; // KVAL
+
+    public static final int VERSION = 1;
+
     private static final int INTEGER_BYTES = Integer.SIZE / Byte.SIZE;
 
+    // Magic, version and number of values, followed by the index of each value
+    private static final int HEADER_BYTES = 3 * INTEGER_BYTES;
+
     private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
 
-    private static final short KATAKANA_FLAG = (short) 0x8000;
+    // Each value starts with a short holding the encoding in the upper bits and the length in the lower bits
+
+    private static final int ENCODING_SHIFT = 13;
+
+    private static final int LENGTH_MASK = (1 << ENCODING_SHIFT) - 1;
+
+    private static final int UTF_16_ENCODING = 0; // UTF-16BE without byte order mark
 
-    private static final short KATAKANA_LENGTH_MASK = (short) 0x7fff;
+    private static final int KANA_ENCODING = 1; // One byte per char in U+3000 to U+30FF
 
-    private static final char KATAKANA_BASE = '\u3000'; // Katakana start at U+30A0
+    private static final int LATIN_1_ENCODING = 2; // One byte per char in U+0000 to U+00FF
+
+    private static final int UTF_8_ENCODING = 3;
+
+    private static final int INTEGER_ENCODING = 4; // Non-negative integer stored in the length bits, no bytes follow
+
+    private static final char KANA_BASE = '\u3000'; // Symbols start at U+3000, hiragana at U+3040, katakana at U+30A0
+
+    private static final char KANA_END = '\u30ff';
+
+    private static final int STRING_OVERHEAD = 40; // Assumed String and char[] headers, fields and padding
+
+    private static final int REFERENCE_BYTES = 4;
 
     private ByteBuffer buffer;
 
+    private String[] values;
+
     private int size;
 
     public StringValueMapBuffer(TreeMap<Integer, String> features) {
@@ -48,42 +86,240 @@ public class StringValueMapBuffer {
     }
 
     public StringValueMapBuffer(InputStream is) throws IOException {
-        buffer = ByteBufferIO.read(new BufferedInputStream(is));
-        size = buffer.getInt();
+        this(is, false);
+    }
+
+    /**
+     * Reads a value map and optionally decodes all values up front
+     * <p>
+     * A materialized map decodes every value once when loaded and returns the same String instance on
+     * every {@link #get(int)} call, trading heap for avoiding a String allocation per lookup.
+     * Equal values stored under different keys share one String instance.
+     * A lazy map keeps only the encoded buffer and decodes a new String on each lookup.
+     * See {@link #getEncodedSize()} and {@link #getMaterializedSize()} for the approximate memory cost of each choice
+     *
+     * @param is  input stream to read from
+     * @param materialize  true to decode all values when loading
+     * @throws IOException if an error occurs reading the map
+     */
+    public StringValueMapBuffer(InputStream is, boolean materialize) throws IOException {
+        this(ByteBufferIO.read(new BufferedInputStream(is)), materialize);
+    }
+
+    /**
+     * Creates a value map viewing an encoded map in place, such as a memory-mapped dictionary section
+     *
+     * @param buffer  buffer with the encoded map, positioned at its start
+     * @param materialize  true to decode all values up front
+     * @throws IOException if the buffer does not hold a value map in the expected format
+     * @see #StringValueMapBuffer(InputStream, boolean)
+     */
+    public StringValueMapBuffer(ByteBuffer buffer, boolean materialize) throws IOException {
+        this.buffer = buffer.slice();
+        size = readSize(this.buffer);
+
+        if (materialize) {
+            materialize();
+        }
+    }
+
+    /**
+     * Checks that a stream holds a value map, reading only its header
+     *
+     * @param is  input stream to read from
+     * @throws IOException if an error occurs reading or the stream does not hold a value map
+     */
+    public static void verify(InputStream is) throws IOException {
+        DataInputStream input = new DataInputStream(is);
+        int bufferSize = input.readInt();
+        byte[] header = new byte[Math.max(0, Math.min(bufferSize, HEADER_BYTES))];
+
+        input.readFully(header);
+
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        readHeader(headerBuffer);
+
+        int size = headerBuffer.getInt(2 * INTEGER_BYTES);
+
+        if (size < 0 || bufferSize < HEADER_BYTES + (long) size * INTEGER_BYTES) {
+            throw new IOException("Value map header is invalid");
+        }
+    }
+
+    private static int readSize(ByteBuffer buffer) throws IOException {
+        readHeader(buffer);
+
+        int size = buffer.getInt(2 * INTEGER_BYTES);
+
+        if (size < 0 || buffer.capacity() < HEADER_BYTES + (long) size * INTEGER_BYTES) {
+            throw new IOException("Value map header is invalid");
+        }
+        return size;
+    }
+
+    private static void readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Value map is not in the expected format, the dictionary needs to be recompiled");
+        }
+
+        int version = buffer.getInt(INTEGER_BYTES);
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported value map version " + version);
+        }
     }
 
     public String get(int key) {
         assert key >= 0 && key < size;
 
-        final int keyIndex = (key + 1) * INTEGER_BYTES;
-        final int valueIndex = buffer.getInt(keyIndex);
-        int length = buffer.getShort(valueIndex);
+        if (values != null) {
+            return values[key];
+        }
+
+        return decode(key);
+    }
+
+    /**
+     * Gets the number of values in this map
+     *
+     * @return number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Predicate indicating if all values are decoded and held as Strings
+     *
+     * @return true if values are materialized
+     */
+    public boolean isMaterialized() {
+        return values != null;
+    }
+
+    /**
+     * Gets the size of the encoded values in bytes
+     * <p>
+     * This is the memory held by a lazy map
+     *
+     * @return encoded size in bytes
+     */
+    public int getEncodedSize() {
+        if (buffer != null) {
+            return buffer.capacity();
+        }
+
+        int bytes = HEADER_BYTES + size * INTEGER_BYTES;
 
-        if ((length & KATAKANA_FLAG) != 0) {
-            length &= KATAKANA_LENGTH_MASK;
-            return getKatakanaString(valueIndex + SHORT_BYTES, length);
-        } else {
-            return getString(valueIndex + SHORT_BYTES, length);
+        for (String value : values) {
+            bytes += SHORT_BYTES + getByteSize(value);
         }
+        return bytes;
     }
 
-    private String getKatakanaString(final int valueIndex, final int length) {
+    /**
+     * Gets a rough estimate of the heap used by the decoded values in bytes
+     * <p>
+     * This approximates the memory held by a materialized map and is not a measurement.
+     * It counts each distinct value once, since a materialized map shares equal values, and assumes compressed
+     * references, two bytes per char and a fixed per-String overhead.
+     * The actual size depends on the JVM, for example compact strings store Latin-1 values in one byte per char.
+     * The encoded buffer, which a materialized map releases, is not included
+     *
+     * @return estimated materialized size in bytes
+     */
+    public long getMaterializedSize() {
+        long bytes = 16 + (long) size * REFERENCE_BYTES;
+        Set<String> distinct = new HashSet<>();
+
+        for (int i = 0; i < size; i++) {
+            String value = get(i);
+
+            if (distinct.add(value)) {
+                bytes += STRING_OVERHEAD + value.length() * 2;
+            }
+        }
+        return bytes;
+    }
+
+    private void materialize() {
+        String[] strings = new String[size];
+        Map<String, String> distinct = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            String value = decode(i);
+            String shared = distinct.get(value);
+
+            if (shared == null) {
+                distinct.put(value, value);
+                shared = value;
+            }
+            strings[i] = shared;
+        }
+
+        values = strings;
+        buffer = null;
+    }
+
+    private String decode(int key) {
+        final int keyIndex = HEADER_BYTES + key * INTEGER_BYTES;
+        final int valueIndex = buffer.getInt(keyIndex);
+        final int header = buffer.getShort(valueIndex) & 0xffff;
+        final int length = header & LENGTH_MASK;
+
+        switch (header >>> ENCODING_SHIFT) {
+            case KANA_ENCODING:
+                return getKanaString(valueIndex + SHORT_BYTES, length);
+            case LATIN_1_ENCODING:
+                return getString(valueIndex + SHORT_BYTES, length, StandardCharsets.ISO_8859_1);
+            case UTF_8_ENCODING:
+                return getString(valueIndex + SHORT_BYTES, length, StandardCharsets.UTF_8);
+            case INTEGER_ENCODING:
+                return Integer.toString(length);
+            default:
+                return getString(valueIndex + SHORT_BYTES, length, StandardCharsets.UTF_16BE);
+        }
+    }
+
+    private String getKanaString(final int valueIndex, final int length) {
         final char[] string = new char[length];
-        final byte[] array = buffer.array();
 
         for (int i = 0; i < length; i++) {
-            string[i] = (char) (KATAKANA_BASE + (array[valueIndex + i] & 0xff));
+            string[i] = (char) (KANA_BASE + (buffer.get(valueIndex + i) & 0xff));
         }
 
         return new String(string);
     }
 
-    private String getString(final int valueIndex, final int length) {
-        return new String(buffer.array(), valueIndex, length, StandardCharsets.UTF_16);
+    private String getString(final int valueIndex, final int length, Charset charset) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + valueIndex, length, charset);
+        }
+
+        final byte[] bytes = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(valueIndex + i);
+        }
+
+        return new String(bytes, charset);
     }
 
     public void write(OutputStream output) throws IOException {
+        if (buffer != null) {
+            ByteBufferIO.write(output, buffer);
+            return;
+        }
+
+        TreeMap<Integer, String> strings = new TreeMap<>();
+
+        for (int i = 0; i < size; i++) {
+            strings.put(i, values[i]);
+        }
+
+        put(strings);
         ByteBufferIO.write(output, buffer);
+        buffer = null;
     }
 
     private void put(TreeMap<Integer, String> strings) {
@@ -93,9 +329,11 @@ public class StringValueMapBuffer {
 //        System.out.println("bufferSize: " + bufferSize + ", size: " + size);
 
         buffer = ByteBuffer.wrap(new byte[bufferSize]);
-        buffer.putInt(0, size); // Set entries
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(INTEGER_BYTES, VERSION);
+        buffer.putInt(2 * INTEGER_BYTES, size); // Set entries
 
-        int keyIndex = INTEGER_BYTES; // First key index is past size
+        int keyIndex = HEADER_BYTES; // First key index is past the header
         int entryIndex = keyIndex + size * INTEGER_BYTES;
 
         for (String string : strings.values()) {
@@ -106,7 +344,7 @@ public class StringValueMapBuffer {
     }
 
     private int calculateSize(TreeMap<Integer, String> values) {
-        int size = INTEGER_BYTES + values.size() * INTEGER_BYTES;
+        int size = HEADER_BYTES + values.size() * INTEGER_BYTES;
 
         for (String value : values.values()) {
             size += SHORT_BYTES + getByteSize(value);
@@ -115,51 +353,125 @@ public class StringValueMapBuffer {
     }
 
     private int getByteSize(String string) {
-        if (ScriptUtils.isKatakana(string)) {
-            return string.length();
-        }
-
-        return getBytes(string).length;
+        return getBytes(string, getEncoding(string)).length;
     }
 
     private int put(int index, String value) {
-        boolean katakana = ScriptUtils.isKatakana(value);
-        byte[] bytes;
-        short length;
+        int encoding = getEncoding(value);
+        byte[] bytes = getBytes(value, encoding);
+        int length = encoding == INTEGER_ENCODING ? Integer.parseInt(value) : bytes.length;
 
-        if (katakana) {
-            bytes = getKatakanaBytes(value);
-            length = (short) (bytes.length | KATAKANA_FLAG & 0xffff);
-        } else {
-            bytes = getBytes(value);
-            length = (short) bytes.length;
+        if (length > LENGTH_MASK) {
+            throw new IllegalArgumentException("Value is too long: " + value);
         }
 
-//        System.out.println("index: " + index + ", value: " + value + ", kataka: " + katakana + ", length: " + bytes.length);
-
-        assert bytes.length < Short.MAX_VALUE;
-
         buffer.position(index);
-        buffer.putShort(length);
+        buffer.putShort((short) (encoding << ENCODING_SHIFT | length));
         buffer.put(bytes);
 
         return index + SHORT_BYTES + bytes.length;
     }
 
-    private byte[] getKatakanaBytes(String string) {
+    /**
+     * Chooses the most compact encoding for a value
+     */
+    private int getEncoding(String string) {
+        if (isSmallInteger(string)) {
+            return INTEGER_ENCODING;
+        }
+
+        boolean kana = true;
+        boolean latin1 = true;
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            kana &= c >= KANA_BASE && c <= KANA_END;
+            latin1 &= c <= '\u00ff';
+        }
+
+        if (kana) {
+            return KANA_ENCODING;
+        }
+
+        if (latin1) {
+            return LATIN_1_ENCODING;
+        }
+
+        if (getUtf8Length(string) < string.length() * 2) {
+            return UTF_8_ENCODING;
+        }
+
+        return UTF_16_ENCODING;
+    }
+
+    private boolean isSmallInteger(String string) {
+        int length = string.length();
+
+        // Only canonical decimals, so decoding gives back the same string
+        if (length == 0 || length > 4 || (string.charAt(0) == '0' && length > 1)) {
+            return false;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value <= LENGTH_MASK;
+    }
+
+    private int getUtf8Length(String string) {
+        int length = 0;
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private byte[] getBytes(String string, int encoding) {
+        switch (encoding) {
+            case KANA_ENCODING:
+                return getKanaBytes(string);
+            case LATIN_1_ENCODING:
+                return string.getBytes(StandardCharsets.ISO_8859_1);
+            case UTF_8_ENCODING:
+                return string.getBytes(StandardCharsets.UTF_8);
+            case INTEGER_ENCODING:
+                return new byte[0];
+            default:
+                return string.getBytes(StandardCharsets.UTF_16BE);
+        }
+    }
+
+    private byte[] getKanaBytes(String string) {
         final int length = string.length();
         final byte[] bytes = new byte[length];
 
         for (int i = 0; i < length; i++) {
             char c = string.charAt(i);
 
-            bytes[i] = (byte) (c - KATAKANA_BASE);
+            bytes[i] = (byte) (c - KANA_BASE);
         }
 
         return bytes;
     }
-
-    private byte[] getBytes(String string) {
-        return string.getBytes(StandardCharsets.UTF_16);
-    }
 }
@@ -17,99 +17,375 @@
 package com.atilika.kuromoji.buffer;
 
 import com.atilika.kuromoji.io.ByteBufferIO;
+import com.atilika.kuromoji.util.MappedResourceResolver;
+import com.atilika.kuromoji.util.ResourceResolver;
 
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
+/**
+ * Token info for all words in a dictionary
+ * <p>
+ * The left id, right id and word cost used by the Viterbi search are kept in dense columns indexed by word id.
+ * All other values (part-of-speech and feature value ids) are kept in fixed-size rows in a separate region that
+ * is read after the columns and can be loaded on first use, so that applications that only segment text never
+ * load it
+ * <p>
+ * The column section starts with {@link #MAGIC} and {@link #VERSION}, so token info compiled in another layout is
+ * rejected when loaded instead of being misread
+ */
 public class TokenInfoBuffer {
 
+    public static final int MAGIC = 0x4b544f4b; // KTOK
+
+    public static final int VERSION = 1;
+
     private static final int INTEGER_BYTES = Integer.SIZE / Byte.SIZE;
     private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
 
-    private ByteBuffer buffer;
+    private static final int COST_COUNT = 3; // left id, right id and word cost
+
+    private static final int HEADER_SIZE = INTEGER_BYTES * 4;
 
-    private final int tokenInfoCount;
-    private final int posInfoCount;
-    private final int featureCount;
+    private final short[] leftIds;
+    private final short[] rightIds;
+    private final short[] wordCosts;
 
-    private final int entrySize;
+    private final ResourceResolver resolver;
+    private final String resourceName;
 
+    private volatile ByteBuffer buffer;
+
+    private int tokenInfoCount;
+    private int posInfoCount;
+    private int featureCount;
+
+    private int entrySize;
+
+    /**
+     * Reads token info including all part-of-speech and feature values
+     *
+     * @param is  input stream to read from
+     * @throws IOException if an error occurs reading the token info or it is not in the expected format
+     */
     public TokenInfoBuffer(InputStream is) throws IOException {
-        buffer = ByteBufferIO.read(new BufferedInputStream(is));
-        tokenInfoCount = getTokenInfoCount();
-        posInfoCount = getPosInfoCount();
-        featureCount = getFeatureCount();
-        entrySize = getEntrySize(tokenInfoCount, posInfoCount, featureCount);
+        InputStream input = new BufferedInputStream(is);
+        ShortBuffer costs = readCosts(ByteBufferIO.read(input));
+        int entries = costs.remaining() / COST_COUNT;
+
+        leftIds = readColumn(costs, entries);
+        rightIds = readColumn(costs, entries);
+        wordCosts = readColumn(costs, entries);
+
+        resolver = null;
+        resourceName = null;
+
+        ByteBuffer features = ByteBufferIO.read(input);
+        readHeader(features, features.limit());
+        buffer = features;
+    }
+
+    /**
+     * Reads the left ids, right ids and word costs of a token info resource
+     * <p>
+     * The part-of-speech and feature values are read from the resource the first time they are needed, or viewed
+     * in place if the resolver maps resources.
+     * The header of the values is checked here, so a missing or inconsistent section fails when loading
+     *
+     * @param resolver  resolver for the token info resource
+     * @param resourceName  name of the token info resource
+     * @throws IOException if an error occurs reading the token info or it is not in the expected format
+     */
+    public TokenInfoBuffer(ResourceResolver resolver, String resourceName) throws IOException {
+        this.resolver = resolver;
+        this.resourceName = resourceName;
+
+        if (resolver instanceof MappedResourceResolver) {
+            ByteBuffer section = ((MappedResourceResolver) resolver).map(resourceName);
+            ShortBuffer costs = readCosts(ByteBufferIO.read(section));
+            int entries = costs.remaining() / COST_COUNT;
+
+            leftIds = readColumn(costs, entries);
+            rightIds = readColumn(costs, entries);
+            wordCosts = readColumn(costs, entries);
+
+            ByteBuffer features = ByteBufferIO.read(section);
+            readHeader(features, features.limit());
+            buffer = features;
+            return;
+        }
+
+        InputStream input = new BufferedInputStream(resolver.resolve(resourceName));
+
+        try {
+            ShortBuffer costs = readCosts(ByteBufferIO.read(input));
+            int entries = costs.remaining() / COST_COUNT;
+
+            leftIds = readColumn(costs, entries);
+            rightIds = readColumn(costs, entries);
+            wordCosts = readColumn(costs, entries);
+
+            DataInputStream dataInput = new DataInputStream(input);
+            int size = dataInput.readInt();
+            byte[] header = new byte[HEADER_SIZE];
+
+            dataInput.readFully(header);
+            readHeader(ByteBuffer.wrap(header), size);
+        } finally {
+            input.close();
+        }
+    }
+
+    public int lookupLeftId(int offset) {
+        return leftIds[offset];
+    }
+
+    public int lookupRightId(int offset) {
+        return rightIds[offset];
+    }
+
+    public int lookupWordCost(int offset) {
+        return wordCosts[offset];
     }
 
     public BufferEntry lookupEntry(int offset) {
         BufferEntry entry = new BufferEntry();
 
+        int position = getEntryPosition(offset);
+
         entry.tokenInfos = new short[tokenInfoCount];
         entry.posInfos = new byte[posInfoCount];
         entry.featureInfos = new int[featureCount];
 
-        int position = getPosition(offset, entrySize);
-
         // Get left id, right id and word cost
-        for (int i = 0; i < tokenInfoCount; i++) {
-            entry.tokenInfos[i] = buffer.getShort(position + i * SHORT_BYTES);
+        entry.tokenInfos[0] = leftIds[offset];
+        entry.tokenInfos[1] = rightIds[offset];
+        entry.tokenInfos[2] = wordCosts[offset];
+
+        // Get part of speech tags values stored as shorts, if any
+        for (int i = COST_COUNT; i < tokenInfoCount; i++) {
+            entry.tokenInfos[i] = (short) getTokenInfo(position, i);
         }
 
         // Get part of speech tags values (not strings yet)
         for (int i = 0; i < posInfoCount; i++) {
-            entry.posInfos[i] = buffer.get(position + tokenInfoCount * SHORT_BYTES + i);
+            entry.posInfos[i] = (byte) getPartOfSpeechInfo(position, i);
         }
 
         // Get field value references (string references)
         for (int i = 0; i < featureCount; i++) {
-            entry.featureInfos[i] = buffer.getInt(position + tokenInfoCount * SHORT_BYTES + posInfoCount + i * INTEGER_BYTES);
+            entry.featureInfos[i] = getFeatureInfo(position, i);
         }
 
         return entry;
     }
 
     public int lookupTokenInfo(int offset, int i) {
-        int position = getPosition(offset, entrySize);
-        return buffer.getShort(position + i * SHORT_BYTES);
+        switch (i) {
+            case 0:
+                return leftIds[offset];
+            case 1:
+                return rightIds[offset];
+            case 2:
+                return wordCosts[offset];
+            default:
+                return getTokenInfo(getEntryPosition(offset), i);
+        }
     }
 
     public int lookupPartOfSpeechFeature(int offset, int i) {
-        int position = getPosition(offset, entrySize);
-
-        return 0xff & buffer.get(position + tokenInfoCount * SHORT_BYTES + i);
+        return getPartOfSpeechInfo(getEntryPosition(offset), i);
     }
 
     public int lookupFeature(int offset, int i) {
-        int position = getPosition(offset, entrySize);
+        int position = getEntryPosition(offset);
 
-        return buffer.getInt(position + tokenInfoCount * SHORT_BYTES + posInfoCount + (i - posInfoCount) * INTEGER_BYTES);
+        return getFeatureInfo(position, i - posInfoCount);
     }
 
     public boolean isPartOfSpeechFeature(int i) {
-        int posInfoCount = getPosInfoCount();
+        features();
         return (i < posInfoCount);
     }
 
-    private int getTokenInfoCount() {
-        return buffer.getInt(INTEGER_BYTES * 2);
+    /**
+     * Gets the position of an entry's part-of-speech and feature values
+     * <p>
+     * The position is used with the positional getters below to read several values of the same entry without
+     * allocating a {@link BufferEntry}
+     *
+     * @param offset  entry offset (word id)
+     * @return entry position
+     */
+    public int getEntryPosition(int offset) {
+        features();
+        return offset * entrySize + HEADER_SIZE;
+    }
+
+    /**
+     * Gets a token info value stored after the left id, right id and word cost, i.e. a part-of-speech value id
+     * stored as a short
+     *
+     * @param position  entry position
+     * @param i  token info index, at least 3
+     * @return token info value
+     */
+    public int getTokenInfo(int position, int i) {
+        return features().getShort(position + (i - COST_COUNT) * SHORT_BYTES);
+    }
+
+    /**
+     * Gets a part-of-speech value id stored as a byte
+     *
+     * @param position  entry position
+     * @param i  part-of-speech index
+     * @return part-of-speech value id
+     */
+    public int getPartOfSpeechInfo(int position, int i) {
+        return 0xff & features().get(position + getExtraTokenInfoSize() + i);
     }
 
-    private int getPosInfoCount() {
-        return buffer.getInt(INTEGER_BYTES * 3);
+    /**
+     * Gets a feature value id
+     *
+     * @param position  entry position
+     * @param i  feature index, not counting part-of-speech values
+     * @return feature value id
+     */
+    public int getFeatureInfo(int position, int i) {
+        return features().getInt(position + getExtraTokenInfoSize() + posInfoCount + i * INTEGER_BYTES);
     }
 
-    private int getFeatureCount() {
-        return buffer.getInt(INTEGER_BYTES * 4);
+    public int getTokenInfoCount() {
+        features();
+        return tokenInfoCount;
+    }
+
+    public int getPartOfSpeechInfoCount() {
+        features();
+        return posInfoCount;
+    }
+
+    public int getFeatureInfoCount() {
+        features();
+        return featureCount;
+    }
+
+    /**
+     * Gets the number of entries
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return leftIds.length;
+    }
+
+    /**
+     * Predicate indicating whether the part-of-speech and feature values are loaded
+     *
+     * @return true if the values are loaded
+     */
+    public boolean isFeaturesLoaded() {
+        return buffer != null;
+    }
+
+    /**
+     * Loads the part-of-speech and feature values, if not already loaded
+     */
+    public void loadFeatures() {
+        features();
+    }
+
+    private ByteBuffer features() {
+        ByteBuffer features = buffer;
+
+        if (features == null) {
+            synchronized (this) {
+                features = buffer;
+
+                if (features == null) {
+                    features = readFeatures();
+                }
+            }
+        }
+        return features;
+    }
+
+    private ByteBuffer readFeatures() {
+        try {
+            InputStream input = new BufferedInputStream(resolver.resolve(resourceName));
+
+            try {
+                ByteBufferIO.skip(input);
+                ByteBuffer features = ByteBufferIO.read(input);
+
+                if (!isHeader(features, features.limit())) {
+                    throw new IOException(resourceName + " changed after it was loaded");
+                }
+
+                buffer = features;
+                return features;
+            } finally {
+                input.close();
+            }
+        } catch (IOException ouch) {
+            throw new RuntimeException("Could not load token info features.", ouch);
+        }
+    }
+
+    private void readHeader(ByteBuffer header, int size) throws IOException {
+        tokenInfoCount = header.getInt(INTEGER_BYTES);
+        posInfoCount = header.getInt(INTEGER_BYTES * 2);
+        featureCount = header.getInt(INTEGER_BYTES * 3);
+
+        if (tokenInfoCount < COST_COUNT || posInfoCount < 0 || featureCount < 0 || !isHeader(header, size)) {
+            throw new IOException("Token info features do not match the token info costs");
+        }
+        entrySize = getEntrySize(tokenInfoCount, posInfoCount, featureCount);
+    }
+
+    private boolean isHeader(ByteBuffer header, int size) {
+        return header.getInt(0) == leftIds.length
+            && header.getInt(INTEGER_BYTES) == tokenInfoCount
+            && header.getInt(INTEGER_BYTES * 2) == posInfoCount
+            && header.getInt(INTEGER_BYTES * 3) == featureCount
+            && size == HEADER_SIZE + (long) getEntrySize(tokenInfoCount, posInfoCount, featureCount) * leftIds.length;
+    }
+
+    private int getExtraTokenInfoSize() {
+        return (tokenInfoCount - COST_COUNT) * SHORT_BYTES;
+    }
+
+    private static ShortBuffer readCosts(ByteBuffer costs) throws IOException {
+        if (costs.limit() < INTEGER_BYTES * 3 || costs.getInt() != MAGIC) {
+            throw new IOException("Token info is not in the expected format, the dictionary needs to be recompiled");
+        }
+
+        int version = costs.getInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported token info version " + version);
+        }
+
+        int entries = costs.getInt();
+
+        if (entries < 0 || costs.remaining() != entries * COST_COUNT * SHORT_BYTES) {
+            throw new IOException("Token info costs are truncated");
+        }
+        return costs.asShortBuffer();
     }
 
-    private int getEntrySize(int tokenInfoCount, int posInfoCount, int featureCount) {
-        return tokenInfoCount * SHORT_BYTES + posInfoCount + featureCount * INTEGER_BYTES;
+    private static short[] readColumn(ShortBuffer costs, int entries) {
+        short[] column = new short[entries];
+        costs.get(column);
+        return column;
     }
 
-    private int getPosition(int offset, int entrySize) {
-        return offset * entrySize + INTEGER_BYTES * 5;
+    private static int getEntrySize(int tokenInfoCount, int posInfoCount, int featureCount) {
+        return (tokenInfoCount - COST_COUNT) * SHORT_BYTES + posInfoCount + featureCount * INTEGER_BYTES;
     }
 }
@@ -20,6 +20,7 @@ import com.atilika.kuromoji.io.IntegerArrayIO;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class WordIdMap {
@@ -31,7 +32,14 @@ public class WordIdMap {
     private final int[] empty = new int[]{};
 
     public WordIdMap(InputStream input) throws IOException {
-        int arrays[][] = IntegerArrayIO.readArrays(input, 2);
+        this(IntegerArrayIO.readArrays(input, 2));
+    }
+
+    public WordIdMap(ByteBuffer input) throws IOException {
+        this(IntegerArrayIO.readArrays(input, 2));
+    }
+
+    private WordIdMap(int[][] arrays) {
         indices = arrays[0];
         wordIds = arrays[1];
     }
@@ -45,4 +53,33 @@ public class WordIdMap {
 
         return Arrays.copyOfRange(wordIds, index + 1, index + 1 + wordIds[index]);
     }
+
+    /**
+     * Gets the number of word ids mapped from a source id
+     * <p>
+     * Use with {@link #lookUp(int, int)} to iterate word ids without copying them
+     *
+     * @param sourceId  source id
+     * @return number of word ids
+     */
+    public int lookUpCount(int sourceId) {
+        int index = indices[sourceId];
+
+        if (index == -1) {
+            return 0;
+        }
+
+        return wordIds[index];
+    }
+
+    /**
+     * Gets a word id mapped from a source id
+     *
+     * @param sourceId  source id
+     * @param i  index of the word id, less than {@link #lookUpCount(int)}
+     * @return word id
+     */
+    public int lookUp(int sourceId, int i) {
+        return wordIds[indices[sourceId] + 1 + i];
+    }
 }
@@ -0,0 +1,220 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Content hashes of the inputs each compilation stage was built from
+ * <p>
+ * The manifest is kept next to the compiled resources, so a later build into the same directory can reuse the
+ * resources of stages whose inputs are unchanged
+ */
+public class BuildManifest {
+
+    public static final String MANIFEST_FILENAME = "buildManifest.properties";
+
+    // Bump whenever a compiled format changes, so resources from older builds are never reused
+    private static final String VERSION = "6";
+
+    private static final String VERSION_KEY = "version";
+
+    private final File outputDir;
+
+    private final Properties previous;
+
+    private final Properties current = new Properties();
+
+    private BuildManifest(File outputDir, Properties previous) {
+        this.outputDir = outputDir;
+        this.previous = previous;
+    }
+
+    /**
+     * Reads the manifest of the previous build into a directory
+     *
+     * @param outputDir  directory with the compiled resources
+     * @return manifest, not null, with no previous stages if there is no manifest or it is from an incompatible version
+     * @throws IOException if an error occurs reading the manifest
+     */
+    public static BuildManifest read(File outputDir) throws IOException {
+        Properties previous = new Properties();
+        File manifestFile = new File(outputDir, MANIFEST_FILENAME);
+
+        if (manifestFile.isFile()) {
+            InputStream input = new BufferedInputStream(new FileInputStream(manifestFile));
+
+            try {
+                previous.load(input);
+            } finally {
+                input.close();
+            }
+
+            if (!VERSION.equals(previous.getProperty(VERSION_KEY))) {
+                previous.clear();
+            }
+        }
+
+        return new BuildManifest(outputDir, previous);
+    }
+
+    /**
+     * Creates a manifest that ignores any previous build, so all stages are compiled
+     *
+     * @param outputDir  directory with the compiled resources
+     * @return manifest, not null
+     */
+    public static BuildManifest empty(File outputDir) {
+        return new BuildManifest(outputDir, new Properties());
+    }
+
+    /**
+     * Checks whether a stage can be skipped
+     *
+     * @param stage  name of the stage
+     * @param digest  digest of the current inputs of the stage
+     * @param resources  resources the stage compiles
+     * @return true if the previous build had the same inputs and all its resources still exist
+     */
+    public boolean isUpToDate(String stage, String digest, String... resources) {
+        if (!digest.equals(previous.getProperty(stage))) {
+            return false;
+        }
+
+        for (String resource : resources) {
+            if (!new File(outputDir, resource).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the inputs of a completed stage
+     *
+     * @param stage  name of the stage
+     * @param digest  digest of the inputs of the stage
+     */
+    public void put(String stage, String digest) {
+        current.setProperty(stage, digest);
+    }
+
+    /**
+     * Deletes the manifest of the previous build
+     * <p>
+     * Called before compiling, so an interrupted build never leaves a manifest describing resources it did not write
+     */
+    public void delete() {
+        new File(outputDir, MANIFEST_FILENAME).delete();
+    }
+
+    /**
+     * Writes the stages recorded in this build
+     *
+     * @throws IOException if an error occurs writing the manifest
+     */
+    public void write() throws IOException {
+        current.setProperty(VERSION_KEY, VERSION);
+
+        OutputStream output = new BufferedOutputStream(
+            new FileOutputStream(new File(outputDir, MANIFEST_FILENAME))
+        );
+
+        try {
+            current.store(output, "kuromoji dictionary build manifest");
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * SHA-256 digest of stage inputs
+     */
+    public static class Digest {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final MessageDigest digest;
+
+        public Digest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ouch) {
+                throw new RuntimeException("Could not create digest", ouch);
+            }
+        }
+
+        public Digest update(File file) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream input = new FileInputStream(file);
+
+            try {
+                int read;
+
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+
+            // Separates the contents of consecutive files
+            update(file.length());
+            return this;
+        }
+
+        public Digest update(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            update(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        private void update(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (value >>> shift));
+            }
+        }
+
+        /**
+         * Completes the digest
+         *
+         * @return digest as hex string, not null
+         */
+        public String finish() {
+            StringBuilder builder = new StringBuilder();
+
+            for (byte b : digest.digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }
+    }
+}
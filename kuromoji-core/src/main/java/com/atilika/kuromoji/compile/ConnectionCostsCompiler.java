@@ -16,22 +16,31 @@
  */
 package com.atilika.kuromoji.compile;
 
+import com.atilika.kuromoji.dict.ConnectionCosts;
+
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class ConnectionCostsCompiler implements Compiler {
 
     private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
 
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
     private OutputStream output;
 
     private int cardinality;
@@ -40,70 +49,237 @@ public class ConnectionCostsCompiler implements Compiler {
 
     private ShortBuffer costs;
 
+    private ExecutorService executor = null;
+
     public ConnectionCostsCompiler(OutputStream output) {
         this.output = output;
     }
 
+    /**
+     * Sets an executor to parse the costs concurrently
+     *
+     * @param executor  executor to parse with, or null to parse on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Reads costs in matrix.def format
+     * <p>
+     * The input is read in large chunks of whole lines, which are parsed at the byte level straight into the cost
+     * matrix, concurrently if an executor is set
+     *
+     * @param input  costs to read
+     * @throws IOException if an error occurs reading the costs
+     */
     public void readCosts(InputStream input) throws IOException {
-        BufferedReader lineReader = new BufferedReader(
-            new InputStreamReader(input)
-        );
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        int maxPending = executor == null ? 0 : Runtime.getRuntime().availableProcessors() * 2;
 
-        String line = lineReader.readLine();
-        String[] cardinalities = line.split("\\s+");
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int length = 0;
+        boolean header = true;
+        boolean eof = false;
 
-        assert cardinalities.length == 2;
+        try {
+            while (!eof) {
+                int read = input.read(buffer, length, buffer.length - length);
 
-        int forwardSize = Integer.parseInt(cardinalities[0]);
-        int backwardSize = Integer.parseInt(cardinalities[1]);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
 
-        assert forwardSize == backwardSize;
-        assert forwardSize > 0;
-        assert backwardSize > 0;
+                    if (length < buffer.length) {
+                        continue;
+                    }
+                }
 
-        cardinality = backwardSize;
-        bufferSize = forwardSize * backwardSize;
-        costs = ShortBuffer.allocate(bufferSize);
+                int end = eof ? length : lastLineEnd(buffer, length);
+
+                if (end < 0) {
+                    // A line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
 
-        while ((line = lineReader.readLine()) != null) {
-            String[] fields = line.split("\\s+");
+                int start = 0;
 
-            assert fields.length == 3;
+                if (header) {
+                    start = readHeader(buffer, end);
+                    header = false;
+                }
 
-            short forwardId = Short.parseShort(fields[0]);
-            short backwardId = Short.parseShort(fields[1]);
-            short cost = Short.parseShort(fields[2]);
+                if (end > start) {
+                    ChunkParser parser = new ChunkParser(Arrays.copyOfRange(buffer, start, end));
+
+                    if (executor == null) {
+                        parser.run();
+                    } else {
+                        pending.addLast(executor.submit(parser));
+
+                        while (pending.size() > maxPending) {
+                            pending.removeFirst().get();
+                        }
+                    }
+                }
+
+                System.arraycopy(buffer, end, buffer, 0, length - end);
+                length -= end;
+            }
+
+            while (!pending.isEmpty()) {
+                pending.removeFirst().get();
+            }
+        } catch (InterruptedException ouch) {
+            throw new IOException("Interrupted while reading costs", ouch);
+        } catch (ExecutionException ouch) {
+            Throwable cause = ouch.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not parse costs", cause);
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        if (header) {
+            throw new IOException("Missing costs header");
+        }
+    }
 
-            putCost(forwardId, backwardId, cost);
+    private int lastLineEnd(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
         }
+        return -1;
+    }
+
+    /**
+     * Reads the forward and backward sizes and allocates the cost matrix
+     *
+     * @return position after the header line
+     */
+    private int readHeader(byte[] buffer, int end) throws IOException {
+        ChunkParser parser = new ChunkParser(Arrays.copyOfRange(buffer, 0, end));
+
+        int forwardSize = parser.nextNumber();
+        int backwardSize = parser.nextNumber();
+
+        if (forwardSize <= 0 || forwardSize != backwardSize) {
+            throw new IOException("Unsupported costs matrix size " + forwardSize + "x" + backwardSize);
+        }
+
+        cardinality = backwardSize;
+        bufferSize = forwardSize * backwardSize;
+        costs = ShortBuffer.allocate(bufferSize);
+
+        return parser.skipLine();
     }
 
     public void putCost(short forwardId, short backwardId, short cost) {
         this.costs.put(backwardId + forwardId * cardinality, cost);
     }
 
+    /**
+     * Writes the costs with forward and backward ids deduplicated into equivalence classes
+     * <p>
+     * Forward ids with identical rows and backward ids with identical columns share a class, and only one cost
+     * per pair of classes is written
+     *
+     * @throws IOException if an error occurs writing the costs
+     */
     @Override
     public void compile() throws IOException {
+        short[] matrix = costs.array();
+
+        int[] forwardClasses = new int[cardinality];
+        List<Integer> forwardIds = makeClasses(matrix, true, forwardClasses);
+
+        int[] backwardClasses = new int[cardinality];
+        List<Integer> backwardIds = makeClasses(matrix, false, backwardClasses);
+
+        ProgressLog.println(
+            "forward classes: " + forwardIds.size() + ", backward classes: " + backwardIds.size() +
+                " (" + cardinality + " ids)"
+        );
+
         DataOutputStream dataOutput = new DataOutputStream(
             new BufferedOutputStream(output)
         );
 
+        dataOutput.writeInt(ConnectionCosts.MAGIC);
+        dataOutput.writeInt(ConnectionCosts.VERSION);
         dataOutput.writeInt(cardinality);
-        dataOutput.writeInt(bufferSize * SHORT_BYTES);
+        dataOutput.writeInt(forwardIds.size());
+        dataOutput.writeInt(backwardIds.size());
+
+        // Written in the ByteBufferIO format directly, without copying the matrix into a buffer first
+        dataOutput.writeInt((cardinality * 2 + forwardIds.size() * backwardIds.size()) * SHORT_BYTES);
 
-        ByteBuffer byteBuffer = ByteBuffer.allocate(costs.array().length * SHORT_BYTES);
+        for (int forwardClass : forwardClasses) {
+            dataOutput.writeShort(forwardClass);
+        }
 
-        for (short cost : this.costs.array()) {
-            byteBuffer.putShort(cost);
+        for (int backwardClass : backwardClasses) {
+            dataOutput.writeShort(backwardClass);
         }
 
-        WritableByteChannel channel = Channels.newChannel(dataOutput);
+        for (int forwardId : forwardIds) {
+            for (int backwardId : backwardIds) {
+                dataOutput.writeShort(matrix[backwardId + forwardId * cardinality]);
+            }
+        }
 
-        byteBuffer.flip();
-        channel.write(byteBuffer);
         dataOutput.close();
     }
 
+    /**
+     * Assigns an equivalence class to every forward id (matrix row) or backward id (matrix column)
+     *
+     * @param matrix  dense cost matrix
+     * @param rows  true to classify rows, false to classify columns
+     * @param classes  array receiving the class of each id
+     * @return the first id of each class, indexed by class
+     */
+    private List<Integer> makeClasses(short[] matrix, boolean rows, int[] classes) {
+        Map<ShortBuffer, Integer> classIndex = new HashMap<>();
+        List<Integer> representatives = new ArrayList<>();
+
+        for (int id = 0; id < cardinality; id++) {
+            ShortBuffer vector;
+
+            if (rows) {
+                vector = ShortBuffer.wrap(matrix, id * cardinality, cardinality).slice();
+            } else {
+                short[] column = new short[cardinality];
+
+                for (int i = 0; i < cardinality; i++) {
+                    column[i] = matrix[id + i * cardinality];
+                }
+                vector = ShortBuffer.wrap(column);
+            }
+
+            Integer existing = classIndex.get(vector);
+
+            if (existing == null) {
+                existing = representatives.size();
+                classIndex.put(vector, existing);
+                representatives.add(id);
+            }
+
+            classes[id] = existing;
+        }
+
+        return representatives;
+    }
+
     public int getCardinality() {
         return cardinality;
     }
@@ -111,4 +287,96 @@ public class ConnectionCostsCompiler implements Compiler {
     public ShortBuffer getCosts() {
         return costs;
     }
+
+    /**
+     * Parses whole lines of costs into the cost matrix
+     * <p>
+     * Every line sets a different matrix cell, so chunks can be parsed concurrently
+     */
+    private class ChunkParser implements Runnable {
+
+        private final byte[] bytes;
+
+        private int position = 0;
+
+        public ChunkParser(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            short[] matrix = costs.array();
+
+            while (skipWhitespace()) {
+                int forwardId = nextNumber();
+                int backwardId = nextNumber();
+                int cost = nextNumber();
+
+                if (forwardId < 0 || forwardId >= cardinality || backwardId < 0 || backwardId >= cardinality) {
+                    throw new IllegalArgumentException("Invalid ids " + forwardId + " " + backwardId);
+                }
+
+                if (cost < Short.MIN_VALUE || cost > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Cost out of range: " + cost);
+                }
+
+                matrix[backwardId + forwardId * cardinality] = (short) cost;
+                skipLine();
+            }
+        }
+
+        /**
+         * Skips whitespace, including line ends
+         *
+         * @return true if there is more input
+         */
+        private boolean skipWhitespace() {
+            while (position < bytes.length && bytes[position] <= ' ') {
+                position++;
+            }
+            return position < bytes.length;
+        }
+
+        public int nextNumber() {
+            while (position < bytes.length && (bytes[position] == ' ' || bytes[position] == '\t')) {
+                position++;
+            }
+
+            boolean negative = false;
+
+            if (position < bytes.length && (bytes[position] == '-' || bytes[position] == '+')) {
+                negative = bytes[position] == '-';
+                position++;
+            }
+
+            int start = position;
+            long value = 0;
+
+            while (position < bytes.length && bytes[position] >= '0' && bytes[position] <= '9') {
+                value = value * 10 + (bytes[position] - '0');
+                position++;
+
+                if (value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Number too large");
+                }
+            }
+
+            if (position == start) {
+                throw new NumberFormatException("Expected a number at byte " + position);
+            }
+
+            return (int) (negative ? -value : value);
+        }
+
+        public int skipLine() {
+            while (position < bytes.length && bytes[position] != '\n') {
+                position++;
+            }
+
+            if (position < bytes.length) {
+                position++;
+            }
+            return position;
+        }
+    }
 }
@@ -18,6 +18,7 @@ package com.atilika.kuromoji.compile;
 
 import com.atilika.kuromoji.dict.CharacterDefinitions;
 import com.atilika.kuromoji.dict.ConnectionCosts;
+import com.atilika.kuromoji.dict.TokenInfoDictionary;
 import com.atilika.kuromoji.dict.UnknownDictionary;
 import com.atilika.kuromoji.fst.FST;
 
@@ -27,50 +28,234 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public abstract class DictionaryCompilerBase {
 
-    public void build(String inputDirname, String outputDirname, String encoding) throws IOException {
+    private static final String[] CONTAINER_RESOURCES = {
+        FST.FST_FILENAME,
+        ConnectionCosts.CONNECTION_COSTS_FILENAME,
+        TokenInfoDictionary.TOKEN_INFO_DICTIONARY_FILENAME,
+        TokenInfoDictionary.FEATURE_MAP_FILENAME,
+        TokenInfoDictionary.POS_MAP_FILENAME,
+        TokenInfoDictionary.TARGETMAP_FILENAME,
+        CharacterDefinitions.CHARACTER_DEFINITIONS_FILENAME,
+        UnknownDictionary.UNKNOWN_DICTIONARY_FILENAME
+    };
+
+    private static final String CONNECTION_COSTS_STAGE = "connectionCosts";
+
+    private static final String UNKNOWN_DICTIONARY_STAGE = "unknownDictionary";
+
+    private static final String FST_STAGE = "fst";
+
+    private static final String INCREMENTAL_OPTION = "--incremental";
+
+    private boolean incremental = false;
+
+    private int maxFstRegisterSize = 0;
+
+    /**
+     * Sets whether to reuse compiled resources from a previous build into the same output directory
+     * <p>
+     * When enabled, the connection costs, the character definitions and unknown word dictionary, and the fst are
+     * only compiled if their inputs changed since the previous build, according to its {@link BuildManifest}.
+     * The token info buffers and feature maps are always compiled. Disabled by default, since a resource is reused
+     * as long as its inputs are unchanged, even if it was written by an older compiler
+     *
+     * @param incremental  true to reuse unchanged resources, false to compile everything
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Sets how many compiled fst states are remembered when looking for equivalent states
+     * <p>
+     * Bounding the register limits the memory used to compile very large dictionaries, at the expense of a larger
+     * fst. Unbounded by default
+     *
+     * @param maxFstRegisterSize  maximum number of recently compiled states to remember, or 0 to remember all
+     * @see FSTCompiler#FSTCompiler(java.io.OutputStream, Iterator, int)
+     */
+    public void setMaxFstRegisterSize(int maxFstRegisterSize) {
+        if (maxFstRegisterSize < 0) {
+            throw new IllegalArgumentException("Register size must not be negative, got " + maxFstRegisterSize);
+        }
+
+        this.maxFstRegisterSize = maxFstRegisterSize;
+    }
+
+    /**
+     * Builds the dictionary
+     * <p>
+     * The unknown word dictionary and the connection costs are compiled concurrently with the token info
+     * dictionary, which itself parses its entries using all available processors.
+     * In an incremental build, resources whose inputs are unchanged since the previous build are reused, see
+     * {@link #setIncremental(boolean)}
+     *
+     * @param inputDirname  directory with the dictionary sources
+     * @param outputDirname  directory for the compiled resources
+     * @param encoding  encoding of the dictionary sources
+     * @throws IOException if an error occurs compiling the dictionary
+     */
+    public void build(final String inputDirname, final String outputDirname, final String encoding) throws IOException {
         File outputDir = new File(outputDirname);
         outputDir.mkdirs();
-        buildTokenInfoDictionary(inputDirname, outputDirname, encoding);
-        buildUnknownWordDictionary(inputDirname, outputDirname, encoding);
-        buildConnectionCosts(inputDirname, outputDirname);
+
+        final BuildManifest manifest = incremental ? BuildManifest.read(outputDir) : BuildManifest.empty(outputDir);
+        manifest.delete();
+
+        // At least two threads, as the connection costs stage waits on chunks it submits to the same pool
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors())
+        );
+
+        try {
+            Future<Void> unknownWordDictionary = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    buildUnknownWordDictionary(inputDirname, outputDirname, encoding, manifest);
+                    return null;
+                }
+            });
+
+            Future<Void> connectionCosts = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    buildConnectionCosts(inputDirname, outputDirname, executor, manifest);
+                    return null;
+                }
+            });
+
+            buildTokenInfoDictionary(inputDirname, outputDirname, encoding, executor, manifest);
+
+            await(unknownWordDictionary);
+            await(connectionCosts);
+
+            manifest.write();
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    private void buildTokenInfoDictionary(String inputDirname, String outputDirname, String encoding) throws IOException {
-        ProgressLog.begin("compiling tokeninfo dict");
-        TokenInfoDictionaryCompilerBase tokenInfoCompiler = getTokenInfoDictionaryCompiler(encoding);
+    private void await(Future<Void> stage) throws IOException {
+        try {
+            stage.get();
+        } catch (InterruptedException ouch) {
+            throw new IOException("Interrupted while compiling dictionary", ouch);
+        } catch (ExecutionException ouch) {
+            Throwable cause = ouch.getCause();
 
-        ProgressLog.println("analyzing dictionary features");
-        tokenInfoCompiler.analyzeTokenInfo(
-            tokenInfoCompiler.combinedSequentialFileInputStream(new File(inputDirname))
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not compile dictionary", cause);
+        }
+    }
+
+    /**
+     * Builds the dictionary and packs all compiled resources into a single container file
+     * <p>
+     * The container can be loaded using {@link com.atilika.kuromoji.util.PackedResourceResolver}
+     *
+     * @param inputDirname  directory with the dictionary sources
+     * @param outputDirname  directory for the compiled resources
+     * @param encoding  encoding of the dictionary sources
+     * @param containerFilename  container file to write
+     * @throws IOException if an error occurs compiling the dictionary
+     */
+    public void build(String inputDirname, String outputDirname, String encoding, String containerFilename) throws IOException {
+        build(inputDirname, outputDirname, encoding);
+        buildContainer(outputDirname, containerFilename);
+    }
+
+    private void buildContainer(String outputDirname, String containerFilename) throws IOException {
+        ProgressLog.begin("packing dictionary container");
+
+        DictionaryContainerCompiler containerCompiler = new DictionaryContainerCompiler(
+            new BufferedOutputStream(
+                new FileOutputStream(containerFilename)
+            )
         );
+
+        for (String resource : CONTAINER_RESOURCES) {
+            containerCompiler.addSection(resource, new File(outputDirname, resource));
+        }
+
+        containerCompiler.compile();
+
+        ProgressLog.end();
+    }
+
+    private void buildTokenInfoDictionary(String inputDirname,
+                                          String outputDirname,
+                                          String encoding,
+                                          ExecutorService executor,
+                                          BuildManifest manifest) throws IOException {
+        ProgressLog.begin("compiling tokeninfo dict");
+        TokenInfoDictionaryCompilerBase<?> tokenInfoCompiler = getTokenInfoDictionaryCompiler(encoding);
+        tokenInfoCompiler.setExecutor(executor);
+
         ProgressLog.println("reading tokeninfo");
-        tokenInfoCompiler.readTokenInfo(
-            tokenInfoCompiler.combinedSequentialFileInputStream(new File(inputDirname))
-        );
+        InputStream tokenInfoInput = tokenInfoCompiler.combinedSequentialFileInputStream(new File(inputDirname));
+
+        try {
+            tokenInfoCompiler.readTokenInfo(tokenInfoInput);
+        } finally {
+            tokenInfoInput.close();
+        }
         tokenInfoCompiler.compile();
 
-        @SuppressWarnings("unchecked")
-        List<String> surfaces = tokenInfoCompiler.getSurfaces();
+        BuildManifest.Digest surfacesDigest = new BuildManifest.Digest();
+        Iterator<String> surfaces = tokenInfoCompiler.getSortedSurfaces();
 
-        ProgressLog.begin("compiling fst");
+        while (surfaces.hasNext()) {
+            surfacesDigest.update(surfaces.next());
+        }
 
-        FSTCompiler fstCompiler = new FSTCompiler(
-            new BufferedOutputStream(
-                new FileOutputStream(
-                    new File(outputDirname, FST.FST_FILENAME)
-                )
-            ),
-            surfaces
-        );
+        // A different register bound compiles a different fst for the same surfaces
+        surfacesDigest.update(String.valueOf(maxFstRegisterSize));
+
+        String digest = surfacesDigest.finish();
 
-        fstCompiler.compile();
+        if (manifest.isUpToDate(FST_STAGE, digest, FST.FST_FILENAME)) {
+            ProgressLog.println("surfaces unchanged, reusing fst");
+        } else {
+            ProgressLog.begin("compiling fst");
 
-        ProgressLog.println("validating saved fst");
+            FSTCompiler fstCompiler = new FSTCompiler(
+                new BufferedOutputStream(
+                    new FileOutputStream(
+                        new File(outputDirname, FST.FST_FILENAME)
+                    )
+                ),
+                tokenInfoCompiler.getSortedSurfaces(),
+                maxFstRegisterSize
+            );
+
+            fstCompiler.compile();
+
+            ProgressLog.end();
+        }
 
+        manifest.put(FST_STAGE, digest);
+
+        ProgressLog.begin("processing target map");
+
+        // Validates the saved fst while looking up the target of every surface
         FST fst = new FST(
             new BufferedInputStream(
                 new FileInputStream(
@@ -79,29 +264,38 @@ public abstract class DictionaryCompilerBase {
             )
         );
 
-        for (String surface : surfaces) {
-            if (fst.lookup(surface) < 0) {
-                ProgressLog.println("failed to look up [" + surface + "]");
-            }
-        }
-
+        tokenInfoCompiler.addMappings(fst);
         ProgressLog.end();
 
-        ProgressLog.begin("processing target map");
-
-        for (int i = 0; i < surfaces.size(); i++) {
-            int id = fst.lookup(surfaces.get(i));
-            assert id > 0;
-            tokenInfoCompiler.addMapping(id, i);
-        }
-
+        ProgressLog.begin("writing tokeninfo dict");
         tokenInfoCompiler.write(outputDirname); // TODO: Should be refactored -Christian
+        tokenInfoCompiler.close();
         ProgressLog.end();
 
         ProgressLog.end();
     }
 
-    abstract protected TokenInfoDictionaryCompilerBase getTokenInfoDictionaryCompiler(String encoding);
+    abstract protected TokenInfoDictionaryCompilerBase<?> getTokenInfoDictionaryCompiler(String encoding);
+
+    private void buildUnknownWordDictionary(String inputDirname,
+                                            String outputDirname,
+                                            String encoding,
+                                            BuildManifest manifest) throws IOException {
+        String digest = new BuildManifest.Digest()
+            .update(encoding)
+            .update(new File(inputDirname, "char.def"))
+            .update(new File(inputDirname, "unk.def"))
+            .finish();
+
+        if (manifest.isUpToDate(UNKNOWN_DICTIONARY_STAGE, digest,
+            CharacterDefinitions.CHARACTER_DEFINITIONS_FILENAME, UnknownDictionary.UNKNOWN_DICTIONARY_FILENAME)) {
+            ProgressLog.println("char.def and unk.def unchanged, reusing unknown word dict");
+        } else {
+            buildUnknownWordDictionary(inputDirname, outputDirname, encoding);
+        }
+
+        manifest.put(UNKNOWN_DICTIONARY_STAGE, digest);
+    }
 
     protected void buildUnknownWordDictionary(String inputDirname, String outputDirname, String encoding) throws IOException {
         ProgressLog.begin("compiling unknown word dict");
@@ -144,31 +338,87 @@ public abstract class DictionaryCompilerBase {
         ProgressLog.end();
     }
 
-    private void buildConnectionCosts(String inputDirname, String outputDirname) throws IOException {
+    private void buildConnectionCosts(String inputDirname,
+                                      String outputDirname,
+                                      ExecutorService executor,
+                                      BuildManifest manifest) throws IOException {
+        File matrixFile = new File(inputDirname, "matrix.def");
+        String digest = new BuildManifest.Digest().update(matrixFile).finish();
+
+        if (manifest.isUpToDate(CONNECTION_COSTS_STAGE, digest, ConnectionCosts.CONNECTION_COSTS_FILENAME)) {
+            ProgressLog.println("matrix.def unchanged, reusing connection costs");
+        } else {
+            buildConnectionCosts(matrixFile, outputDirname, executor);
+        }
+
+        manifest.put(CONNECTION_COSTS_STAGE, digest);
+    }
+
+    private void buildConnectionCosts(File matrixFile, String outputDirname, ExecutorService executor) throws IOException {
         ProgressLog.begin("compiling connection costs");
         ConnectionCostsCompiler connectionCostsCompiler = new ConnectionCostsCompiler(
             new FileOutputStream(new File(outputDirname, ConnectionCosts.CONNECTION_COSTS_FILENAME))
         );
-        connectionCostsCompiler.readCosts(
-            new FileInputStream(new File(inputDirname, "matrix.def"))
-        );
+        connectionCostsCompiler.setExecutor(executor);
+
+        InputStream matrixInput = new FileInputStream(matrixFile);
+
+        try {
+            connectionCostsCompiler.readCosts(matrixInput);
+        } finally {
+            matrixInput.close();
+        }
+
         connectionCostsCompiler.compile();
 
         ProgressLog.end();
     }
 
+    /**
+     * Builds the dictionary from command line arguments
+     * <p>
+     * The arguments are the input directory, the output directory, the input encoding and optionally a container
+     * file. The option {@code --incremental} anywhere in the arguments reuses unchanged resources from a previous
+     * build, see {@link #setIncremental(boolean)}
+     *
+     * @param args  command line arguments
+     * @throws IOException if an error occurs compiling the dictionary
+     */
     protected void build(String[] args) throws IOException {
-        String inputDirname = args[0];
-        String outputDirname = args[1];
-        String inputEncoding = args[2];
+        List<String> arguments = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals(INCREMENTAL_OPTION)) {
+                setIncremental(true);
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            } else {
+                arguments.add(arg);
+            }
+        }
+
+        String inputDirname = arguments.get(0);
+        String outputDirname = arguments.get(1);
+        String inputEncoding = arguments.get(2);
+        String containerFilename = arguments.size() > 3 ? arguments.get(3) : null;
 
         ProgressLog.println("dictionary compiler");
         ProgressLog.println("");
         ProgressLog.println("input directory: " + inputDirname);
         ProgressLog.println("output directory: " + outputDirname);
         ProgressLog.println("input encoding: " + inputEncoding);
+        ProgressLog.println("incremental: " + incremental);
+
+        if (containerFilename != null) {
+            ProgressLog.println("container file: " + containerFilename);
+        }
+
         ProgressLog.println("");
 
-        build(inputDirname, outputDirname, inputEncoding);
+        if (containerFilename != null) {
+            build(inputDirname, outputDirname, inputEncoding, containerFilename);
+        } else {
+            build(inputDirname, outputDirname, inputEncoding);
+        }
     }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import com.atilika.kuromoji.util.PackedResourceResolver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs compiled dictionary resources into a single container file
+ * <p>
+ * See {@link PackedResourceResolver} for the container layout and for loading a container
+ */
+public class DictionaryContainerCompiler implements Compiler {
+
+    private final OutputStream output;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<File> files = new ArrayList<>();
+
+    public DictionaryContainerCompiler(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Adds a section to the container
+     *
+     * @param resourceName  resource name of the section
+     * @param file  file with the section contents
+     */
+    public void addSection(String resourceName, File file) {
+        names.add(resourceName);
+        files.add(file);
+    }
+
+    @Override
+    public void compile() throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        long offset = align(writeHeader(new DataOutputStream(new ByteArrayOutputStream()), null));
+        long[] offsets = new long[files.size()];
+
+        for (int i = 0; i < files.size(); i++) {
+            offsets[i] = offset;
+            offset = align(offset + files.get(i).length());
+        }
+
+        long written = writeHeader(dataOutput, offsets);
+
+        for (int i = 0; i < files.size(); i++) {
+            written = pad(dataOutput, written, offsets[i]);
+            written += copy(files.get(i), dataOutput);
+        }
+
+        dataOutput.close();
+    }
+
+    private int writeHeader(DataOutputStream dataOutput, long[] offsets) throws IOException {
+        dataOutput.writeInt(PackedResourceResolver.MAGIC);
+        dataOutput.writeInt(PackedResourceResolver.VERSION);
+        dataOutput.writeInt(names.size());
+
+        for (int i = 0; i < names.size(); i++) {
+            dataOutput.writeUTF(names.get(i));
+            dataOutput.writeLong(offsets == null ? 0 : offsets[i]);
+            dataOutput.writeLong(files.get(i).length());
+        }
+
+        dataOutput.flush();
+        return dataOutput.size();
+    }
+
+    private long pad(DataOutputStream dataOutput, long written, long offset) throws IOException {
+        while (written < offset) {
+            dataOutput.write(0);
+            written++;
+        }
+        return written;
+    }
+
+    private long copy(File file, OutputStream output) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        byte[] buffer = new byte[64 * 1024];
+        long copied = 0;
+
+        try {
+            int read;
+
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+                copied += read;
+            }
+        } finally {
+            input.close();
+        }
+
+        if (copied != file.length()) {
+            throw new IOException("File " + file + " changed while packing");
+        }
+        return copied;
+    }
+
+    private static long align(long offset) {
+        int alignment = PackedResourceResolver.ALIGNMENT;
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
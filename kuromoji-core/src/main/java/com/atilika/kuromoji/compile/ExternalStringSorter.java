@@ -0,0 +1,229 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts and deduplicates strings using a bounded amount of heap
+ * <p>
+ * Strings are collected in runs of at most the given size.
+ * Full runs are sorted and spilled to temporary files, which are merged when iterating.
+ * Strings are sorted in {@link String#compareTo(String)} order
+ */
+public class ExternalStringSorter implements Closeable {
+
+    private final int runSize;
+
+    private final List<SpillFile> runs = new ArrayList<>();
+
+    private final List<DataInputStream> runInputs = new ArrayList<>();
+
+    private String[] run;
+
+    private int runLength = 0;
+
+    /**
+     * Creates a sorter
+     *
+     * @param runSize  maximum number of strings held in memory
+     */
+    public ExternalStringSorter(int runSize) {
+        this.runSize = runSize;
+        this.run = new String[Math.min(runSize, 1024)];
+    }
+
+    public void add(String string) throws IOException {
+        if (runLength == run.length) {
+            if (runLength == runSize) {
+                spillRun();
+            } else {
+                run = Arrays.copyOf(run, Math.min(runSize, run.length * 2));
+            }
+        }
+
+        run[runLength++] = string;
+    }
+
+    /**
+     * Gets an iterator over the unique strings added, in sorted order
+     * <p>
+     * No strings can be added after this method is called, but it can be called repeatedly to iterate again
+     *
+     * @return sorted unique strings, not null
+     * @throws IOException if an error occurs reading the spilled runs
+     */
+    public Iterator<String> iterator() throws IOException {
+        int length = sortRun();
+
+        if (runs.isEmpty()) {
+            return Arrays.asList(run).subList(0, length).iterator();
+        }
+
+        if (length > 0) {
+            spillRun();
+        }
+
+        return new MergeIterator();
+    }
+
+    private int sortRun() {
+        Arrays.sort(run, 0, runLength);
+
+        int length = 0;
+
+        for (int i = 0; i < runLength; i++) {
+            if (length == 0 || !run[i].equals(run[length - 1])) {
+                run[length++] = run[i];
+            }
+        }
+
+        Arrays.fill(run, length, runLength, null);
+        runLength = length;
+        return length;
+    }
+
+    private void spillRun() throws IOException {
+        int length = sortRun();
+
+        SpillFile spillFile = new SpillFile("kuromoji-surfaces-");
+        DataOutputStream output = spillFile.getOutput();
+
+        for (int i = 0; i < length; i++) {
+            output.writeUTF(run[i]);
+        }
+
+        runs.add(spillFile);
+
+        Arrays.fill(run, null);
+        runLength = 0;
+
+        ProgressLog.println("spilled run " + runs.size() + " with " + length + " strings");
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream input : runInputs) {
+            input.close();
+        }
+
+        for (SpillFile spillFile : runs) {
+            spillFile.close();
+        }
+    }
+
+    /**
+     * Merges the sorted runs, skipping duplicates across runs
+     */
+    private class MergeIterator implements Iterator<String> {
+
+        private final PriorityQueue<RunHead> heads = new PriorityQueue<>();
+
+        private String next;
+
+        public MergeIterator() throws IOException {
+            for (SpillFile spillFile : runs) {
+                DataInputStream input = spillFile.openInput();
+                runInputs.add(input);
+
+                RunHead head = new RunHead(input);
+
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+            next = poll(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            String current = next;
+            next = poll(current);
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private String poll(String previous) {
+            try {
+                while (!heads.isEmpty()) {
+                    RunHead head = heads.poll();
+                    String string = head.value;
+
+                    if (head.advance()) {
+                        heads.add(head);
+                    }
+
+                    if (!string.equals(previous)) {
+                        return string;
+                    }
+                }
+                return null;
+            } catch (IOException ouch) {
+                throw new RuntimeException("Could not read sorted run", ouch);
+            }
+        }
+    }
+
+    private static class RunHead implements Comparable<RunHead> {
+
+        private final DataInputStream input;
+
+        private String value;
+
+        public RunHead(DataInputStream input) {
+            this.input = input;
+        }
+
+        public boolean advance() throws IOException {
+            try {
+                value = input.readUTF();
+                return true;
+            } catch (EOFException eof) {
+                value = null;
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunHead other) {
+            return value.compareTo(other.value);
+        }
+    }
+}
@@ -24,29 +24,64 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 public class FSTCompiler implements Compiler {
 
     private final OutputStream output;
-    private final String[] surfaces;
+    private final Iterator<String> surfaces;
+    private final int maxRegisterSize;
 
     public FSTCompiler(OutputStream output, List<String> surfaces) {
+        this(output, sortedUnique(surfaces));
+    }
+
+    /**
+     * Creates a compiler over a stream of surfaces
+     *
+     * @param output  output to write the fst to
+     * @param surfaces  unique surfaces in sorted order
+     */
+    public FSTCompiler(OutputStream output, Iterator<String> surfaces) {
+        this(output, surfaces, 0);
+    }
+
+    /**
+     * Creates a compiler over a stream of surfaces that remembers a bounded number of compiled states
+     *
+     * @param output  output to write the fst to
+     * @param surfaces  unique surfaces in sorted order
+     * @param maxRegisterSize  maximum number of recently compiled states to remember, or 0 to remember all
+     * @see Builder#Builder(int)
+     */
+    public FSTCompiler(OutputStream output, Iterator<String> surfaces, int maxRegisterSize) {
         this.output = output;
-        this.surfaces = new HashSet<>(surfaces).toArray(new String[0]);
+        this.surfaces = surfaces;
+        this.maxRegisterSize = maxRegisterSize;
+    }
+
+    private static Iterator<String> sortedUnique(List<String> surfaces) {
+        String[] sorted = new HashSet<>(surfaces).toArray(new String[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted).iterator();
     }
 
     @Override
     public void compile() throws IOException {
-        Arrays.sort(surfaces);
+        Builder builder = new Builder(maxRegisterSize);
+        int output = 1;
+
+        while (surfaces.hasNext()) {
+            builder.add(surfaces.next(), output++);
+        }
 
-        Builder builder = new Builder();
-        builder.build(surfaces, null) ;
+        builder.finish();
 
         ByteBuffer fst = ByteBuffer.wrap(
             builder.getCompiler().getBytes()
         );
 
-        ByteBufferIO.write(output, fst);
+        ByteBufferIO.write(this.output, fst);
     }
 }
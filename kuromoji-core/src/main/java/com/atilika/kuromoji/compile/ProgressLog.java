@@ -18,37 +18,43 @@ package com.atilika.kuromoji.compile;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Deque;
 
 /**
  * Simple progress logger
+ * <p>
+ * Each thread has its own stack of stages, so compilation stages running concurrently on different threads are
+ * nested and timed separately.
+ * Their lines may interleave, so each {@link #end()} line names the stage it ends
  */
 public class ProgressLog {
-    private static int indent = 0;
     private static boolean atEOL = false;
     private static DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
-    private static Map<Integer, Long> startTimes = new HashMap<Integer, Long>();
+    private static ThreadLocal<Deque<Stage>> stages = new ThreadLocal<Deque<Stage>>() {
+        @Override
+        protected Deque<Stage> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
 
-    public static void begin(String message) {
+    public static synchronized void begin(String message) {
         newLine();
         System.out.print(leader() + message + "... ");
         System.out.flush();
         atEOL = true;
-        indent++;
-        startTimes.put(indent, System.currentTimeMillis());
+        stages.get().push(new Stage(message, System.currentTimeMillis()));
     }
 
-    public static void end() {
+    public static synchronized void end() {
         newLine();
-        Long start = startTimes.get(indent);
-        indent = Math.max(0, indent - 1);
-        System.out.println(leader() + "done" + (start != null ? " [" + ((System.currentTimeMillis() - start) / 1000) + "s]" : ""));
+        Stage stage = stages.get().poll();
+        System.out.println(leader() + "done" + (stage != null ? " " + stage.message + " [" + ((System.currentTimeMillis() - stage.startTime) / 1000) + "s]" : ""));
         System.out.flush();
     }
 
-    public static void println(String message) {
+    public static synchronized void println(String message) {
         newLine();
         System.out.println(leader() + message);
         System.out.flush();
@@ -62,6 +68,18 @@ public class ProgressLog {
     }
 
     private static String leader() {
+        int indent = stages.get().size();
+
         return "[KUROMOJI] " + dateFormat.format(new Date()) + ": " + (new String(new char[indent * 4]).replace("\0", " "));
     }
+
+    private static class Stage {
+        private final String message;
+        private final long startTime;
+
+        private Stage(String message, long startTime) {
+            this.message = message;
+            this.startTime = startTime;
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Temporary file holding intermediate compilation data outside of the heap
+ * <p>
+ * Data is written using {@link #getOutput()} and read back in order, any number of times, using {@link #openInput()}.
+ * The file is deleted when closed
+ */
+public class SpillFile implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private DataOutputStream output;
+
+    public SpillFile(String prefix) throws IOException {
+        file = File.createTempFile(prefix, ".bin");
+        file.deleteOnExit();
+
+        output = new DataOutputStream(
+            new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE
+            )
+        );
+    }
+
+    /**
+     * Gets the output to write data to
+     *
+     * @return output, not null
+     * @throws IllegalStateException if the file has been opened for reading
+     */
+    public DataOutputStream getOutput() {
+        if (output == null) {
+            throw new IllegalStateException("Spill file " + file + " is no longer writable");
+        }
+        return output;
+    }
+
+    /**
+     * Opens the data written for reading
+     * <p>
+     * The file can no longer be written once opened for reading
+     *
+     * @return input positioned at the start of the data, not null
+     * @throws IOException if an error occurs opening the file
+     */
+    public DataInputStream openInput() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+        return new DataInputStream(
+            new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE
+            )
+        );
+    }
+
+    /**
+     * Gets the number of bytes written
+     *
+     * @return size in bytes
+     * @throws IOException if an error occurs flushing the output
+     */
+    public long size() throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+        return file.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+        file.delete();
+    }
+}
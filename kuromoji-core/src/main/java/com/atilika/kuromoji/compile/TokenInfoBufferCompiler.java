@@ -17,8 +17,14 @@
 package com.atilika.kuromoji.compile;
 
 import com.atilika.kuromoji.buffer.BufferEntry;
+import com.atilika.kuromoji.buffer.TokenInfoBuffer;
 import com.atilika.kuromoji.io.ByteBufferIO;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -29,31 +35,132 @@ public class TokenInfoBufferCompiler implements Compiler {
     private static final int INTEGER_BYTES = Integer.SIZE / Byte.SIZE;
     private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
 
+    private static final int COST_COUNT = 3; // left id, right id and word cost
+
+    private ByteBuffer costs;
+
     private ByteBuffer buffer;
 
     private OutputStream output;
 
+    private SpillFile spilledEntries;
+
+    private int spilledEntryCount;
+
+    private boolean partOfSpeechBytes;
+
     public TokenInfoBufferCompiler(OutputStream output, List<BufferEntry> entries) {
         this.output = output;
         putEntries(entries);
     }
 
+    /**
+     * Creates a compiler that streams entries from a spill file instead of holding them in memory
+     * <p>
+     * Only the cost columns are held in memory while compiling
+     *
+     * @param output  output to write to
+     * @param spilledEntries  entries written using {@link #spillEntry}
+     * @param entryCount  number of entries spilled
+     * @param partOfSpeechBytes  true to store part-of-speech ids as bytes, false to store them as shorts
+     */
+    public TokenInfoBufferCompiler(OutputStream output,
+                                   SpillFile spilledEntries,
+                                   int entryCount,
+                                   boolean partOfSpeechBytes) {
+        this.output = output;
+        this.spilledEntries = spilledEntries;
+        this.spilledEntryCount = entryCount;
+        this.partOfSpeechBytes = partOfSpeechBytes;
+    }
+
+    /**
+     * Writes an entry to a spill file
+     *
+     * @param output  spill file output
+     * @param leftId  left id
+     * @param rightId  right id
+     * @param wordCost  word cost
+     * @param partOfSpeechIds  part-of-speech ids
+     * @param featureIds  other feature ids
+     * @throws IOException if an error occurs writing
+     */
+    public static void spillEntry(DataOutput output,
+                                  short leftId,
+                                  short rightId,
+                                  short wordCost,
+                                  int[] partOfSpeechIds,
+                                  int[] featureIds) throws IOException {
+        output.writeShort(leftId);
+        output.writeShort(rightId);
+        output.writeShort(wordCost);
+
+        output.writeByte(partOfSpeechIds.length);
+
+        for (int partOfSpeechId : partOfSpeechIds) {
+            output.writeShort(partOfSpeechId);
+        }
+
+        output.writeByte(featureIds.length);
+
+        for (int featureId : featureIds) {
+            output.writeInt(featureId);
+        }
+    }
+
     public void putEntries(List<BufferEntry> entries) {
-        int size = calculateEntriesSize(entries) * 2;
+        putCosts(entries);
+        putFeatures(entries);
+    }
 
-        this.buffer = ByteBuffer.allocate(size + INTEGER_BYTES * 4);
+    /**
+     * Writes left ids, right ids and word costs as three dense columns indexed by word id
+     *
+     * @param entries  entries to write
+     */
+    private void putCosts(List<BufferEntry> entries) {
+        costs = ByteBuffer.allocate(INTEGER_BYTES * 3 + entries.size() * COST_COUNT * SHORT_BYTES);
+        costs.putInt(TokenInfoBuffer.MAGIC);
+        costs.putInt(TokenInfoBuffer.VERSION);
+        costs.putInt(entries.size());
 
-        buffer.putInt(size);
-        buffer.putInt(entries.size());
-        BufferEntry firstEntry = entries.get(0);
+        for (int i = 0; i < COST_COUNT; i++) {
+            for (BufferEntry entry : entries) {
+                costs.putShort(entry.tokenInfo.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining token info, part-of-speech and feature values as fixed-size rows
+     *
+     * @param entries  entries to write
+     */
+    private void putFeatures(List<BufferEntry> entries) {
+        int tokenInfoCount = 0;
+        int posInfoCount = 0;
+        int featureCount = 0;
+
+        if (!entries.isEmpty()) {
+            BufferEntry firstEntry = entries.get(0);
+
+            tokenInfoCount = firstEntry.tokenInfo.size();
+            posInfoCount = firstEntry.posInfo.size();
+            featureCount = firstEntry.features.size();
+        }
+
+        int entrySize = (tokenInfoCount - COST_COUNT) * SHORT_BYTES + posInfoCount + featureCount * INTEGER_BYTES;
 
-        buffer.putInt(firstEntry.tokenInfo.size());
-        buffer.putInt(firstEntry.posInfo.size());
-        buffer.putInt(firstEntry.features.size());
+        buffer = ByteBuffer.allocate(INTEGER_BYTES * 4 + entrySize * entries.size());
+
+        buffer.putInt(entries.size());
+        buffer.putInt(tokenInfoCount);
+        buffer.putInt(posInfoCount);
+        buffer.putInt(featureCount);
 
         for (BufferEntry entry : entries) {
-            for (Short s : entry.tokenInfo) {
-                buffer.putShort(s);
+            for (int i = COST_COUNT; i < entry.tokenInfo.size(); i++) {
+                buffer.putShort(entry.tokenInfo.get(i));
             }
 
             for (Byte b : entry.posInfo) {
@@ -66,23 +173,135 @@ public class TokenInfoBufferCompiler implements Compiler {
         }
     }
 
-    private int calculateEntriesSize(List<BufferEntry> entries) {
-        if (entries.isEmpty()) {
-            return 0;
-        } else {
-            int size = 0;
-            BufferEntry entry = entries.get(0);
-            size += entry.tokenInfo.size() * SHORT_BYTES + SHORT_BYTES;
-            size += entry.posInfo.size();
-            size += entry.features.size() * INTEGER_BYTES;
-            size *= entries.size();
-            return size;
+    /**
+     * Reads an entry written by {@link #spillEntry}
+     *
+     * @param input  spill file input
+     * @param partOfSpeechBytes  true to store part-of-speech ids as bytes, false to store them as shorts
+     * @return entry read, not null
+     * @throws IOException if an error occurs reading
+     */
+    public static BufferEntry readSpilledEntry(DataInput input, boolean partOfSpeechBytes) throws IOException {
+        BufferEntry entry = new BufferEntry();
+
+        for (int i = 0; i < COST_COUNT; i++) {
+            entry.tokenInfo.add(input.readShort());
+        }
+
+        int partOfSpeechCount = input.readUnsignedByte();
+
+        for (int i = 0; i < partOfSpeechCount; i++) {
+            short partOfSpeechId = input.readShort();
+
+            if (partOfSpeechBytes) {
+                entry.posInfo.add((byte) partOfSpeechId);
+            } else {
+                entry.tokenInfo.add(partOfSpeechId);
+            }
+        }
+
+        int featureCount = input.readUnsignedByte();
+
+        for (int i = 0; i < featureCount; i++) {
+            entry.features.add(input.readInt());
         }
+        return entry;
     }
 
     @Override
     public void compile() throws IOException {
+        if (spilledEntries != null) {
+            compileSpilledEntries();
+            return;
+        }
+
+        ByteBufferIO.write(output, costs);
         ByteBufferIO.write(output, buffer);
         output.close();
     }
+
+    /**
+     * Writes the same format as the in-memory path, streaming the feature rows from the spill file
+     */
+    private void compileSpilledEntries() throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(output));
+        short[][] costColumns = new short[COST_COUNT][spilledEntryCount];
+
+        int partOfSpeechCount = 0;
+        int featureCount = 0;
+
+        DataInputStream input = spilledEntries.openInput();
+
+        try {
+            for (int i = 0; i < spilledEntryCount; i++) {
+                for (int j = 0; j < COST_COUNT; j++) {
+                    costColumns[j][i] = input.readShort();
+                }
+
+                partOfSpeechCount = input.readUnsignedByte();
+                input.skipBytes(partOfSpeechCount * SHORT_BYTES);
+                featureCount = input.readUnsignedByte();
+                input.skipBytes(featureCount * INTEGER_BYTES);
+            }
+        } finally {
+            input.close();
+        }
+
+        dataOutput.writeInt(INTEGER_BYTES * 3 + spilledEntryCount * COST_COUNT * SHORT_BYTES);
+        dataOutput.writeInt(TokenInfoBuffer.MAGIC);
+        dataOutput.writeInt(TokenInfoBuffer.VERSION);
+        dataOutput.writeInt(spilledEntryCount);
+
+        for (short[] column : costColumns) {
+            for (short cost : column) {
+                dataOutput.writeShort(cost);
+            }
+        }
+
+        costColumns = null;
+
+        int tokenInfoCount = COST_COUNT + (partOfSpeechBytes ? 0 : partOfSpeechCount);
+        int posInfoCount = partOfSpeechBytes ? partOfSpeechCount : 0;
+        int entrySize = (tokenInfoCount - COST_COUNT) * SHORT_BYTES + posInfoCount + featureCount * INTEGER_BYTES;
+
+        dataOutput.writeInt(INTEGER_BYTES * 4 + entrySize * spilledEntryCount);
+        dataOutput.writeInt(spilledEntryCount);
+        dataOutput.writeInt(tokenInfoCount);
+        dataOutput.writeInt(posInfoCount);
+        dataOutput.writeInt(featureCount);
+
+        input = spilledEntries.openInput();
+
+        try {
+            for (int i = 0; i < spilledEntryCount; i++) {
+                input.skipBytes(COST_COUNT * SHORT_BYTES);
+
+                if (input.readUnsignedByte() != partOfSpeechCount) {
+                    throw new IOException("Entry " + i + " has an unexpected number of part-of-speech features");
+                }
+
+                for (int j = 0; j < partOfSpeechCount; j++) {
+                    short partOfSpeechId = input.readShort();
+
+                    if (partOfSpeechBytes) {
+                        dataOutput.writeByte(partOfSpeechId);
+                    } else {
+                        dataOutput.writeShort(partOfSpeechId);
+                    }
+                }
+
+                if (input.readUnsignedByte() != featureCount) {
+                    throw new IOException("Entry " + i + " has an unexpected number of features");
+                }
+
+                for (int j = 0; j < featureCount; j++) {
+                    dataOutput.writeInt(input.readInt());
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        dataOutput.close();
+    }
 }
@@ -23,10 +23,14 @@ import com.atilika.kuromoji.buffer.WordIdMap;
 import com.atilika.kuromoji.dict.DictionaryEntryBase;
 import com.atilika.kuromoji.dict.GenericDictionaryEntry;
 import com.atilika.kuromoji.dict.TokenInfoDictionary;
+import com.atilika.kuromoji.fst.FST;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -37,15 +41,27 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryBase> implements Compiler {
+public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryBase> implements Compiler, Closeable {
+
+    private static final int CHUNK_LINES = 8 * 1024;
+
+    private static final int SURFACE_RUN_SIZE = 1024 * 1024;
 
-    protected List<BufferEntry> bufferEntries = new ArrayList<>();
     protected FeatureInfoMap posInfo = new FeatureInfoMap();
     protected FeatureInfoMap otherInfo = new FeatureInfoMap();
     protected WordIdMapCompiler wordIdsCompiler = new WordIdMapCompiler();
@@ -54,12 +70,38 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
     protected List<GenericDictionaryEntry> dictionaryEntries = null;
 
     private String encoding;
-    private List<String> surfaces = new ArrayList<>();
+
+    // Entries and surfaces are spilled to temporary files to bound the heap used for large dictionaries
+    private SpillFile entries;
+    private SpillFile surfaces;
+    private ExternalStringSorter surfaceSorter;
+    private int entryCount = 0;
+
+    private ExecutorService executor = null;
 
     public TokenInfoDictionaryCompilerBase(String encoding) {
         this.encoding = encoding;
     }
 
+    /**
+     * Sets an executor to parse dictionary entries concurrently
+     * <p>
+     * Entries are still added in input order, so the compiled dictionary is the same with or without an executor
+     *
+     * @param executor  executor to parse with, or null to parse on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Maps part-of-speech features ahead of reading
+     *
+     * @param input  dictionary entries
+     * @throws IOException if an error occurs reading the entries
+     * @deprecated {@link #readTokenInfo(InputStream)} reads all entries in a single pass and no longer needs this
+     */
+    @Deprecated
     public void analyzeTokenInfo(InputStream input) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(input, encoding));
         String line;
@@ -73,45 +115,118 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
         }
     }
 
+    /**
+     * Reads dictionary entries
+     * <p>
+     * Lines are parsed in chunks, concurrently if an executor is set, and merged in input order.
+     * Feature ids are assigned in order of first appearance, which makes the output deterministic
+     *
+     * @param input  dictionary entries
+     * @throws IOException if an error occurs reading the entries
+     */
     public void readTokenInfo(InputStream input) throws IOException {
+        if (entries == null) {
+            entries = new SpillFile("kuromoji-tokeninfo-");
+            surfaces = new SpillFile("kuromoji-surfaces-");
+            surfaceSorter = new ExternalStringSorter(SURFACE_RUN_SIZE);
+        }
+
         BufferedReader reader = new BufferedReader(new InputStreamReader(input, encoding));
+        Deque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+        int maxPending = executor == null ? 0 : Runtime.getRuntime().availableProcessors() * 2;
+
+        List<String> lines = new ArrayList<>(CHUNK_LINES);
         String line;
-        int entryCount = posInfo.getEntryCount();
 
-        while ((line = reader.readLine()) != null) {
-            T entry = parse(line);
+        try {
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
 
-            GenericDictionaryEntry dictionaryEntry = makeGenericDictionaryEntry(entry);
+                if (lines.size() == CHUNK_LINES) {
+                    submit(pending, lines);
+                    lines = new ArrayList<>(CHUNK_LINES);
 
-            short leftId = dictionaryEntry.getLeftId();
-            short rightId = dictionaryEntry.getRightId();
-            short wordCost = dictionaryEntry.getWordCost();
+                    while (pending.size() > maxPending) {
+                        merge(pending.removeFirst().get());
+                    }
+                }
+            }
 
-            String[] allPosFeatures = dictionaryEntry.getPartOfSpeechFeatures();
+            if (!lines.isEmpty()) {
+                submit(pending, lines);
+            }
 
-            List<Integer> posFeatureIds = posInfo.mapFeatures(allPosFeatures);
+            while (!pending.isEmpty()) {
+                merge(pending.removeFirst().get());
+            }
+        } catch (InterruptedException ouch) {
+            throw new IOException("Interrupted while reading token info", ouch);
+        } catch (ExecutionException ouch) {
+            Throwable cause = ouch.getCause();
 
-            String[] featureList = dictionaryEntry.getOtherFeatures();
-            List<Integer> otherFeatureIds = otherInfo.mapFeatures(featureList);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not parse token info", cause);
+        } finally {
+            for (Future<ParsedChunk> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
 
-            BufferEntry bufferEntry = new BufferEntry();
-            bufferEntry.tokenInfo.add(leftId);
-            bufferEntry.tokenInfo.add(rightId);
-            bufferEntry.tokenInfo.add(wordCost);
+    private void submit(Deque<Future<ParsedChunk>> pending, List<String> lines) {
+        ChunkParser parser = new ChunkParser(lines);
 
-            if (entriesFitInAByte(entryCount)) {
-                List<Byte> posFeatureIdBytes = createPosFeatureIds(posFeatureIds);
-                bufferEntry.posInfo.addAll(posFeatureIdBytes);
-            } else {
-                for (Integer posFeatureId : posFeatureIds) {
-                    bufferEntry.tokenInfo.add(posFeatureId.shortValue());
-                }
+        if (executor == null) {
+            FutureTask<ParsedChunk> task = new FutureTask<>(parser);
+            task.run();
+            pending.addLast(task);
+        } else {
+            pending.addLast(executor.submit(parser));
+        }
+    }
+
+    /**
+     * Adds parsed entries, translating their chunk-local feature ids to global ids
+     * <p>
+     * Local ids follow the order of first appearance in the chunk, so mapping them in order and chunks in input
+     * order gives the same ids as mapping every entry one by one
+     */
+    private void merge(ParsedChunk chunk) throws IOException {
+        int[] posIds = translate(chunk.posInfo, posInfo);
+        int[] otherIds = translate(chunk.otherInfo, otherInfo);
+
+        DataOutputStream entryOutput = entries.getOutput();
+        DataOutputStream surfaceOutput = surfaces.getOutput();
+
+        for (int i = 0; i < chunk.entries.length; i++) {
+            GenericDictionaryEntry dictionaryEntry = chunk.entries[i];
+
+            int[] partOfSpeechIds = chunk.posIds[i];
+
+            for (int j = 0; j < partOfSpeechIds.length; j++) {
+                partOfSpeechIds[j] = posIds[partOfSpeechIds[j]];
+            }
+
+            int[] featureIds = chunk.otherIds[i];
+
+            for (int j = 0; j < featureIds.length; j++) {
+                featureIds[j] = otherIds[featureIds[j]];
             }
 
-            bufferEntry.features.addAll(otherFeatureIds);
+            TokenInfoBufferCompiler.spillEntry(
+                entryOutput,
+                dictionaryEntry.getLeftId(),
+                dictionaryEntry.getRightId(),
+                dictionaryEntry.getWordCost(),
+                partOfSpeechIds,
+                featureIds
+            );
 
-            bufferEntries.add(bufferEntry);
-            surfaces.add(dictionaryEntry.getSurface());
+            surfaceOutput.writeUTF(dictionaryEntry.getSurface());
+            surfaceSorter.add(dictionaryEntry.getSurface());
+            entryCount++;
 
             if (dictionaryEntries != null) {
                 dictionaryEntries.add(dictionaryEntry);
@@ -119,6 +234,15 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
         }
     }
 
+    private static int[] translate(FeatureInfoMap local, FeatureInfoMap global) {
+        int[] ids = new int[local.getEntryCount()];
+
+        for (Map.Entry<Integer, String> feature : local.invert().entrySet()) {
+            ids[feature.getKey()] = global.mapFeature(feature.getValue());
+        }
+        return ids;
+    }
+
     protected abstract GenericDictionaryEntry makeGenericDictionaryEntry(T entry);
 
     protected abstract T parse(String line);
@@ -132,14 +256,6 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
         return entryCount <= 0xff;
     }
 
-    private List<Byte> createPosFeatureIds(List<Integer> posFeatureIds) {
-        List<Byte> posFeatureIdBytes = new ArrayList<>();
-        for (Integer posFeatureId : posFeatureIds) {
-            posFeatureIdBytes.add(posFeatureId.byteValue());
-        }
-        return posFeatureIdBytes;
-    }
-
 
     public InputStream combinedSequentialFileInputStream(File dir) throws FileNotFoundException {
         List<FileInputStream> fileInputStreams = new ArrayList<>();
@@ -178,8 +294,95 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
         wordIdsCompiler.addMapping(sourceId, wordId);
     }
 
-    public List<String> getSurfaces() {
-        return surfaces;
+    /**
+     * Gets the number of entries read
+     *
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the unique surfaces of all entries read, in sorted order
+     * <p>
+     * Surfaces are sorted externally, so only a bounded number of them is held in memory
+     *
+     * @return sorted unique surfaces, not null
+     * @throws IOException if an error occurs reading the spilled surfaces
+     */
+    public Iterator<String> getSortedSurfaces() throws IOException {
+        if (surfaceSorter == null) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return surfaceSorter.iterator();
+    }
+
+    /**
+     * Maps the word id of every entry to the id of its surface in an fst
+     *
+     * @param fst  fst with all surfaces
+     * @return number of surfaces not found in the fst
+     * @throws IOException if an error occurs reading the spilled surfaces
+     */
+    public int addMappings(FST fst) throws IOException {
+        if (surfaces == null) {
+            return 0;
+        }
+
+        DataInputStream input = surfaces.openInput();
+        int failures = 0;
+
+        try {
+            for (int wordId = 0; wordId < entryCount; wordId++) {
+                String surface = input.readUTF();
+                int sourceId = fst.lookup(surface);
+
+                if (sourceId < 0) {
+                    ProgressLog.println("failed to look up [" + surface + "]");
+                    failures++;
+                    continue;
+                }
+                addMapping(sourceId, wordId);
+            }
+        } finally {
+            input.close();
+        }
+        return failures;
+    }
+
+    @Deprecated
+    public List<String> getSurfaces() throws IOException {
+        List<String> surfaceList = new ArrayList<>(entryCount);
+
+        if (surfaces == null) {
+            return surfaceList;
+        }
+
+        DataInputStream input = surfaces.openInput();
+
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                surfaceList.add(input.readUTF());
+            }
+        } finally {
+            input.close();
+        }
+        return surfaceList;
+    }
+
+    /**
+     * Deletes the temporary files holding the entries read
+     *
+     * @throws IOException if an error occurs closing the files
+     */
+    @Override
+    public void close() throws IOException {
+        if (entries != null) {
+            entries.close();
+            surfaces.close();
+            surfaceSorter.close();
+        }
     }
 
     public void write(String directoryName) throws IOException {
@@ -199,10 +402,21 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
     }
 
     protected void writeDictionary(String filename) throws IOException {
-        TokenInfoBufferCompiler tokenInfoBufferCompiler = new TokenInfoBufferCompiler(
-            new FileOutputStream(filename),
-            bufferEntries
-        );
+        TokenInfoBufferCompiler tokenInfoBufferCompiler;
+
+        if (entries == null) {
+            tokenInfoBufferCompiler = new TokenInfoBufferCompiler(
+                new FileOutputStream(filename),
+                new ArrayList<BufferEntry>()
+            );
+        } else {
+            tokenInfoBufferCompiler = new TokenInfoBufferCompiler(
+                new FileOutputStream(filename),
+                entries,
+                entryCount,
+                entriesFitInAByte(posInfo.getEntryCount())
+            );
+        }
         tokenInfoBufferCompiler.compile();
     }
 
@@ -227,7 +441,23 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
     }
 
     @Deprecated
-    public List<BufferEntry> getBufferEntries() {
+    public List<BufferEntry> getBufferEntries() throws IOException {
+        List<BufferEntry> bufferEntries = new ArrayList<>(entryCount);
+
+        if (entries == null) {
+            return bufferEntries;
+        }
+
+        boolean partOfSpeechBytes = entriesFitInAByte(posInfo.getEntryCount());
+        DataInputStream input = entries.openInput();
+
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                bufferEntries.add(TokenInfoBufferCompiler.readSpilledEntry(input, partOfSpeechBytes));
+            }
+        } finally {
+            input.close();
+        }
         return bufferEntries;
     }
 
@@ -240,4 +470,58 @@ public abstract class TokenInfoDictionaryCompilerBase<T extends DictionaryEntryB
     public void setDictionaryEntries(List<GenericDictionaryEntry> dictionaryEntries) {
         this.dictionaryEntries = dictionaryEntries;
     }
+
+    /**
+     * Entries of a chunk of lines with feature ids local to the chunk
+     */
+    private static class ParsedChunk {
+
+        private final GenericDictionaryEntry[] entries;
+
+        private final int[][] posIds;
+
+        private final int[][] otherIds;
+
+        private final FeatureInfoMap posInfo = new FeatureInfoMap();
+
+        private final FeatureInfoMap otherInfo = new FeatureInfoMap();
+
+        public ParsedChunk(int size) {
+            entries = new GenericDictionaryEntry[size];
+            posIds = new int[size][];
+            otherIds = new int[size][];
+        }
+    }
+
+    private class ChunkParser implements Callable<ParsedChunk> {
+
+        private final List<String> lines;
+
+        public ChunkParser(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public ParsedChunk call() {
+            ParsedChunk chunk = new ParsedChunk(lines.size());
+
+            for (int i = 0; i < lines.size(); i++) {
+                GenericDictionaryEntry dictionaryEntry = makeGenericDictionaryEntry(parse(lines.get(i)));
+
+                chunk.entries[i] = dictionaryEntry;
+                chunk.posIds[i] = toArray(chunk.posInfo.mapFeatures(dictionaryEntry.getPartOfSpeechFeatures()));
+                chunk.otherIds[i] = toArray(chunk.otherInfo.mapFeatures(dictionaryEntry.getOtherFeatures()));
+            }
+            return chunk;
+        }
+
+        private int[] toArray(List<Integer> ids) {
+            int[] array = new int[ids.size()];
+
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ids.get(i);
+            }
+            return array;
+        }
+    }
 }
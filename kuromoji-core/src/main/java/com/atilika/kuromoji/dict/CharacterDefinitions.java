@@ -16,12 +16,14 @@
  */
 package com.atilika.kuromoji.dict;
 
+import com.atilika.kuromoji.util.MappedResourceResolver;
 import com.atilika.kuromoji.util.ResourceResolver;
 import com.atilika.kuromoji.io.IntegerArrayIO;
 import com.atilika.kuromoji.io.StringArrayIO;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public final class CharacterDefinitions {
 
@@ -67,19 +69,44 @@ public final class CharacterDefinitions {
     }
 
     public static CharacterDefinitions newInstance(ResourceResolver resolver) throws IOException {
+        if (resolver instanceof MappedResourceResolver) {
+            return read(((MappedResourceResolver) resolver).map(CHARACTER_DEFINITIONS_FILENAME));
+        }
+
         InputStream charDefInput = resolver.resolve(CHARACTER_DEFINITIONS_FILENAME);
 
-        int[][] definitions = IntegerArrayIO.readSparseArray2D(charDefInput);
-        int[][] mappings = IntegerArrayIO.readSparseArray2D(charDefInput);
-        String[] symbols = StringArrayIO.readArray(charDefInput);
+        try {
+            int[][] definitions = IntegerArrayIO.readSparseArray2D(charDefInput);
+            int[][] mappings = IntegerArrayIO.readSparseArray2D(charDefInput);
+            String[] symbols = StringArrayIO.readArray(charDefInput);
+
+            return new CharacterDefinitions(
+                definitions,
+                mappings,
+                symbols
+            );
+        } finally {
+            charDefInput.close();
+        }
+    }
 
-        CharacterDefinitions characterDefinition = new CharacterDefinitions(
+    /**
+     * Reads character definitions from a buffer without stream reads
+     *
+     * @param input  buffer positioned at the character definitions
+     * @return character definitions, not null
+     * @throws IOException if the character definitions are not in the expected format
+     */
+    public static CharacterDefinitions read(ByteBuffer input) throws IOException {
+        int[][] definitions = IntegerArrayIO.readSparseArray2D(input);
+        int[][] mappings = IntegerArrayIO.readSparseArray2D(input);
+        String[] symbols = StringArrayIO.readArray(input);
+
+        return new CharacterDefinitions(
             definitions,
             mappings,
             symbols
         );
-
-        return characterDefinition;
     }
 
     public void setCategories(char c, String[] categoryNames) {
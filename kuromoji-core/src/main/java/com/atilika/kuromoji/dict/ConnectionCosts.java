@@ -16,6 +16,7 @@
  */
 package com.atilika.kuromoji.dict;
 
+import com.atilika.kuromoji.util.MappedResourceResolver;
 import com.atilika.kuromoji.util.ResourceResolver;
 import com.atilika.kuromoji.io.ByteBufferIO;
 
@@ -26,37 +27,259 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 
+/**
+ * Connection costs between the right id of a word and the left id of the word following it
+ * <p>
+ * Ids with identical rows (forward ids) or identical columns (backward ids) in the cost matrix share an
+ * equivalence class, and costs are stored once per pair of classes.
+ * A lookup maps both ids to their classes and reads the cost from the class matrix
+ * <p>
+ * The compiled costs start with {@link #MAGIC} and {@link #VERSION}, so costs compiled as a dense matrix by older
+ * versions are rejected when loaded instead of being misread
+ */
 public class ConnectionCosts {
 
     public static final String CONNECTION_COSTS_FILENAME = "connectionCosts.bin";
 
+    public static final int MAGIC = 0x4b434f53; // KCOS
+
+    public static final int VERSION = 1;
+
+    private static final int INTEGER_BYTES = Integer.SIZE / Byte.SIZE;
+
+    private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
+
     private int size;
 
+    private int[] forwardClasses;
+
+    private int[] backwardClasses;
+
+    private int forwardClassCount;
+
+    private int backwardClassCount;
+
     private ShortBuffer costs;
 
+    /**
+     * Creates connection costs from a dense cost matrix
+     *
+     * @param size  number of forward and backward ids
+     * @param costs  cost matrix indexed by {@code backwardId + forwardId * size}
+     */
     public ConnectionCosts(int size, ShortBuffer costs) {
+        this(size, identity(size), identity(size), costs);
+    }
+
+    /**
+     * Creates connection costs from a class cost matrix
+     *
+     * @param size  number of forward and backward ids
+     * @param forwardClasses  class of each forward id
+     * @param backwardClasses  class of each backward id
+     * @param costs  class cost matrix indexed by {@code backwardClass + forwardClass * backwardClassCount}
+     */
+    public ConnectionCosts(int size, int[] forwardClasses, int[] backwardClasses, ShortBuffer costs) {
         this.size = size;
+        this.forwardClasses = forwardClasses;
+        this.backwardClasses = backwardClasses;
         this.costs = costs;
+
+        for (int forwardClass : forwardClasses) {
+            forwardClassCount = Math.max(forwardClassCount, forwardClass + 1);
+        }
+
+        for (int backwardClass : backwardClasses) {
+            backwardClassCount = Math.max(backwardClassCount, backwardClass + 1);
+        }
     }
 
     public int get(int forwardId, int backwardId) {
-        return costs.get(backwardId + forwardId * size);
+        return costs.get(backwardClasses[backwardId] + forwardClasses[forwardId] * backwardClassCount);
+    }
+
+    /**
+     * Gets the class of a forward id. Forward ids of the same class have the same costs to every backward id
+     *
+     * @param forwardId  forward id, i.e. the right id of a word
+     * @return forward class
+     */
+    public int getForwardClass(int forwardId) {
+        return forwardClasses[forwardId];
+    }
+
+    /**
+     * Gets the class of a backward id. Backward ids of the same class have the same costs from every forward id
+     *
+     * @param backwardId  backward id, i.e. the left id of a word
+     * @return backward class
+     */
+    public int getBackwardClass(int backwardId) {
+        return backwardClasses[backwardId];
+    }
+
+    /**
+     * Gets the cost between ids of the given classes
+     *
+     * @param forwardClass  forward class
+     * @param backwardClass  backward class
+     * @return connection cost
+     */
+    public int getClassCost(int forwardClass, int backwardClass) {
+        return costs.get(backwardClass + forwardClass * backwardClassCount);
+    }
+
+    /**
+     * Gets the number of forward classes
+     *
+     * @return number of forward classes
+     */
+    public int getForwardClassCount() {
+        return forwardClassCount;
+    }
+
+    /**
+     * Gets the number of backward classes
+     *
+     * @return number of backward classes
+     */
+    public int getBackwardClassCount() {
+        return backwardClassCount;
+    }
+
+    /**
+     * Gets the number of forward and backward ids
+     *
+     * @return number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of bytes used by the costs and the class maps
+     *
+     * @return size in bytes
+     */
+    public long getByteSize() {
+        return (long) costs.capacity() * SHORT_BYTES + (long) (forwardClasses.length + backwardClasses.length) * 4;
     }
 
     public static ConnectionCosts newInstance(ResourceResolver resolver) throws IOException {
-        return read(resolver.resolve(CONNECTION_COSTS_FILENAME));
+        if (resolver instanceof MappedResourceResolver) {
+            return read(((MappedResourceResolver) resolver).map(CONNECTION_COSTS_FILENAME));
+        }
+
+        InputStream input = resolver.resolve(CONNECTION_COSTS_FILENAME);
+
+        try {
+            return read(input);
+        } finally {
+            input.close();
+        }
     }
 
-    private static ConnectionCosts read(InputStream input) throws IOException {
+    /**
+     * Reads connection costs written by {@link com.atilika.kuromoji.compile.ConnectionCostsCompiler}
+     *
+     * @param input  input stream to read from
+     * @return connection costs, not null
+     * @throws IOException if an error occurs reading the costs
+     */
+    public static ConnectionCosts read(InputStream input) throws IOException {
         DataInputStream dataInput = new DataInputStream(
             new BufferedInputStream(input)
         );
 
+        if (dataInput.readInt() != MAGIC) {
+            throw new IOException("Connection costs are not in the expected format, the dictionary needs to be recompiled");
+        }
+
+        int version = dataInput.readInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported connection costs version " + version);
+        }
+
         int size = dataInput.readInt();
+        int forwardClassCount = dataInput.readInt();
+        int backwardClassCount = dataInput.readInt();
+
+        return read(size, forwardClassCount, backwardClassCount, ByteBufferIO.read(dataInput));
+    }
+
+    /**
+     * Reads connection costs from a buffer, viewing the costs in place
+     *
+     * @param input  buffer to read from
+     * @return connection costs, not null
+     * @throws IOException if the costs are not in the expected format
+     */
+    public static ConnectionCosts read(ByteBuffer input) throws IOException {
+        if (input.remaining() < 5 * INTEGER_BYTES || input.getInt() != MAGIC) {
+            throw new IOException("Connection costs are not in the expected format, the dictionary needs to be recompiled");
+        }
+
+        int version = input.getInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported connection costs version " + version);
+        }
+
+        int size = input.getInt();
+        int forwardClassCount = input.getInt();
+        int backwardClassCount = input.getInt();
+
+        if (input.remaining() < INTEGER_BYTES) {
+            throw new IOException("Connection costs are truncated");
+        }
+
+        int byteSize = input.getInt(input.position());
+
+        if (byteSize < 0 || byteSize > input.remaining() - INTEGER_BYTES) {
+            throw new IOException("Connection costs are truncated");
+        }
+
+        return read(size, forwardClassCount, backwardClassCount, ByteBufferIO.read(input));
+    }
+
+    private static ConnectionCosts read(int size, int forwardClassCount, int backwardClassCount, ByteBuffer byteBuffer) throws IOException {
+        if (size < 0 || forwardClassCount < 0 || backwardClassCount < 0 ||
+            byteBuffer.capacity() != (2L * size + (long) forwardClassCount * backwardClassCount) * SHORT_BYTES) {
+            throw new IOException(
+                "Connection costs of " + byteBuffer.capacity() + " bytes do not match " + size + " ids with " +
+                    forwardClassCount + " forward and " + backwardClassCount + " backward classes"
+            );
+        }
+
+        ShortBuffer buffer = byteBuffer.asShortBuffer();
+
+        int[] forwardClasses = readClasses(buffer, size, forwardClassCount);
+        int[] backwardClasses = readClasses(buffer, size, backwardClassCount);
+        ShortBuffer costs = buffer.slice();
+
+        return new ConnectionCosts(size, forwardClasses, backwardClasses, costs);
+    }
+
+    private static int[] readClasses(ShortBuffer buffer, int size, int classCount) throws IOException {
+        int[] classes = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            classes[i] = buffer.get();
+
+            if (classes[i] < 0 || classes[i] >= classCount) {
+                throw new IOException("Connection cost class " + classes[i] + " is not below the class count " + classCount);
+            }
+        }
+        return classes;
+    }
 
-        ByteBuffer byteBuffer = ByteBufferIO.read(dataInput);
-        ShortBuffer costs = byteBuffer.asShortBuffer();
+    private static int[] identity(int size) {
+        int[] classes = new int[size];
 
-        return new ConnectionCosts(size, costs);
+        for (int i = 0; i < size; i++) {
+            classes[i] = i;
+        }
+        return classes;
     }
 }
@@ -68,4 +68,17 @@ public interface Dictionary {
      * @return Array with specified features
      */
     public String getFeature(int wordId, int... fields);
+
+    /**
+     * Gets a record with one or more specific features of a token
+     * <p>
+     * The entry is decoded once and the features requested are served from the record.
+     * This is an expert API
+     *
+     * @param wordId  word id to get features for
+     * @param fields  array of feature ids. If this array is empty, all features are included
+     * @return record with the specified features, not null
+     * @throws IllegalArgumentException if a field is not a feature of the entry
+     */
+    public FeatureRecord getFeatureRecord(int wordId, int... fields);
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.dict;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of the features of a single dictionary entry
+ * <p>
+ * A record is decoded from the dictionary once and serves every feature from memory, which is cheaper than
+ * repeated {@link Dictionary#getFeature(int, int...)} calls when many features of the same entry are read.
+ * A record can be a projection that only holds a subset of the features
+ */
+public class FeatureRecord {
+
+    private final String[] features;
+
+    private final int firstField;
+
+    /**
+     * Creates a record holding the provided features, numbered from zero
+     *
+     * @param features  features of the entry, where null marks a feature not in this record
+     */
+    public FeatureRecord(String[] features) {
+        this(features, 0);
+    }
+
+    /**
+     * Creates a record sharing the features of another record, but numbered from the provided field
+     * <p>
+     * This is used by tokens that number their features after a number of metadata fields
+     *
+     * @param record  record to view
+     * @param firstField  number of the first feature in this record
+     */
+    public FeatureRecord(FeatureRecord record, int firstField) {
+        this(record.features, firstField);
+    }
+
+    private FeatureRecord(String[] features, int firstField) {
+        this.features = features;
+        this.firstField = firstField;
+    }
+
+    /**
+     * Creates a record with the specified fields of an entry's features
+     *
+     * @param features  all features of an entry
+     * @param fields  fields to include. If this array is empty, all features are included
+     * @return record, not null
+     * @throws IllegalArgumentException if a field is not a feature of the entry
+     */
+    public static FeatureRecord project(String[] features, int... fields) {
+        if (fields.length == 0) {
+            return new FeatureRecord(features);
+        }
+
+        String[] projection = new String[features.length];
+
+        for (int field : fields) {
+            checkField(field, features.length);
+            projection[field] = features[field];
+        }
+        return new FeatureRecord(projection);
+    }
+
+    static void checkField(int field, int featureCount) {
+        if (field < 0 || field >= featureCount) {
+            throw new IllegalArgumentException(
+                "Feature " + field + " is out of range, the entry has " + featureCount + " features"
+            );
+        }
+    }
+
+    /**
+     * Gets a feature
+     *
+     * @param field  feature number
+     * @return feature, or null if the feature is not included in this record
+     * @throws IndexOutOfBoundsException if the field number is out of range
+     */
+    public String get(int field) {
+        int index = field - firstField;
+
+        if (index < 0 || index >= features.length) {
+            throw new IndexOutOfBoundsException("Feature " + field + " is out of range");
+        }
+        return features[index];
+    }
+
+    /**
+     * Predicate indicating whether a feature is included in this record
+     *
+     * @param field  feature number
+     * @return true if the feature is included
+     */
+    public boolean contains(int field) {
+        int index = field - firstField;
+
+        return index >= 0 && index < features.length && features[index] != null;
+    }
+
+    /**
+     * Gets the number of features of the entry, including features not in this record
+     *
+     * @return number of features
+     */
+    public int size() {
+        return features.length;
+    }
+
+    /**
+     * Gets the features as an array, numbered from zero
+     *
+     * @return copy of the features, not null
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(features, features.length);
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureRecord{" +
+            "features=" + Arrays.toString(features) +
+            ", firstField=" + firstField +
+            '}';
+    }
+}
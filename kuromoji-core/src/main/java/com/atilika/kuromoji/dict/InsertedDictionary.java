@@ -74,4 +74,9 @@ public class InsertedDictionary implements Dictionary {
 
         return StringUtils.join(features, FEATURE_SEPARATOR);
     }
+
+    @Override
+    public FeatureRecord getFeatureRecord(int wordId, int... fields) {
+        return FeatureRecord.project(getAllFeaturesArray(wordId), fields);
+    }
 }
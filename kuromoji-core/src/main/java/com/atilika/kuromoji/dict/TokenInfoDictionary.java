@@ -16,15 +16,18 @@
  */
 package com.atilika.kuromoji.dict;
 
-import com.atilika.kuromoji.buffer.BufferEntry;
 import com.atilika.kuromoji.buffer.StringValueMapBuffer;
 import com.atilika.kuromoji.buffer.TokenInfoBuffer;
 import com.atilika.kuromoji.buffer.WordIdMap;
+import com.atilika.kuromoji.io.ByteBufferIO;
 import com.atilika.kuromoji.util.DictionaryEntryLineParser;
+import com.atilika.kuromoji.util.MappedResourceResolver;
 import com.atilika.kuromoji.util.ResourceResolver;
 import com.atilika.kuromoji.util.StringUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class TokenInfoDictionary implements Dictionary {
 
@@ -33,72 +36,113 @@ public class TokenInfoDictionary implements Dictionary {
     public static final String POS_MAP_FILENAME = "tokenInfoPartOfSpeechMap.bin";
     public static final String TARGETMAP_FILENAME = "tokenInfoTargetMap.bin";
 
-    private static final int LEFT_ID = 0;
-    private static final int RIGHT_ID = 1;
-    private static final int WORD_COST = 2;
     private static final int TOKEN_INFO_OFFSET = 3;
 
     private static final String FEATURE_SEPARATOR = ",";
 
     protected TokenInfoBuffer tokenInfoBuffer;
-    protected StringValueMapBuffer posValues;
-    protected StringValueMapBuffer stringValues;
+    protected volatile StringValueMapBuffer posValues;
+    protected volatile StringValueMapBuffer stringValues;
     protected WordIdMap wordIdMap;
 
+    private ResourceResolver resolver;
+    private boolean materializePartOfSpeech;
+    private boolean materializeFeatures;
+
     public int[] lookupWordIds(int sourceId) {
         return wordIdMap.lookUp(sourceId);
     }
 
+    /**
+     * Gets the number of word ids for a surface form id
+     *
+     * @param sourceId  surface form id from the FST
+     * @return number of word ids
+     */
+    public int lookupWordIdCount(int sourceId) {
+        return wordIdMap.lookUpCount(sourceId);
+    }
+
+    /**
+     * Gets a word id for a surface form id without copying the word ids
+     *
+     * @param sourceId  surface form id from the FST
+     * @param i  index of the word id, less than {@link #lookupWordIdCount(int)}
+     * @return word id
+     */
+    public int lookupWordId(int sourceId, int i) {
+        return wordIdMap.lookUp(sourceId, i);
+    }
+
     @Override
     public int getLeftId(int wordId) {
-        return tokenInfoBuffer.lookupTokenInfo(wordId, LEFT_ID);
+        return tokenInfoBuffer.lookupLeftId(wordId);
     }
 
     @Override
     public int getRightId(int wordId) {
-        return tokenInfoBuffer.lookupTokenInfo(wordId, RIGHT_ID);
+        return tokenInfoBuffer.lookupRightId(wordId);
     }
 
     @Override
     public int getWordCost(int wordId) {
-        return tokenInfoBuffer.lookupTokenInfo(wordId, WORD_COST);
+        return tokenInfoBuffer.lookupWordCost(wordId);
     }
 
     @Override
     public String[] getAllFeaturesArray(int wordId) {
-        BufferEntry bufferEntry = tokenInfoBuffer.lookupEntry(wordId);
-
-        int posLength = bufferEntry.posInfos.length;
-        int featureLength = bufferEntry.featureInfos.length;
+        int position = tokenInfoBuffer.getEntryPosition(wordId);
+        String[] result = new String[getFeatureCount()];
 
-        boolean partOfSpeechAsShorts = false;
-
-        if (posLength == 0) {
-            posLength = bufferEntry.tokenInfos.length - TOKEN_INFO_OFFSET;
-            partOfSpeechAsShorts = true;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getFeature(position, i);
         }
 
-        String[] result = new String[posLength + featureLength];
+        return result;
+    }
+
+    @Override
+    public FeatureRecord getFeatureRecord(int wordId, int... fields) {
+        int position = tokenInfoBuffer.getEntryPosition(wordId);
+        String[] features = new String[getFeatureCount()];
 
-        if (partOfSpeechAsShorts) {
-            for (int i = 0; i < posLength; i++) {
-                int feature = bufferEntry.tokenInfos[i + TOKEN_INFO_OFFSET];
-                result[i] = posValues.get(feature);
+        if (fields.length == 0) {
+            for (int i = 0; i < features.length; i++) {
+                features[i] = getFeature(position, i);
             }
         } else {
-            for (int i = 0; i < posLength; i++) {
-                int feature = bufferEntry.posInfos[i] & 0xff;
-                result[i] = posValues.get(feature);
+            for (int field : fields) {
+                FeatureRecord.checkField(field, features.length);
+                features[field] = getFeature(position, field);
             }
         }
 
-        for (int i = 0; i < featureLength; i++) {
-            int feature = bufferEntry.featureInfos[i];
-            String s = stringValues.get(feature);
-            result[i + posLength] = s;
+        return new FeatureRecord(features);
+    }
+
+    private int getFeatureCount() {
+        return getPartOfSpeechCount() + tokenInfoBuffer.getFeatureInfoCount();
+    }
+
+    private int getPartOfSpeechCount() {
+        if (tokenInfoBuffer.getPartOfSpeechInfoCount() == 0) {
+            // Part of speech features are stored as shorts after the token info
+            return tokenInfoBuffer.getTokenInfoCount() - TOKEN_INFO_OFFSET;
         }
+        return tokenInfoBuffer.getPartOfSpeechInfoCount();
+    }
 
-        return result;
+    private String getFeature(int position, int field) {
+        int posLength = getPartOfSpeechCount();
+
+        if (field >= posLength) {
+            return getFeatureValues().get(tokenInfoBuffer.getFeatureInfo(position, field - posLength));
+        }
+
+        if (tokenInfoBuffer.getPartOfSpeechInfoCount() == 0) {
+            return getPartOfSpeechValues().get(tokenInfoBuffer.getTokenInfo(position, field + TOKEN_INFO_OFFSET));
+        }
+        return getPartOfSpeechValues().get(tokenInfoBuffer.getPartOfSpeechInfo(position, field));
     }
 
     @Override
@@ -123,15 +167,7 @@ public class TokenInfoDictionary implements Dictionary {
     }
 
     private String extractSingleFeature(int wordId, int field) {
-        int featureId;
-
-        if (tokenInfoBuffer.isPartOfSpeechFeature(field)) {
-            featureId = tokenInfoBuffer.lookupPartOfSpeechFeature(wordId, field);
-            return posValues.get(featureId);
-        }
-
-        featureId = tokenInfoBuffer.lookupFeature(wordId, field);
-        return stringValues.get(featureId);
+        return getFeature(tokenInfoBuffer.getEntryPosition(wordId), field);
     }
 
     private String extractMultipleFeatures(int wordId, int[] fields) {
@@ -143,28 +179,167 @@ public class TokenInfoDictionary implements Dictionary {
             return extractSingleFeature(wordId, fields[0]);
         }
 
-        String[] allFeatures = getAllFeaturesArray(wordId);
+        int position = tokenInfoBuffer.getEntryPosition(wordId);
         String[] features = new String[fields.length];
 
         for (int i = 0; i < fields.length; i++) {
             int featureNumber = fields[i];
             features[i] = DictionaryEntryLineParser.escape(
-                allFeatures[featureNumber]
+                getFeature(position, featureNumber)
             );
         }
         return StringUtils.join(features, FEATURE_SEPARATOR);
     }
 
+    /**
+     * Gets the part-of-speech value map, loading it if needed
+     *
+     * @return part-of-speech values, not null
+     */
+    public StringValueMapBuffer getPartOfSpeechValues() {
+        StringValueMapBuffer values = posValues;
+
+        if (values == null) {
+            synchronized (this) {
+                if (posValues == null) {
+                    posValues = readValues(POS_MAP_FILENAME, materializePartOfSpeech);
+                }
+                values = posValues;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the feature value map, loading it if needed
+     *
+     * @return feature values, not null
+     */
+    public StringValueMapBuffer getFeatureValues() {
+        StringValueMapBuffer values = stringValues;
+
+        if (values == null) {
+            synchronized (this) {
+                if (stringValues == null) {
+                    stringValues = readValues(FEATURE_MAP_FILENAME, materializeFeatures);
+                }
+                values = stringValues;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Loads the part-of-speech and feature data, if not already loaded
+     * <p>
+     * This data is otherwise loaded when features are first read, so this method can be used to move that cost
+     * to application startup
+     */
+    public void loadFeatures() {
+        tokenInfoBuffer.loadFeatures();
+        getPartOfSpeechValues();
+        getFeatureValues();
+    }
+
+    private StringValueMapBuffer readValues(String resourceName, boolean materialize) {
+        try {
+            if (resolver instanceof MappedResourceResolver) {
+                ByteBuffer section = ((MappedResourceResolver) resolver).map(resourceName);
+                return new StringValueMapBuffer(ByteBufferIO.read(section), materialize);
+            }
+
+            InputStream input = resolver.resolve(resourceName);
+
+            try {
+                return new StringValueMapBuffer(input, materialize);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ouch) {
+            throw new RuntimeException("Could not load " + resourceName + ".", ouch);
+        }
+    }
+
+    /**
+     * Loads a dictionary with materialized part-of-speech values and lazily decoded feature values
+     * <p>
+     * Only the data needed to segment text is read here.
+     * Part-of-speech and feature data is read when features are first requested, see {@link #loadFeatures()}
+     *
+     * @param resolver  resolver for the dictionary resources
+     * @return dictionary, not null
+     * @throws IOException if an error occurs loading the dictionary
+     */
     public static TokenInfoDictionary newInstance(ResourceResolver resolver) throws IOException {
+        return newInstance(resolver, true, false);
+    }
+
+    /**
+     * Loads a dictionary, choosing per value map if values are decoded up front
+     * <p>
+     * Only the data needed to segment text is read here, and the value maps are read when first needed.
+     * The headers of the part-of-speech and feature data are checked here, so a missing or incompatible resource
+     * fails when loading rather than when features are first read.
+     * <p>
+     * The part-of-speech map is small and shared by most tokens, so materializing it is usually a good trade.
+     * The feature map is typically much larger and is best materialized only when most features are read for
+     * most tokens
+     *
+     * @param resolver  resolver for the dictionary resources
+     * @param materializePartOfSpeech  true to decode all part-of-speech values when loading
+     * @param materializeFeatures  true to decode all feature values when loading
+     * @return dictionary, not null
+     * @throws IOException if an error occurs loading the dictionary
+     * @see StringValueMapBuffer#StringValueMapBuffer(java.io.InputStream, boolean)
+     */
+    public static TokenInfoDictionary newInstance(ResourceResolver resolver,
+                                                  boolean materializePartOfSpeech,
+                                                  boolean materializeFeatures) throws IOException {
         TokenInfoDictionary dictionary = new TokenInfoDictionary();
-        dictionary.setup(resolver);
+        dictionary.setup(resolver, materializePartOfSpeech, materializeFeatures);
         return dictionary;
     }
 
-    private void setup(ResourceResolver resolver) throws IOException {
-        tokenInfoBuffer = new TokenInfoBuffer(resolver.resolve(TOKEN_INFO_DICTIONARY_FILENAME));
-        stringValues = new StringValueMapBuffer(resolver.resolve(FEATURE_MAP_FILENAME));
-        posValues = new StringValueMapBuffer(resolver.resolve(POS_MAP_FILENAME));
-        wordIdMap = new WordIdMap(resolver.resolve(TARGETMAP_FILENAME));
+    private void setup(ResourceResolver resolver,
+                       boolean materializePartOfSpeech,
+                       boolean materializeFeatures) throws IOException {
+        this.resolver = resolver;
+        this.materializePartOfSpeech = materializePartOfSpeech;
+        this.materializeFeatures = materializeFeatures;
+
+        tokenInfoBuffer = new TokenInfoBuffer(resolver, TOKEN_INFO_DICTIONARY_FILENAME);
+        wordIdMap = readWordIdMap(resolver);
+
+        // The value maps are read on first use, so check them now rather than fail in a token getter later
+        verifyValues(POS_MAP_FILENAME);
+        verifyValues(FEATURE_MAP_FILENAME);
+    }
+
+    private void verifyValues(String resourceName) throws IOException {
+        try {
+            InputStream input = resolver.resolve(resourceName);
+
+            try {
+                StringValueMapBuffer.verify(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ouch) {
+            throw new IOException("Could not load " + resourceName + ".", ouch);
+        }
+    }
+
+    private static WordIdMap readWordIdMap(ResourceResolver resolver) throws IOException {
+        if (resolver instanceof MappedResourceResolver) {
+            return new WordIdMap(((MappedResourceResolver) resolver).map(TARGETMAP_FILENAME));
+        }
+
+        InputStream input = resolver.resolve(TARGETMAP_FILENAME);
+
+        try {
+            return new WordIdMap(input);
+        } finally {
+            input.close();
+        }
     }
 }
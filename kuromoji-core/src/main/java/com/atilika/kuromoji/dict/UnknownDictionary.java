@@ -16,6 +16,7 @@
  */
 package com.atilika.kuromoji.dict;
 
+import com.atilika.kuromoji.util.MappedResourceResolver;
 import com.atilika.kuromoji.util.ResourceResolver;
 import com.atilika.kuromoji.io.IntegerArrayIO;
 import com.atilika.kuromoji.io.StringArrayIO;
@@ -23,6 +24,7 @@ import com.atilika.kuromoji.util.StringUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class UnknownDictionary implements Dictionary {
 
@@ -125,6 +127,11 @@ public class UnknownDictionary implements Dictionary {
         return StringUtils.join(features, FEATURE_SEPARATOR);
     }
 
+    @Override
+    public FeatureRecord getFeatureRecord(int wordId, int... fields) {
+        return FeatureRecord.project(getAllFeaturesArray(wordId), fields);
+    }
+
     public CharacterDefinitions getCharacterDefinition() {
         return characterDefinition;
     }
@@ -132,11 +139,27 @@ public class UnknownDictionary implements Dictionary {
     public static UnknownDictionary newInstance(ResourceResolver resolver,
                                                 CharacterDefinitions characterDefinitions,
                                                 int totalFeatures) throws IOException {
-        InputStream unkDefInput = resolver.resolve(UnknownDictionary.UNKNOWN_DICTIONARY_FILENAME);
-
-        int[][] costs = IntegerArrayIO.readArray2D(unkDefInput);
-        int[][] references = IntegerArrayIO.readArray2D(unkDefInput);
-        String[][] features = StringArrayIO.readArray2D(unkDefInput);
+        int[][] costs;
+        int[][] references;
+        String[][] features;
+
+        if (resolver instanceof MappedResourceResolver) {
+            ByteBuffer unkDefInput = ((MappedResourceResolver) resolver).map(UnknownDictionary.UNKNOWN_DICTIONARY_FILENAME);
+
+            costs = IntegerArrayIO.readArray2D(unkDefInput);
+            references = IntegerArrayIO.readArray2D(unkDefInput);
+            features = StringArrayIO.readArray2D(unkDefInput);
+        } else {
+            InputStream unkDefInput = resolver.resolve(UnknownDictionary.UNKNOWN_DICTIONARY_FILENAME);
+
+            try {
+                costs = IntegerArrayIO.readArray2D(unkDefInput);
+                references = IntegerArrayIO.readArray2D(unkDefInput);
+                features = StringArrayIO.readArray2D(unkDefInput);
+            } finally {
+                unkDefInput.close();
+            }
+        }
 
         UnknownDictionary unknownDictionary = new UnknownDictionary(
             characterDefinitions,
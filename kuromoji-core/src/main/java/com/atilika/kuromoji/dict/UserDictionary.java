@@ -16,6 +16,8 @@
  */
 package com.atilika.kuromoji.dict;
 
+import com.atilika.kuromoji.fst.Builder;
+import com.atilika.kuromoji.fst.FST;
 import com.atilika.kuromoji.trie.PatriciaTrie;
 import com.atilika.kuromoji.util.DictionaryEntryLineParser;
 import com.atilika.kuromoji.util.StringUtils;
@@ -27,6 +29,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class UserDictionary implements Dictionary {
@@ -52,6 +55,8 @@ public class UserDictionary implements Dictionary {
     // The word id below is the word id for the source string
     // surface string => [ word id, 1st token length, 2nd token length, ... , nth token length
     private PatriciaTrie<int[]> surfaces = new PatriciaTrie<>();
+    // Surfaces compiled for matching, or null until needed after entries change
+    private volatile SurfaceMatcher surfaceMatcher;
 
     public UserDictionary(InputStream input,
                           int totalFeatures,
@@ -69,43 +74,64 @@ public class UserDictionary implements Dictionary {
      * @param text text to look up user dictionary matches for
      * @return list of UserDictionaryMatch, not null
      */
-    public List<UserDictionaryMatch> findUserDictionaryMatches(String text) {
+    public List<UserDictionaryMatch> findUserDictionaryMatches(CharSequence text) {
         List<UserDictionaryMatch> matchInfos = new ArrayList<>();
-        int startIndex = 0;
 
-        while (startIndex < text.length()) {
-            int matchLength = 0;
-            int endIndex = 0;
+        if (surfaces.isEmpty()) {
+            return matchInfos;
+        }
 
-            while (currentInputContainsPotentialMatch(text, startIndex, endIndex)) {
-                String matchCandidate = text.substring(startIndex, startIndex + endIndex);
+        SurfaceMatcher matcher = getSurfaceMatcher();
 
-                if (surfaces.containsKey(matchCandidate)) {
-                    matchLength = endIndex;
-                }
-
-                endIndex++;
-            }
+        for (int startIndex = 0; startIndex < text.length(); startIndex++) {
+            int surfaceId = 0;
 
-            if (matchLength > 0) {
-                String match = text.substring(startIndex, startIndex + matchLength);
-                int[] details = surfaces.get(match);
+            for (int length = 1; startIndex + length <= text.length(); length++) {
+                int result = matcher.fst.lookup(text, startIndex, length);
 
-                if (details != null) {
-                    matchInfos.addAll(
-                        makeMatchDetails(startIndex, details)
-                    );
+                if (result < 0) {
+                    break;
+                }
+                if (result > 0) {
+                    surfaceId = result; // Longest match so far
                 }
             }
 
-            startIndex++;
+            if (surfaceId > 0) {
+                matchInfos.addAll(
+                    makeMatchDetails(startIndex, matcher.details[surfaceId - 1])
+                );
+            }
         }
 
         return matchInfos;
     }
 
-    private boolean currentInputContainsPotentialMatch(String text, int startIndex, int endIndex) {
-        return startIndex + endIndex <= text.length() && surfaces.containsKeyPrefix(text.substring(startIndex, startIndex + endIndex));
+    /**
+     * Checks whether a surface may start at an index and continue past the end of the text
+     *
+     * @param text  text to look up
+     * @param startIndex  index of the first character of the surface
+     * @return whether text[startIndex, text.length()) is a surface or the beginning of one
+     */
+    public boolean continuesPastEnd(CharSequence text, int startIndex) {
+        return !surfaces.isEmpty() && getSurfaceMatcher().fst.lookup(text, startIndex, text.length() - startIndex) >= 0;
+    }
+
+    private SurfaceMatcher getSurfaceMatcher() {
+        SurfaceMatcher matcher = surfaceMatcher;
+
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = surfaceMatcher;
+
+                if (matcher == null) {
+                    matcher = new SurfaceMatcher(surfaces);
+                    surfaceMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
     }
 
     @Override
@@ -144,6 +170,11 @@ public class UserDictionary implements Dictionary {
         return entry.getFeature(fields);
     }
 
+    @Override
+    public FeatureRecord getFeatureRecord(int wordId, int... fields) {
+        return FeatureRecord.project(getAllFeaturesArray(wordId), fields);
+    }
+
     private List<UserDictionaryMatch> makeMatchDetails(int matchStartIndex, int[] details) {
         List<UserDictionaryMatch> matchDetails = new ArrayList<>(details.length - 1);
 
@@ -183,8 +214,9 @@ public class UserDictionary implements Dictionary {
         }
     }
 
-    public void addEntry(String entry) {
+    public synchronized void addEntry(String entry) {
         String[] values = DictionaryEntryLineParser.parseLine(entry);
+        surfaceMatcher = null;
 
         if (values.length == SIMPLE_USERDICT_FIELDS) {
             addSimpleEntry(values);
@@ -297,6 +329,39 @@ public class UserDictionary implements Dictionary {
         return input.split("\\s+");
     }
 
+    /**
+     * Surfaces compiled to an FST that matches them in text without creating strings. The FST output of a surface
+     * is its index in sorted order plus one
+     */
+    private static class SurfaceMatcher {
+
+        private final FST fst;
+
+        private final int[][] details;
+
+        public SurfaceMatcher(PatriciaTrie<int[]> surfaces) {
+            List<String> sortedSurfaces = new ArrayList<>(surfaces.keySet());
+            Collections.sort(sortedSurfaces);
+
+            details = new int[sortedSurfaces.size()][];
+
+            try {
+                Builder builder = new Builder();
+
+                for (int i = 0; i < sortedSurfaces.size(); i++) {
+                    String surface = sortedSurfaces.get(i);
+                    builder.add(surface, i + 1);
+                    details[i] = surfaces.get(surface);
+                }
+                builder.finish();
+
+                fst = new FST(builder.getCompiler().getBytes());
+            } catch (IOException ouch) {
+                throw new RuntimeException("Could not compile user dictionary surfaces", ouch);
+            }
+        }
+    }
+
     public static class UserDictionaryMatch {
 
         private final int wordId;
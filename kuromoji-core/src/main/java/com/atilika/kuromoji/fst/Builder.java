@@ -20,60 +20,77 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 public class Builder {
     // Note that FST only allows the presorted dictionaries as input.
-    private Map<Integer, List<State>> statesDictionary;
 
-    private Compiler compiler = new Compiler();
+    // Only the states of the previous word are kept as objects, all other states are compiled
+    private Compiler compiler;
 
     private List<State> tempStates;
 
+    private String previousWord = "";
+
     public Builder() {
-        List<State> stateList = new LinkedList<>();
-        stateList.add(new State());
-        this.statesDictionary = new HashMap<>();
-        this.statesDictionary.put(0, stateList); // temporary setting the start state
+        this(new Compiler());
+    }
+
+    /**
+     * Creates a builder that remembers a bounded number of compiled states when looking for equivalent states
+     *
+     * @param maxRegisterSize  maximum number of recently compiled states to remember, or 0 to remember all
+     * @see Compiler#Compiler(int)
+     */
+    public Builder(int maxRegisterSize) {
+        this(new Compiler(maxRegisterSize));
+    }
+
+    private Builder(Compiler compiler) {
+        this.compiler = compiler;
 
         tempStates = new ArrayList<>();
-        tempStates.add(this.getStartState()); // initial state
+        tempStates.add(new State()); // initial state
     }
 
     /**
      * Applies the transducer over the input text
+     * <p>
+     * The transducer is applied to the compiled fst, so this is only supported after building
      *
      * @param input  input text to transduce
      * @return corresponding value on a match and -1 otherwise
      */
     public int transduce(String input) {
-        State currentState = this.getStartState();
+        CompiledState state = new CompiledState(compiler.getBuffer());
+        int address = compiler.getSize() - 1; // start state
         int output = 0; // assuming that output is a int type
 
         // transitioning according to input
         for (int i = 0; i < input.length(); i++) {
             char currentTransition = input.charAt(i);
-            Arc nextArc = currentState.findArc(currentTransition);
-            if (nextArc == null) {
+            int slot = state.read(address).find(currentTransition);
+
+            if (slot == -1) {
                 return -1;
             }
-            currentState = nextArc.getDestination();
-            output += nextArc.getOutput();
+            address = state.getJump(slot);
+            output += state.getOutput(slot);
         }
 
         return output;
     }
 
     /**
-     * Get starting state. Note that only start state uses 0 as the key for states dictionary.
+     * Get starting state
+     * <p>
+     * The destinations of its arcs are compiled and only hold their address in the compiled fst
      *
      * @return start state
      */
     public State getStartState() {
-        return this.statesDictionary.get(0).get(0);
+        return tempStates.get(0);
     }
 
     /**
@@ -84,7 +101,6 @@ public class Builder {
      */
     public void createDictionaryIncremental(Reader reader) throws IOException {
         LineNumberReader lineNumberReader = new LineNumberReader(reader);
-        String previousWord = "";
 
         int outputValue = 1; // Initialize output value
 
@@ -95,13 +111,11 @@ public class Builder {
             if (line.trim().isEmpty()) {
                 continue;
             }
-            String inputWord = line;
-            createDictionaryCommon(inputWord, previousWord, outputValue);
-            previousWord = inputWord;
+            add(line, outputValue);
             outputValue++; // allocate the next wordID
         }
 
-        handleLastWord(previousWord);
+        finish();
     }
 
 
@@ -113,18 +127,37 @@ public class Builder {
      * @throws IOException in case of an IO error
      */
     public void build(String[] inputWords, int[] outputValues) throws IOException {
-        String previousWord = "";
-
         for (int inputWordIdx = 0; inputWordIdx < inputWords.length; inputWordIdx++) {
-            String inputWord = inputWords[inputWordIdx];
-            createDictionaryCommon(
-                inputWord,
-                previousWord,
+            add(
+                inputWords[inputWordIdx],
                 outputValues == null ? inputWordIdx + 1 : outputValues[inputWordIdx]
             );
-            previousWord = inputWord;
         }
 
+        finish();
+    }
+
+    /**
+     * Adds an input word and its output value
+     * <p>
+     * Words must be added in sorted order and {@link #finish()} must be called after the last word.
+     * This allows building from a stream of words without holding all words in memory
+     *
+     * @param inputWord  input word to add, not null
+     * @param outputValue  output value of the word
+     * @throws IOException in case of an IO error
+     */
+    public void add(String inputWord, int outputValue) throws IOException {
+        createDictionaryCommon(inputWord, previousWord, outputValue);
+        previousWord = inputWord;
+    }
+
+    /**
+     * Finishes building after the last word is added
+     *
+     * @throws IOException in case of an IO error
+     */
+    public void finish() throws IOException {
         handleLastWord(previousWord);
     }
 
@@ -141,7 +174,7 @@ public class Builder {
         }
 
         for (int i = previousWord.length(); i >= commonPrefixLengthPlusOne; i--) {
-            freezeAndPointToNewState(previousWord, i);
+            freezeAndPointToNewState(i);
         }
 
         for (int i = commonPrefixLengthPlusOne; i <= inputWord.length(); i++) {
@@ -167,19 +200,18 @@ public class Builder {
     }
 
     /**
-     * Freeze a new state if there is no equivalent state in the states dictionary.
+     * Freeze a new state if there is no equivalent state compiled already.
+     * <p>
+     * The arc from the previous state then only needs the compiled address, so the arcs of the frozen state are
+     * dropped and the states after it can be collected
      *
-     * @param previousWord
-     * @param i
+     * @param i  index of the temp state to freeze
      */
-    private void freezeAndPointToNewState(String previousWord, int i) throws IOException {
-        State state = tempStates.get(i - 1);
-        char previousWordChar = previousWord.charAt(i - 1);
-        int output = state.findArc(previousWordChar).getOutput();
-        state.arcs.remove(state.findArc(previousWordChar));
-        Arc arcToFrozenState = state.setArc(previousWordChar, output, findEquivalentState(tempStates.get(i)));
-
-        compiler.compileState(arcToFrozenState.getDestination());
+    private void freezeAndPointToNewState(int i) {
+        State state = tempStates.get(i);
+
+        compiler.freezeState(state);
+        state.arcs = Collections.emptyList();
     }
 
     /**
@@ -187,19 +219,18 @@ public class Builder {
      *
      * @param previousWord
      */
-    private void handleLastWord(String previousWord) throws IOException {
+    private void handleLastWord(String previousWord) {
         for (int i = previousWord.length(); i > 0; i--) {
-            freezeAndPointToNewState(previousWord, i);
+            freezeAndPointToNewState(i);
         }
         compileStartingState();
-        findEquivalentState(tempStates.get(0)); // not necessary when compiling is enabled
     }
 
     /**
      * Compiles and caches the outgoing arcs from the starting state
      */
-    private void compileStartingState() throws IOException {
-
+    private void compileStartingState() {
+        // Never replaced by an equivalent state, as the start state must be last in the compiled fst
         compiler.compileState(tempStates.get(0));
     }
 
@@ -233,43 +264,6 @@ public class Builder {
         return word - prefix;
     }
 
-    /**
-     * Find the equivalent state by checking its destination states to when collided.
-     *
-     * @param state  state to check for equivalence
-     * @return returns an equivalent state which is already in the stateDicitonary. If there is no equivalent state,
-     * then a new state will created and put into statesDictionary.
-     */
-    private State findEquivalentState(State state) {
-        Integer key = state.hashCode(); // this is going to be the hashCode.
-
-        if (statesDictionary.containsKey(key)) {
-
-            if (state.arcs.size() == 0) {
-                // the dead end state (which is unique!)
-                return statesDictionary.get(key).get(0);
-            }
-
-            // Here, there are multiple states that has the same hashcode. Linear Probing the collidedStates.
-            for (State collidedState : statesDictionary.get(key)) {
-                if (state.equals(collidedState)) {
-                    return collidedState;
-                }
-            }
-        }
-        // At this point, we know that there is no equivalent compiled (finalized) node
-        State newStateToDic = new State(state); // deep copy
-        List<State> stateList = new LinkedList<>();
-        if (statesDictionary.containsKey(key)) {
-            stateList = statesDictionary.get(key);
-            // adding new state to a key
-        }
-        stateList.add(newStateToDic);
-        statesDictionary.put(key, stateList);
-
-        return newStateToDic;
-    }
-
     public Compiler getCompiler() {
         return compiler;
     }
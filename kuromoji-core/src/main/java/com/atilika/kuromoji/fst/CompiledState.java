@@ -0,0 +1,143 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.fst;
+
+/**
+ * Reads the arcs of a compiled state, with either sorted or direct addressed arcs
+ * <p>
+ * Arcs are read by slot. Sorted arcs have a slot per arc, direct addressed arcs have a slot per label in their label
+ * range, and slots without an arc have a jump address of 0. Slots are in label order for both.
+ * See {@link Compiler} for the compiled format
+ */
+class CompiledState {
+
+    private final byte[] fst;
+
+    private boolean accept;
+
+    private boolean direct;
+
+    private int jumpBytes;
+
+    private int outputBytes;
+
+    private int arcs;
+
+    private int slots;
+
+    private int firstLabel;
+
+    private int slotSize;
+
+    // Last byte of the last slot
+    private int lastSlotEnd;
+
+    public CompiledState(byte[] fst) {
+        this.fst = fst;
+    }
+
+    public CompiledState read(int address) {
+        byte stateType = fst[address];
+
+        accept = (stateType & Compiler.STATE_TYPE_ACCEPT) != 0;
+        direct = (stateType & Compiler.STATE_TYPE_DIRECT) != 0;
+        jumpBytes = (stateType & 0x03) + 1;
+        outputBytes = (stateType & 0x03 << 3) >> 3;
+        arcs = Bits.getShort(fst, address - 1);
+
+        if (direct) {
+            firstLabel = Bits.getShort(fst, address - 3);
+            slots = Bits.getShort(fst, address - 5);
+            slotSize = jumpBytes + outputBytes;
+            lastSlotEnd = address - 7;
+        } else {
+            slots = arcs;
+            slotSize = 2 + jumpBytes + outputBytes;
+            lastSlotEnd = address - 3;
+        }
+        return this;
+    }
+
+    public boolean isFinal() {
+        return accept;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getArcs() {
+        return arcs;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public char getLabel(int slot) {
+        if (direct) {
+            return (char) (firstLabel + slot);
+        }
+        return (char) Bits.getShort(fst, slotEnd(slot) - outputBytes - jumpBytes);
+    }
+
+    public int getJump(int slot) {
+        return Bits.getInt(fst, slotEnd(slot) - outputBytes, jumpBytes);
+    }
+
+    public int getOutput(int slot) {
+        return Bits.getInt(fst, slotEnd(slot), outputBytes);
+    }
+
+    /**
+     * Finds the arc with a label
+     *
+     * @param label  label to find
+     * @return slot of the arc, or -1 if the state has no arc with the label
+     */
+    public int find(char label) {
+        if (direct) {
+            int slot = label - firstLabel;
+
+            if (slot < 0 || slot >= slots || getJump(slot) == 0) {
+                return -1;
+            }
+            return slot;
+        }
+
+        int low = 0;
+        int high = slots - 1;
+
+        while (low <= high) {
+            int middle = low + (high - low) / 2;
+            char middleLabel = getLabel(middle);
+
+            if (middleLabel == label) {
+                return middle;
+            } else if (middleLabel < label) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int slotEnd(int slot) {
+        return lastSlotEnd - (slots - 1 - slot) * slotSize;
+    }
+}
@@ -16,10 +16,7 @@
  */
 package com.atilika.kuromoji.fst;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 public class Compiler {
@@ -28,7 +25,8 @@ public class Compiler {
      * <pre>
      * {@code
      * 1 byte   bit 7: true - accept state, false - match state
-     *          bits 3-6 indicate number of bytes in output value (m)
+     *          bit 6: true - direct addressed arcs, false - sorted arcs
+     *          bits 3-5 indicate number of bytes in output value (m)
      *          bits 0-2 indicate number of bytes in jump address (n)
      * 2 bytes  number of outgoing arcs
      * [
@@ -40,99 +38,214 @@ public class Compiler {
      * ]
      * }
      * </pre>
+     * States are written and read backwards, so the bytes above are in reverse order in the compiled fst.
+     * States with direct addressed arcs have an arc slot for every label from their first to their last label,
+     * without labels, and a jump address of 0 in slots without an arc:
+     * <pre>
+     * {@code
+     * 1 byte   state type
+     * 2 bytes  number of outgoing arcs
+     * 2 bytes  first label (char)
+     * 2 bytes  number of arc slots (s)
+     * [
+     *  (
+     *   n bytes jump address,
+     *   m bytes accumlator
+     *  )
+     * ]
+     * }
+     * </pre>
      */
     public static final byte STATE_TYPE_MATCH = (byte) 0x00;
 
     public static final byte STATE_TYPE_ACCEPT = (byte) 0x80;
 
-    private ByteArrayOutputStream byteArrayOutput;
+    public static final byte STATE_TYPE_DIRECT = (byte) 0x40;
+
+    public static final int DEFAULT_DIRECT_ARCS_THRESHOLD = 16;
 
-    private DataOutput dataOutput;
+    public static final float DEFAULT_DIRECT_ARCS_MAX_OVERSIZING = 2.0f;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static final int MAX_DIRECT_SLOTS = 0xffff;
+
+    private int directArcsThreshold = DEFAULT_DIRECT_ARCS_THRESHOLD;
+
+    private float directArcsMaxOversizing = DEFAULT_DIRECT_ARCS_MAX_OVERSIZING;
+
+    private final StateRegister register;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
 
     private int written = 0;
 
+    /**
+     * Creates a compiler that finds all equivalent states, giving a minimal fst
+     */
     public Compiler() {
-        byteArrayOutput = new ByteArrayOutputStream();
-        dataOutput = new DataOutputStream(byteArrayOutput);
+        this(0);
     }
 
-    public void compileState(State state) throws IOException {
-        if (state.getTargetJumpAddress() == -1) {
-            int jumpBytes = findMaxJumpAddressBytes(state);
-            int outputBytes = findMaxOutputBytes(state);
+    /**
+     * Creates a compiler that remembers a bounded number of compiled states when looking for equivalent states
+     * <p>
+     * Bounding the register limits memory use for very large inputs, at the expense of a larger fst since
+     * equivalent states that were forgotten are compiled again
+     *
+     * @param maxRegisterSize  maximum number of recently compiled states to remember, or 0 to remember all
+     */
+    public Compiler(int maxRegisterSize) {
+        register = new StateRegister(maxRegisterSize);
+    }
 
-            writeStateArcs(state, outputBytes, jumpBytes);
-            writeStateType(state, outputBytes, jumpBytes);
+    /**
+     * Sets when states are compiled with direct addressed arcs, which are looked up in constant time
+     * <p>
+     * Direct addressed arcs have a slot for every label in the range of labels of the state, so they are used for
+     * states with many arcs with labels that are close together
+     *
+     * @param threshold  minimum number of arcs of a state, or 0 to never use direct addressed arcs
+     * @param maxOversizing  maximum size of the direct addressed arcs, relative to the size of the sorted arcs
+     */
+    public void setDirectAddressing(int threshold, float maxOversizing) {
+        this.directArcsThreshold = threshold;
+        this.directArcsMaxOversizing = maxOversizing;
+    }
+
+    /**
+     * Compiles a state, unless it is compiled already
+     *
+     * @param state  state to compile, with all destination states compiled
+     */
+    public void compileState(State state) {
+        if (state.getTargetJumpAddress() == -1) {
+            writeState(state);
 
             // The last arc is regarded as a state because we evaluate the FST backwards.
             state.setTargetJumpAddress(written - 1);
         }
     }
 
-    private void writeStateType(State state, int outputBytes, int jumpBytes) throws IOException {
-        byte stateType;
+    /**
+     * Compiles a state, unless an equivalent state is compiled already
+     * <p>
+     * Equivalent states compile to identical bytes, so the state is written first and then looked up in the
+     * register, which compares the bytes directly in the compiled fst. If an equivalent state is found, the bytes
+     * just written are discarded and the state is given the address of the equivalent state
+     *
+     * @param state  state to compile, with all destination states compiled
+     */
+    public void freezeState(State state) {
+        if (state.getTargetJumpAddress() != -1) {
+            return;
+        }
 
-        if (state.isFinal()) {
-            stateType = STATE_TYPE_ACCEPT;
+        int start = written;
+        writeState(state);
+
+        int hash = StateRegister.hash(buffer, start, written);
+        int address = register.find(buffer, start, written, hash);
+
+        if (address == -1) {
+            address = written - 1;
+            register.add(address, hash);
         } else {
-            stateType = STATE_TYPE_MATCH;
+            written = start;
         }
 
-        stateType |= jumpBytes - 1;
-        stateType |= outputBytes << 3;
+        state.setTargetJumpAddress(address);
+    }
+
+    private void writeState(State state) {
+        int jumpBytes = findMaxJumpAddressBytes(state);
+        int outputBytes = findMaxOutputBytes(state);
+        List<Arc> arcs = state.arcs;
+
+        int sortedSize = 3 + arcs.size() * (2 + jumpBytes + outputBytes);
+        int directSize = 0;
+        int slots = 0;
+        boolean direct = false;
+
+        if (directArcsThreshold > 0 && arcs.size() >= directArcsThreshold) {
+            slots = arcs.get(arcs.size() - 1).getLabel() - arcs.get(0).getLabel() + 1;
+            directSize = 7 + slots * (jumpBytes + outputBytes);
+            direct = slots <= MAX_DIRECT_SLOTS && directSize <= sortedSize * directArcsMaxOversizing;
+        }
+
+        if (direct) {
+            ensureCapacity(directSize);
+            writeDirectArcs(arcs, slots, outputBytes, jumpBytes);
+            writeStateType(state, STATE_TYPE_DIRECT, outputBytes, jumpBytes);
+        } else {
+            ensureCapacity(sortedSize);
 
-        dataOutput.writeByte(stateType);
+            for (Arc arc : arcs) {
+                writeStateArc(arc, outputBytes, jumpBytes);
+            }
 
-        written += 1;
+            writeIntValue(arcs.size(), 2);
+            writeStateType(state, STATE_TYPE_MATCH, outputBytes, jumpBytes);
+        }
     }
 
-    private void writeStateArcs(State state, int outputBytes, int jumpBytes) throws IOException {
-        List<Arc> arcs = state.arcs;
+    private void writeDirectArcs(List<Arc> arcs, int slots, int outputBytes, int jumpBytes) {
+        char firstLabel = arcs.get(0).getLabel();
+        int slot = 0;
 
         for (Arc arc : arcs) {
-            writeStateArc(arc, outputBytes, jumpBytes);
+            for (; slot < arc.getLabel() - firstLabel; slot++) {
+                writeIntValue(0, jumpBytes); // no arc
+                writeIntValue(0, outputBytes);
+            }
+
+            writeIntValue(arc.getDestination().getTargetJumpAddress(), jumpBytes);
+            writeIntValue(arc.getOutput(), outputBytes);
+            slot++;
+        }
+
+        writeIntValue(slots, 2);
+        writeIntValue(firstLabel, 2);
+        writeIntValue(arcs.size(), 2);
+    }
+
+    private void writeStateType(State state, byte layout, int outputBytes, int jumpBytes) {
+        byte stateType;
+
+        if (state.isFinal()) {
+            stateType = STATE_TYPE_ACCEPT;
+        } else {
+            stateType = STATE_TYPE_MATCH;
         }
 
-        dataOutput.writeShort(arcs.size());
-        written += 2;
+        stateType |= layout;
+
+        stateType |= jumpBytes - 1;
+        stateType |= outputBytes << 3;
+
+        buffer[written++] = stateType;
     }
 
-    private void writeStateArc(Arc arc, int outputBytes, int jumpBytes) throws IOException {
+    private void writeStateArc(Arc arc, int outputBytes, int jumpBytes) {
         State target = arc.getDestination();
-        int arcSize = 2 + jumpBytes + outputBytes; // label + bytes for a jump + output
 
-        dataOutput.writeShort(arc.getLabel());
+        writeIntValue(arc.getLabel(), 2); // label
         writeIntValue(target.getTargetJumpAddress(), jumpBytes);
         writeIntValue(arc.getOutput(), outputBytes);
-
-        written += arcSize;
     }
 
-    private void writeIntValue(int value, int bytes) throws IOException {
+    private void writeIntValue(int value, int bytes) {
         switch (bytes) {
             case 0:
                 break;
 
             case 1:
-                dataOutput.writeByte(value & 0xff);
-                break;
-
             case 2:
-                dataOutput.writeByte((value >> 8) & 0xff);
-                dataOutput.writeByte(value & 0xff);
-                break;
-
             case 3:
-                dataOutput.writeByte((value >> 16) & 0xff);
-                dataOutput.writeByte((value >> 8) & 0xff);
-                dataOutput.writeByte(value & 0xff);
-                break;
-
             case 4:
-                dataOutput.writeByte((value >> 24) & 0xff);
-                dataOutput.writeByte((value >> 16) & 0xff);
-                dataOutput.writeByte((value >> 8) & 0xff);
-                dataOutput.writeByte(value & 0xff);
+                for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                    buffer[written++] = (byte) (value >> shift);
+                }
                 break;
 
             default:
@@ -140,6 +253,12 @@ public class Compiler {
         }
     }
 
+    private void ensureCapacity(int bytes) {
+        if (written + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(written + bytes, buffer.length + (buffer.length >> 1)));
+        }
+    }
+
     private int findMaxJumpAddressBytes(State state) {
         int maxJumpAddress = 0;
 
@@ -188,7 +307,43 @@ public class Compiler {
         return 4;
     }
 
+    /**
+     * Gets the number of bytes in a compiled state
+     *
+     * @param fst  compiled fst
+     * @param address  address of the state, which is its last byte
+     * @return number of bytes in the state
+     */
+    static int getStateSize(byte[] fst, int address) {
+        byte stateType = fst[address];
+        int jumpBytes = (stateType & 0x03) + 1;
+        int outputBytes = (stateType & 0x03 << 3) >> 3;
+
+        if ((stateType & STATE_TYPE_DIRECT) != 0) {
+            int slots = Bits.getShort(fst, address - 5);
+
+            return 7 + slots * (jumpBytes + outputBytes);
+        }
+
+        int arcs = Bits.getShort(fst, address - 1);
+
+        return 3 + arcs * (2 + jumpBytes + outputBytes);
+    }
+
+    /**
+     * Gets the compiled bytes without copying them
+     *
+     * @return buffer with the compiled fst in its first {@link #getSize()} bytes
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getSize() {
+        return written;
+    }
+
     public byte[] getBytes() {
-        return byteArrayOutput.toByteArray();
+        return Arrays.copyOf(buffer, written);
     }
 }
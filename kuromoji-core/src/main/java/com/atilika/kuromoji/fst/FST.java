@@ -46,34 +46,33 @@ public class FST {
         Arrays.fill(jumpCache, -1);
         Arrays.fill(outputCache, -1);
 
-        int address = fst.length - 1;
-
-        final byte stateType = Bits.getByte(fst, address);
-        address -= 1;
-
-        final int jumpBytes = (stateType & 0x03) + 1;
-        final int outputBytes = (stateType & 0x03 << 3) >> 3;
-
-        int arcs = Bits.getShort(fst, address);
-        address -= 2;
-
-        for (int i = 0; i < arcs; i++) {
-            final int output = Bits.getInt(fst, address, outputBytes);
-            address -= outputBytes;
+        CompiledState root = new CompiledState(fst).read(fst.length - 1);
 
-            final int jump = Bits.getInt(fst, address, jumpBytes);
-            address -= jumpBytes;
+        for (int slot = 0; slot < root.getSlots(); slot++) {
+            final int jump = root.getJump(slot);
 
-            final char label = (char) Bits.getShort(fst, address);
-            address -= 2;
+            if (jump != 0) {
+                final char label = root.getLabel(slot);
 
-            jumpCache[label] = jump;
-            outputCache[label] = output;
+                jumpCache[label] = jump;
+                outputCache[label] = root.getOutput(slot);
+            }
         }
     }
 
     public int lookup(String input) {
-        final int length = input.length();
+        return lookup(input, 0, input.length());
+    }
+
+    /**
+     * Looks up the characters input[offset, offset + length) without copying them
+     *
+     * @param input  characters to look up
+     * @param offset  index of the first character
+     * @param length  number of characters
+     * @return the output for a match, 0 for a prefix match or -1 if there is no match
+     */
+    public int lookup(CharSequence input, int offset, int length) {
         int address = fst.length - 1;
         int accumulator = 0;
         int index = 0;
@@ -100,7 +99,7 @@ public class FST {
             }
 
             boolean matched = false;
-            final char c = input.charAt(index);
+            final char c = input.charAt(offset + index);
 
             if (index == 0) {
                 //
@@ -115,6 +114,28 @@ public class FST {
                 final int output = outputCache[c];
                 accumulator += output;
 
+                address = jump;
+                matched = true;
+            } else if ((stateTypByte & Compiler.STATE_TYPE_DIRECT) != 0) {
+                //
+                // Transition to the next state by indexing the arc slot of the label directly
+                //
+                final int firstLabel = Bits.getShort(fst, address - 2);
+                final int slots = Bits.getShort(fst, address - 4);
+                final int slot = c - firstLabel;
+
+                if (slot < 0 || slot >= slots) {
+                    return -1;
+                }
+
+                final int slotAddress = address - 6 - (slots - 1 - slot) * (jumpBytes + outputBytes);
+                final int jump = Bits.getInt(fst, slotAddress - outputBytes, jumpBytes);
+
+                if (jump == 0) {
+                    return -1;
+                }
+
+                accumulator += Bits.getInt(fst, slotAddress, outputBytes);
                 address = jump;
                 matched = true;
             } else {
@@ -18,7 +18,10 @@ package com.atilika.kuromoji.fst;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
 
 public class FSTFormatter {
 
@@ -60,65 +63,67 @@ public class FSTFormatter {
     }
 
     private String formatHashedNodes(Builder builder) {
+        byte[] fst = builder.getCompiler().getBytes();
+        int startAddress = fst.length - 1;
+
         StringBuilder sb = new StringBuilder();
-        sb.append(formatState(builder.getStartState())); // format the start state
+        sb.append(formatState(startAddress, false)); // format the start state
+
+        // Walks the compiled states, which are identified by their address
+        CompiledState state = new CompiledState(fst);
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> addresses = new ArrayDeque<>();
+        addresses.add(startAddress);
 
-        ArrayList<State> stateArrayList = new ArrayList<State>();
-        stateArrayList.add(builder.getStartState());
+        while (!addresses.isEmpty()) {
+            int address = addresses.removeFirst();
 
-        while (!stateArrayList.isEmpty()) {
-            State state = stateArrayList.get(0);
-            if (state.arcs.size() == 0 || state.visited) {
-                stateArrayList.remove(0);
+            if (!visited.add(address)) {
                 continue;
             }
-            for (char transition : state.getAllTransitionStrings()) {
-                Arc arc = state.findArc(transition);
-                State toState = arc.getDestination();
-                stateArrayList.add(toState);
 
-                if (toState.isFinal()) {
-                    sb.append(formatFinalState(toState));
-                }
-                else {
-                    sb.append(formatState(toState));
+            state.read(address);
+
+            for (int slot = 0; slot < state.getSlots(); slot++) {
+                int toAddress = state.getJump(slot);
+
+                if (toAddress == 0) {
+                    continue; // no arc in a direct addressed slot
                 }
-                Integer arcOutput = arc.getOutput();
-                sb.append(formatEdge(state, toState, transition, arcOutput.toString(), "fontsize=40"));
+
+                int output = state.getOutput(slot);
+                char transition = state.getLabel(slot);
+
+                addresses.add(toAddress);
+
+                sb.append(formatState(toAddress, (fst[toAddress] & Compiler.STATE_TYPE_ACCEPT) != 0));
+                sb.append(formatEdge(address, toAddress, transition, String.valueOf(output), "fontsize=40"));
             }
-            state.visited = true;
-            stateArrayList.remove(0);
         }
         return sb.toString();
 
     }
 
-    private String formatState(State state) {
+    private String formatState(int address, boolean isFinal) {
         StringBuilder sb = new StringBuilder();
         sb.append("\"");
-        sb.append(getNodeId(state));
+        sb.append(address);
         sb.append("\"");
         sb.append(" [ ");
-        sb.append("label=");
-        sb.append(formatStateLabel(state));
-        sb.append(" ]");
-        return sb.toString();
-    }
 
-    private String formatFinalState(State state) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\"");
-        sb.append(getNodeId(state));
-        sb.append("\"");
-        sb.append(" [ ");
-        sb.append("fillcolor=pink ");
-        sb.append("label=");
-        sb.append(formatFinalStateLabel(state));
+        if (isFinal) {
+            sb.append("fillcolor=pink ");
+            sb.append("label=");
+            sb.append(formatFinalStateLabel());
+        } else {
+            sb.append("label=");
+            sb.append(formatStateLabel());
+        }
         sb.append(" ]");
         return sb.toString();
     }
 
-    private String formatStateLabel(State state) {
+    private String formatStateLabel() {
         StringBuilder sb = new StringBuilder();
         sb.append("<<table border=\"0\" cellborder=\"0\">");
         sb.append("<tr><td>");
@@ -133,7 +138,7 @@ public class FSTFormatter {
         return sb.toString();
     }
 
-    private String formatFinalStateLabel(State state) {
+    private String formatFinalStateLabel() {
         StringBuilder sb = new StringBuilder();
         sb.append("<<table border=\"0\" cellborder=\"0\">");
         sb.append("<tr><td>");
@@ -149,11 +154,11 @@ public class FSTFormatter {
     }
 
 
-    private String formatEdge(State from, State to, char transition, String output, String attributes) {
+    private String formatEdge(int from, int to, char transition, String output, String attributes) {
         StringBuilder sb = new StringBuilder();
-        sb.append(getNodeId(from));
+        sb.append(from);
         sb.append(" -> ");
-        sb.append(getNodeId(to));
+        sb.append(to);
         sb.append(" [ ");
         sb.append("label=\"");
         sb.append(transition + "/");
@@ -166,9 +171,4 @@ public class FSTFormatter {
         sb.append("\n");
         return sb.toString();
     }
-
-    private String getNodeId(State node) {
-        return String.valueOf(node.hashCode());
-    }
-
 }
@@ -23,7 +23,6 @@ import java.util.List;
 public class State {
     List<Arc> arcs;
     private boolean isFinal = false;
-    boolean visited; //for visualization purpose
 
     private int targetJumpAddress = -1;
 
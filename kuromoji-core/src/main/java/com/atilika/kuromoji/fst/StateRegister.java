@@ -0,0 +1,168 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.fst;
+
+import java.util.Arrays;
+
+/**
+ * Register of compiled states, used to find equivalent states while compiling
+ * <p>
+ * States are kept as their addresses in the compiled fst in an open addressing hash table, and compared directly
+ * with the compiled bytes, so no state objects are kept once compiled.
+ * A bounded register keeps two generations of states. When the current generation is full, the previous generation
+ * is dropped and the current becomes the previous, so the register remembers at least the most recently used states
+ */
+class StateRegister {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxSize;
+
+    private Table current = new Table(INITIAL_CAPACITY);
+
+    private Table previous = null;
+
+    /**
+     * Creates a register
+     *
+     * @param maxSize  maximum number of states in a generation, or 0 for an unbounded register
+     */
+    public StateRegister(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static int hash(byte[] fst, int start, int end) {
+        int hash = 0;
+
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + fst[i];
+        }
+
+        // Spreads the bits, as the table index uses the low bits
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Finds a compiled state with the same bytes as a state
+     *
+     * @param fst  compiled fst
+     * @param start  first byte of the state
+     * @param end  end of the state, exclusive
+     * @param hash  hash of the state bytes
+     * @return address of an equivalent state, or -1 if there is none
+     */
+    public int find(byte[] fst, int start, int end, int hash) {
+        int address = current.find(fst, start, end, hash);
+
+        if (address == -1 && previous != null) {
+            address = previous.find(fst, start, end, hash);
+
+            if (address != -1) {
+                // Keeps the state when the previous generation is dropped
+                add(address, hash);
+            }
+        }
+        return address;
+    }
+
+    public void add(int address, int hash) {
+        if (maxSize > 0 && current.size >= maxSize) {
+            previous = current;
+            current = new Table(INITIAL_CAPACITY);
+        }
+
+        current.add(address, hash);
+    }
+
+    private static class Table {
+
+        private int[] addresses;
+
+        private int[] hashes;
+
+        private int size = 0;
+
+        public Table(int capacity) {
+            addresses = new int[capacity];
+            hashes = new int[capacity];
+            Arrays.fill(addresses, -1);
+        }
+
+        public int find(byte[] fst, int start, int end, int hash) {
+            int mask = addresses.length - 1;
+            int length = end - start;
+
+            for (int slot = hash & mask; addresses[slot] != -1; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && equals(fst, addresses[slot], start, length)) {
+                    return addresses[slot];
+                }
+            }
+            return -1;
+        }
+
+        private boolean equals(byte[] fst, int address, int start, int length) {
+            if (Compiler.getStateSize(fst, address) != length) {
+                return false;
+            }
+
+            int offset = address + 1 - length;
+
+            for (int i = 0; i < length; i++) {
+                if (fst[offset + i] != fst[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void add(int address, int hash) {
+            if (2 * (size + 1) > addresses.length) {
+                rehash(addresses.length * 2);
+            }
+
+            insert(address, hash);
+            size++;
+        }
+
+        private void insert(int address, int hash) {
+            int mask = addresses.length - 1;
+            int slot = hash & mask;
+
+            while (addresses[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+
+            addresses[slot] = address;
+            hashes[slot] = hash;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldAddresses = addresses;
+            int[] oldHashes = hashes;
+
+            addresses = new int[capacity];
+            hashes = new int[capacity];
+            Arrays.fill(addresses, -1);
+
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != -1) {
+                    insert(oldAddresses[i], oldHashes[i]);
+                }
+            }
+        }
+    }
+}
@@ -18,12 +18,12 @@ package com.atilika.kuromoji.io;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 public class ByteBufferIO {
@@ -32,15 +32,53 @@ public class ByteBufferIO {
         DataInputStream dataInput = new DataInputStream(input);
 
         int size = dataInput.readInt();
-        ByteBuffer buffer = ByteBuffer.allocate(size);
+        byte[] bytes = new byte[size];
 
-        ReadableByteChannel channel = Channels.newChannel(dataInput);
-        while (buffer.hasRemaining()) {
-            channel.read(buffer);
-        }
+        dataInput.readFully(bytes);
 
-        buffer.rewind();
-        return buffer;
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reads a buffer written by {@link #write(OutputStream, ByteBuffer)} from another buffer without copying
+     * <p>
+     * The returned buffer is a view of the input, which is advanced past the buffer read
+     *
+     * @param input  buffer positioned at the buffer to read
+     * @return view of the buffer read, not null
+     */
+    public static ByteBuffer read(ByteBuffer input) {
+        int size = input.getInt();
+
+        ByteBuffer buffer = input.slice();
+        buffer.limit(size);
+        input.position(input.position() + size);
+
+        return buffer.slice();
+    }
+
+    /**
+     * Skips a buffer written by {@link #write(OutputStream, ByteBuffer)} without reading it into memory
+     *
+     * @param input  input stream positioned at the buffer
+     * @throws IOException if an error occurs skipping
+     */
+    public static void skip(InputStream input) throws IOException {
+        DataInputStream dataInput = new DataInputStream(input);
+
+        int size = dataInput.readInt();
+
+        while (size > 0) {
+            int skipped = (int) dataInput.skip(size);
+
+            if (skipped <= 0) {
+                if (dataInput.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            size -= skipped;
+        }
     }
 
     public static void write(OutputStream output, ByteBuffer buffer) throws IOException {
@@ -23,115 +23,190 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
 
+/**
+ * Reads and writes integer arrays
+ * <p>
+ * Each array, 2D array or sparse 2D array is written as a single length-prefixed block as written by
+ * {@link ByteBufferIO}, so reading it takes one bulk read followed by decoding from memory.
+ * Blocks can also be read from a mapped buffer without any stream reads.
+ * Each block is preceded by {@link #MAGIC} and {@link #VERSION}, so arrays written in another layout are rejected
+ * when read instead of being misread
+ */
 public class IntegerArrayIO {
 
+    public static final int MAGIC = 0x4b494e54; // KINT
+
+    public static final int VERSION = 1;
+
     private static final int INT_BYTES = Integer.SIZE / Byte.SIZE;
 
     public static int[][] readArrays(InputStream input, int arrayCount) throws IOException {
         int[][] arrays = new int[arrayCount][];
-        ReadableByteChannel channel = Channels.newChannel(input);
         for (int i = 0; i < arrayCount; i++) {
-            arrays[i] = readArrayFromChannel(channel);
+            arrays[i] = readArray(input);
         }
         return arrays;
     }
 
-    public static void writeArray(OutputStream output, int[] array) throws IOException {
-        DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
-
-        dataOutput.writeInt(length);
+    public static int[][] readArrays(ByteBuffer input, int arrayCount) throws IOException {
+        int[][] arrays = new int[arrayCount][];
+        for (int i = 0; i < arrayCount; i++) {
+            arrays[i] = readArray(input);
+        }
+        return arrays;
+    }
 
-        ByteBuffer tmpBuffer = ByteBuffer.allocate(length * INT_BYTES);
-        IntBuffer intBuffer = tmpBuffer.asIntBuffer();
+    public static int[] readArray(InputStream input) throws IOException {
+        return decodeArray(readBlock(input));
+    }
 
-        tmpBuffer.rewind();
-        intBuffer.put(array);
+    public static int[] readArray(ByteBuffer input) throws IOException {
+        return decodeArray(readBlock(input));
+    }
 
-        WritableByteChannel channel = Channels.newChannel(dataOutput);
-        channel.write(tmpBuffer);
+    public static void writeArray(OutputStream output, int[] array) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(getEncodedSize(array));
+        encodeArray(block, array);
+        writeBlock(output, block);
     }
 
     public static int[][] readArray2D(InputStream input) throws IOException {
-        DataInputStream dataInput = new DataInputStream(input);
+        return decodeArray2D(readBlock(input));
+    }
 
-        return readArrays(dataInput, dataInput.readInt());
+    public static int[][] readArray2D(ByteBuffer input) throws IOException {
+        return decodeArray2D(readBlock(input));
     }
 
     public static void writeArray2D(OutputStream output, int[][] array) throws IOException {
-        DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
+        int size = INT_BYTES;
+
+        for (int[] inner : array) {
+            size += getEncodedSize(inner);
+        }
 
-        dataOutput.writeInt(length);
+        ByteBuffer block = ByteBuffer.allocate(size);
+        block.putInt(array.length);
 
-        for (int i = 0; i < length; i++) {
-            writeArray(dataOutput, array[i]);
+        for (int[] inner : array) {
+            encodeArray(block, inner);
         }
+
+        writeBlock(output, block);
     }
 
     public static int[][] readSparseArray2D(InputStream input) throws IOException {
-        ReadableByteChannel channel = Channels.newChannel(input);
-
-        int arrayCount = readIntFromByteChannel(channel);
-        int[][] arrays = new int[arrayCount][];
-
-        int index;
+        return decodeSparseArray2D(readBlock(input));
+    }
 
-        while ((index = readIntFromByteChannel(channel)) >= 0) {
-            arrays[index] = readArrayFromChannel(channel);
-        }
-        return arrays;
+    public static int[][] readSparseArray2D(ByteBuffer input) throws IOException {
+        return decodeSparseArray2D(readBlock(input));
     }
 
     public static void writeSparseArray2D(OutputStream output, int[][] array) throws IOException {
-        DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
+        int size = INT_BYTES * 2;
+
+        for (int[] inner : array) {
+            if (inner != null) {
+                size += INT_BYTES + getEncodedSize(inner);
+            }
+        }
 
-        dataOutput.writeInt(length);
+        ByteBuffer block = ByteBuffer.allocate(size);
+        block.putInt(array.length);
 
-        for (int i = 0; i < length; i++) {
+        for (int i = 0; i < array.length; i++) {
             int[] inner = array[i];
 
             if (inner != null) {
-                dataOutput.writeInt(i);
-                writeArray(dataOutput, inner);
+                block.putInt(i);
+                encodeArray(block, inner);
             }
         }
         // This negative index serves as an end-of-array marker
-        dataOutput.writeInt(-1);
+        block.putInt(-1);
+
+        writeBlock(output, block);
     }
 
-    private static int readIntFromByteChannel(ReadableByteChannel channel) throws IOException {
-        ByteBuffer intBuffer = ByteBuffer.allocate(INT_BYTES);
-        int result = -1;
-        while (intBuffer.hasRemaining() && (channel.read(intBuffer) >= 0)) {
-        }
-        if (!intBuffer.hasRemaining()) {
-            intBuffer.rewind();
-            result = intBuffer.asIntBuffer().get(0);
-        }
-        return result;
+    private static ByteBuffer readBlock(InputStream input) throws IOException {
+        DataInputStream dataInput = new DataInputStream(input);
+        int magic = dataInput.readInt();
+
+        checkHeader(magic, dataInput.readInt());
+        return ByteBufferIO.read(input);
     }
 
-    private static int[] readArrayFromChannel(ReadableByteChannel channel) throws IOException {
-        int length = readIntFromByteChannel(channel);
+    private static ByteBuffer readBlock(ByteBuffer input) throws IOException {
+        if (input.remaining() < 2 * INT_BYTES) {
+            throw new IOException("Integer array is truncated");
+        }
 
-        ByteBuffer tmpBuffer = ByteBuffer.allocate(length * INT_BYTES);
-        while (tmpBuffer.hasRemaining() && (channel.read(tmpBuffer) >= 0)) {
+        int magic = input.getInt();
+
+        checkHeader(magic, input.getInt());
+        return ByteBufferIO.read(input);
+    }
+
+    private static void checkHeader(int magic, int version) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Integer array is not in the expected format, the dictionary needs to be recompiled");
         }
-        tmpBuffer.rewind();
-        IntBuffer intBuffer = tmpBuffer.asIntBuffer();
 
-        if (intBuffer.hasArray() && !intBuffer.isReadOnly()) {
-            return intBuffer.array();
+        if (version != VERSION) {
+            throw new IOException("Unsupported integer array version " + version);
         }
+    }
+
+    private static void writeBlock(OutputStream output, ByteBuffer block) throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        dataOutput.writeInt(MAGIC);
+        dataOutput.writeInt(VERSION);
+        ByteBufferIO.write(dataOutput, block);
+    }
+
+    private static int getEncodedSize(int[] array) {
+        return INT_BYTES + array.length * INT_BYTES;
+    }
+
+    private static void encodeArray(ByteBuffer block, int[] array) {
+        block.putInt(array.length);
+        block.asIntBuffer().put(array);
+        block.position(block.position() + array.length * INT_BYTES);
+    }
 
+    private static int[] decodeArray(ByteBuffer block) {
+        int length = block.getInt();
         int[] array = new int[length];
+
+        IntBuffer intBuffer = block.asIntBuffer();
         intBuffer.get(array);
+        block.position(block.position() + length * INT_BYTES);
+
         return array;
     }
+
+    private static int[][] decodeArray2D(ByteBuffer block) {
+        int arrayCount = block.getInt();
+        int[][] arrays = new int[arrayCount][];
+
+        for (int i = 0; i < arrayCount; i++) {
+            arrays[i] = decodeArray(block);
+        }
+        return arrays;
+    }
+
+    private static int[][] decodeSparseArray2D(ByteBuffer block) {
+        int arrayCount = block.getInt();
+        int[][] arrays = new int[arrayCount][];
+
+        int index;
+
+        while ((index = block.getInt()) >= 0) {
+            arrays[index] = decodeArray(block);
+        }
+        return arrays;
+    }
 }
@@ -21,87 +21,217 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads and writes string arrays
+ * <p>
+ * Like {@link IntegerArrayIO}, each array is written as a single length-prefixed block that is read in bulk.
+ * Strings are stored as UTF-8 with an unsigned short byte length. Each block is preceded by {@link #MAGIC} and
+ * {@link #VERSION}, which differ from those of integer arrays
+ */
 public class StringArrayIO {
 
+    private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
+
+    private static final int INT_BYTES = Integer.SIZE / Byte.SIZE;
+
+    public static final int MAGIC = 0x4b535452; // KSTR
+
+    public static final int VERSION = 1;
+
+    private static final int MAX_STRING_BYTES = 0xffff;
+
     public static String[] readArray(InputStream input) throws IOException {
-        DataInputStream dataInput = new DataInputStream(input);
-        int length = dataInput.readInt();
+        return decodeArray(readBlock(input));
+    }
 
-        String[] array = new String[length];
+    public static String[] readArray(ByteBuffer input) throws IOException {
+        return decodeArray(readBlock(input));
+    }
 
-        for (int i = 0; i < length; i++) {
-            array[i] = dataInput.readUTF();
+    public static void writeArray(OutputStream output, String[] array) throws IOException {
+        byte[][] encoded = encodeStrings(array);
+
+        ByteBuffer block = ByteBuffer.allocate(getEncodedSize(encoded));
+        encodeArray(block, encoded);
+        writeBlock(output, block);
+    }
+
+    public static String[][] readArray2D(InputStream input) throws IOException {
+        return decodeArray2D(readBlock(input));
+    }
+
+    public static String[][] readArray2D(ByteBuffer input) throws IOException {
+        return decodeArray2D(readBlock(input));
+    }
+
+    public static void writeArray2D(OutputStream output, String[][] array) throws IOException {
+        byte[][][] encoded = new byte[array.length][][];
+        int size = INT_BYTES;
+
+        for (int i = 0; i < array.length; i++) {
+            encoded[i] = encodeStrings(array[i]);
+            size += getEncodedSize(encoded[i]);
         }
 
-        return array;
+        ByteBuffer block = ByteBuffer.allocate(size);
+        block.putInt(array.length);
+
+        for (byte[][] inner : encoded) {
+            encodeArray(block, inner);
+        }
+
+        writeBlock(output, block);
     }
 
-    public static void writeArray(OutputStream output, String[] array) throws IOException {
-        DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
+    public static String[][] readSparseArray2D(InputStream input) throws IOException {
+        return decodeSparseArray2D(readBlock(input));
+    }
+
+    public static String[][] readSparseArray2D(ByteBuffer input) throws IOException {
+        return decodeSparseArray2D(readBlock(input));
+    }
+
+    public static void writeSparseArray2D(OutputStream output, String[][] array) throws IOException {
+        byte[][][] encoded = new byte[array.length][][];
+        int size = INT_BYTES * 2;
 
-        dataOutput.writeInt(length);
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != null) {
+                encoded[i] = encodeStrings(array[i]);
+                size += INT_BYTES + getEncodedSize(encoded[i]);
+            }
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(size);
+        block.putInt(array.length);
 
         for (int i = 0; i < array.length; i++) {
-            dataOutput.writeUTF(array[i]);
+            if (encoded[i] != null) {
+                block.putInt(i);
+                encodeArray(block, encoded[i]);
+            }
         }
+        // This negative index serves as an end-of-array marker
+        block.putInt(-1);
+
+        writeBlock(output, block);
     }
 
-    public static String[][] readArray2D(InputStream input) throws IOException {
+    private static ByteBuffer readBlock(InputStream input) throws IOException {
         DataInputStream dataInput = new DataInputStream(input);
-        int length = dataInput.readInt();
+        int magic = dataInput.readInt();
 
-        String[][] array = new String[length][];
+        checkHeader(magic, dataInput.readInt());
+        return ByteBufferIO.read(input);
+    }
 
-        for (int i = 0; i < length; i++) {
-            array[i] = readArray(dataInput);
+    private static ByteBuffer readBlock(ByteBuffer input) throws IOException {
+        if (input.remaining() < 2 * INT_BYTES) {
+            throw new IOException("String array is truncated");
         }
 
-        return array;
+        int magic = input.getInt();
+
+        checkHeader(magic, input.getInt());
+        return ByteBufferIO.read(input);
     }
 
-    public static void writeArray2D(OutputStream output, String[][] array) throws IOException {
+    private static void checkHeader(int magic, int version) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("String array is not in the expected format, the dictionary needs to be recompiled");
+        }
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported string array version " + version);
+        }
+    }
+
+    private static void writeBlock(OutputStream output, ByteBuffer block) throws IOException {
         DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
 
-        dataOutput.writeInt(length);
+        dataOutput.writeInt(MAGIC);
+        dataOutput.writeInt(VERSION);
+        ByteBufferIO.write(dataOutput, block);
+    }
 
-        for (int i = 0; i < length; i++) {
-            writeArray(dataOutput, array[i]);
+    private static byte[][] encodeStrings(String[] array) {
+        byte[][] encoded = new byte[array.length][];
+
+        for (int i = 0; i < array.length; i++) {
+            encoded[i] = array[i].getBytes(StandardCharsets.UTF_8);
+
+            if (encoded[i].length > MAX_STRING_BYTES) {
+                throw new IllegalArgumentException("String too long: " + array[i]);
+            }
         }
+        return encoded;
     }
 
-    public static String[][] readSparseArray2D(InputStream input) throws IOException {
-        DataInputStream dataInput = new DataInputStream(input);
-        int length = dataInput.readInt();
+    private static int getEncodedSize(byte[][] encoded) {
+        int size = INT_BYTES;
 
-        String[][] array = new String[length][];
+        for (byte[] bytes : encoded) {
+            size += SHORT_BYTES + bytes.length;
+        }
+        return size;
+    }
 
-        int index;
+    private static void encodeArray(ByteBuffer block, byte[][] encoded) {
+        block.putInt(encoded.length);
 
-        while ((index = dataInput.readInt()) >= 0) {
-            array[index] = readArray(dataInput);
+        for (byte[] bytes : encoded) {
+            block.putShort((short) bytes.length);
+            block.put(bytes);
         }
+    }
+
+    private static String[] decodeArray(ByteBuffer block) {
+        int length = block.getInt();
+        String[] array = new String[length];
 
+        for (int i = 0; i < length; i++) {
+            array[i] = decodeString(block);
+        }
         return array;
     }
 
-    public static void writeSparseArray2D(OutputStream output, String[][] array) throws IOException {
-        DataOutputStream dataOutput = new DataOutputStream(output);
-        int length = array.length;
+    private static String decodeString(ByteBuffer block) {
+        int length = block.getShort() & 0xffff;
+        String string;
+
+        if (block.hasArray()) {
+            string = new String(block.array(), block.arrayOffset() + block.position(), length, StandardCharsets.UTF_8);
+            block.position(block.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            block.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
 
-        dataOutput.writeInt(length);
+    private static String[][] decodeArray2D(ByteBuffer block) {
+        int arrayCount = block.getInt();
+        String[][] arrays = new String[arrayCount][];
 
-        for (int i = 0; i < length; i++) {
-            String[] inner = array[i];
+        for (int i = 0; i < arrayCount; i++) {
+            arrays[i] = decodeArray(block);
+        }
+        return arrays;
+    }
 
-            if (inner != null) {
-                dataOutput.writeInt(i);
-                writeArray(dataOutput, inner);
-            }
+    private static String[][] decodeSparseArray2D(ByteBuffer block) {
+        int arrayCount = block.getInt();
+        String[][] arrays = new String[arrayCount][];
+
+        int index;
+
+        while ((index = block.getInt()) >= 0) {
+            arrays[index] = decodeArray(block);
         }
-        // This negative index serves as an end-of-array marker
-        dataOutput.writeInt(-1);
+        return arrays;
     }
 }
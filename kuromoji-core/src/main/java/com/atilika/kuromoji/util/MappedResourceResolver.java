@@ -0,0 +1,36 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A resource resolver that can also provide resources as buffers viewing memory-mapped data in place
+ * <p>
+ * Dictionary loaders use {@link #map(String)} when available to avoid copying large resources to the heap
+ */
+public interface MappedResourceResolver extends ResourceResolver {
+    /**
+     * Resolve the resource name and return a read-only buffer with its contents.
+     *
+     * @param resourceName resource to resolve
+     * @return buffer positioned at the start of the resource, with the limit at its end
+     * @throws IOException if an I/O error occured resolving the resource
+     */
+    ByteBuffer map(String resourceName) throws IOException;
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves dictionary resources from a single packed dictionary container file
+ * <p>
+ * A container starts with a header listing the name, offset and length of each section, followed by the
+ * sections themselves, each aligned to {@link #ALIGNMENT} bytes.
+ * The file is memory-mapped when the resolver is created and resources are served as views of the mapping.
+ * Containers are written by {@link com.atilika.kuromoji.compile.DictionaryContainerCompiler}
+ */
+public class PackedResourceResolver implements MappedResourceResolver {
+
+    public static final int MAGIC = 0x4b4d4a44; // KMJD
+
+    public static final int VERSION = 1;
+
+    public static final int ALIGNMENT = 8;
+
+    private final File file;
+
+    private final Map<String, ByteBuffer> sections = new HashMap<>();
+
+    /**
+     * Opens and maps a dictionary container
+     *
+     * @param file  container file
+     * @throws IOException if the file can not be read or is not a dictionary container
+     */
+    public PackedResourceResolver(File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            readSections(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public InputStream resolve(String resourceName) throws IOException {
+        return new ByteBufferInputStream(map(resourceName));
+    }
+
+    @Override
+    public ByteBuffer map(String resourceName) throws IOException {
+        ByteBuffer section = sections.get(resourceName);
+
+        if (section == null) {
+            throw new IOException("Resource " + resourceName + " not found in dictionary container " + file);
+        }
+        return section.duplicate();
+    }
+
+    private void readSections(RandomAccessFile input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException(file + " is not a dictionary container");
+        }
+
+        int version = input.readInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported dictionary container version " + version + " in " + file);
+        }
+
+        int sectionCount = input.readInt();
+
+        String[] names = new String[sectionCount];
+        long[] offsets = new long[sectionCount];
+        long[] lengths = new long[sectionCount];
+
+        for (int i = 0; i < sectionCount; i++) {
+            names[i] = input.readUTF();
+            offsets[i] = input.readLong();
+            lengths[i] = input.readLong();
+        }
+
+        FileChannel channel = input.getChannel();
+        long fileSize = channel.size();
+
+        // Map the whole file once if possible, otherwise map sections individually
+        ByteBuffer mapping = null;
+
+        if (fileSize <= Integer.MAX_VALUE) {
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        }
+
+        for (int i = 0; i < sectionCount; i++) {
+            if (offsets[i] + lengths[i] > fileSize) {
+                throw new IOException("Section " + names[i] + " exceeds the size of dictionary container " + file);
+            }
+
+            ByteBuffer section;
+
+            if (mapping != null) {
+                section = mapping.duplicate();
+                section.position((int) offsets[i]);
+                section.limit((int) (offsets[i] + lengths[i]));
+                section = section.slice();
+            } else {
+                section = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+            }
+
+            sections.put(names[i], section.asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * Input stream reading the remaining bytes of a buffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
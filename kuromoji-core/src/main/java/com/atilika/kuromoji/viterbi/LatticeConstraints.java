@@ -0,0 +1,113 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.viterbi;
+
+import java.util.Arrays;
+
+/**
+ * Boundaries that every path of a lattice passes through and spans of text that every path covers with one node,
+ * used to leave out the nodes that contradict them while the lattice is built
+ * <p>
+ * Indices are character positions from 0 to the length of the text, both inclusive. A boundary inside a protected span
+ * is ignored, and overlapping protected spans act as one span.
+ */
+public class LatticeConstraints {
+
+    private final boolean[] boundaries;
+
+    // Whether each index is strictly inside a protected span, so no node starts or ends there
+    private final boolean[] protectedIndices;
+
+    // Largest end index of a node that starts at each index, which is the next boundary after it
+    private final int[] maxEnds;
+
+    /**
+     * Constructor
+     *
+     * @param boundaries  whether there is a boundary at each index, including both ends of the protected spans
+     * @param protectedIndices  whether each index is strictly inside a protected span, of the same length as boundaries
+     */
+    public LatticeConstraints(boolean[] boundaries, boolean[] protectedIndices) {
+        this.boundaries = boundaries;
+        this.protectedIndices = protectedIndices;
+
+        int length = boundaries.length - 1;
+        int nextBoundary = length;
+
+        maxEnds = new int[length + 1];
+        maxEnds[length] = length;
+
+        for (int index = length - 1; index >= 0; index--) {
+            if (boundaries[index + 1] && !protectedIndices[index + 1]) {
+                nextBoundary = index + 1;
+            }
+            maxEnds[index] = nextBoundary;
+        }
+    }
+
+    /**
+     * @param index  character position
+     * @return whether the index is strictly inside a protected span
+     */
+    public boolean isProtected(int index) {
+        return protectedIndices[index];
+    }
+
+    /**
+     * @param startIndex  index of the first character of a node
+     * @return the largest end index of a node that starts at startIndex
+     */
+    public int getMaxEnd(int startIndex) {
+        return maxEnds[startIndex];
+    }
+
+    /**
+     * @param startIndex  index of the first character of a node
+     * @param endIndex  index after the last character of the node
+     * @return whether a node may cover text[startIndex, endIndex)
+     */
+    public boolean allows(int startIndex, int endIndex) {
+        return endIndex <= maxEnds[startIndex] && !protectedIndices[startIndex] && !protectedIndices[endIndex];
+    }
+
+    /**
+     * Gets the end of the protected span that starts at an index, which must be covered by a single node
+     *
+     * @param startIndex  index of the first character of the span
+     * @return index after the last character of the span, or -1 if no protected span of two or more characters starts there
+     */
+    public int getProtectedSpanEnd(int startIndex) {
+        if (startIndex + 1 < protectedIndices.length && !protectedIndices[startIndex] && protectedIndices[startIndex + 1]) {
+            return maxEnds[startIndex];
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the constraints of text[start, end), with indices relative to start
+     *
+     * @param start  index of the first character, not inside a protected span
+     * @param end  index after the last character, not inside a protected span
+     * @return constraints of the slice, not null
+     */
+    public LatticeConstraints slice(int start, int end) {
+        return new LatticeConstraints(
+            Arrays.copyOfRange(boundaries, start, end + 1),
+            Arrays.copyOfRange(protectedIndices, start, end + 1)
+        );
+    }
+}
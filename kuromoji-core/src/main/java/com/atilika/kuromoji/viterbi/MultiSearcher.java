@@ -73,14 +73,20 @@ public class MultiSearcher {
     }
 
     private List<ViterbiNode> generatePath(ViterbiNode eos, SidetrackEdge sidetrackEdge) {
+        // The last sidetrack is the leftmost one, so the sidetracks are taken in the order of their parents reversed
+        LinkedList<SidetrackEdge> sidetrackEdges = new LinkedList<>();
+        while (sidetrackEdge != null) {
+            sidetrackEdges.addFirst(sidetrackEdge);
+            sidetrackEdge = sidetrackEdge.getParent();
+        }
+
         LinkedList<ViterbiNode> result = new LinkedList<>();
         ViterbiNode node = eos;
         result.add(node);
         while (node.getLeftNode() != null) {
             ViterbiNode leftNode = node.getLeftNode();
-            if (sidetrackEdge != null && sidetrackEdge.getHead() == node) {
-                leftNode = sidetrackEdge.getTail();
-                sidetrackEdge = sidetrackEdge.getParent();
+            if (!sidetrackEdges.isEmpty() && sidetrackEdges.getFirst().getHead() == node) {
+                leftNode = sidetrackEdges.removeFirst().getTail();
             }
             node = leftNode;
             result.addFirst(node);
@@ -144,7 +150,11 @@ public class MultiSearcher {
 
     private void buildSidetracksForNode(ViterbiNode[] leftNodes, ViterbiNode node) {
         int backwardConnectionId = node.getLeftId();
-        int wordCost = node.getWordCost();
+        int nodeCost = node.getWordCost(); // Including the penalty, computed once per node
+
+        if (mode == TokenizerBase.Mode.SEARCH || mode == TokenizerBase.Mode.EXTENDED) {
+            nodeCost += viterbiSearcher.getPenaltyCost(node);
+        }
 
         List<SidetrackEdge> sidetrackEdges = new ArrayList<>();
         SidetrackEdge nextOption = sidetracks.get(node.getLeftNode());
@@ -158,10 +168,7 @@ public class MultiSearcher {
                 continue;
             }
 
-            int sideTrackCost = leftNode.getPathCost() - node.getPathCost() + wordCost + costs.get(leftNode.getRightId(), backwardConnectionId);
-            if (mode == TokenizerBase.Mode.SEARCH || mode == TokenizerBase.Mode.EXTENDED) {
-                sideTrackCost += viterbiSearcher.getPenaltyCost(node);
-            }
+            int sideTrackCost = leftNode.getPathCost() - node.getPathCost() + nodeCost + costs.get(leftNode.getRightId(), backwardConnectionId);
 
             if (leftNode != node.getLeftNode()) {
                 sidetrackEdges.add(new SidetrackEdge(sideTrackCost, leftNode, node));
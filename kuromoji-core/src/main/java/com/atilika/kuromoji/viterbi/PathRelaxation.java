@@ -0,0 +1,302 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.viterbi;
+
+import com.atilika.kuromoji.dict.ConnectionCosts;
+
+import java.util.Arrays;
+
+/**
+ * Finds the best left node of the nodes that start at a lattice position
+ * <p>
+ * The left nodes are first reduced to the cheapest node of each forward class of their right ids, since nodes of
+ * the same class have the same connection costs. Each backward class of the left ids of the right nodes is then
+ * relaxed once against these, and the result is shared by all right nodes of that class.
+ * Ties are resolved in favour of the left node that comes first, as when relaxing every pair of nodes
+ * <p>
+ * With a beam, only the cheapest left nodes are kept at each position, which bounds the work per position but
+ * may miss the best path. Nodes of the same forward class count as one left node
+ * <p>
+ * An instance holds the scratch state of one search at a time and is not thread safe. It can be reused for any
+ * number of searches, since classes are marked as seen with the number of the position rather than cleared
+ */
+final class PathRelaxation {
+
+    private final ConnectionCosts costs;
+
+    private final int beamWidth;
+
+    private final int beamCostMargin;
+
+    // Number of the current position, to tell whether a class was seen at it
+    private int stamp = 0;
+
+    private final int[] forwardStamps;
+
+    private final int[] backwardStamps;
+
+    // Group of each class at the position it was last seen at
+    private final int[] forwardGroups;
+
+    private final int[] backwardGroups;
+
+    // Cheapest left node of each forward class at the current position, in order of appearance
+    private int leftCount;
+
+    private int[] leftClasses = new int[16];
+
+    private int[] leftCosts = new int[16];
+
+    private int[] leftIndices = new int[16];
+
+    private ViterbiNode[] leftNodes = new ViterbiNode[16];
+
+    // Best left node and its cost including the connection cost for each backward class at the current position
+    private int rightCount;
+
+    private int[] rightCosts = new int[16];
+
+    private ViterbiNode[] rightNodes = new ViterbiNode[16];
+
+    // Costs of the left nodes in order, to find the beam width cost
+    private int[] sortedCosts;
+
+    public PathRelaxation(ConnectionCosts costs) {
+        this(costs, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for relaxing with a beam
+     *
+     * @param costs  connection costs
+     * @param beamWidth  maximum number of left nodes kept at each position, or {@link Integer#MAX_VALUE}
+     * @param beamCostMargin  maximum path cost above the cheapest left node of left nodes kept at each position,
+     *                        or {@link Integer#MAX_VALUE}
+     */
+    public PathRelaxation(ConnectionCosts costs, int beamWidth, int beamCostMargin) {
+        this.costs = costs;
+        this.beamWidth = beamWidth;
+        this.beamCostMargin = beamCostMargin;
+        this.forwardStamps = new int[costs.getForwardClassCount()];
+        this.forwardGroups = new int[costs.getForwardClassCount()];
+        this.backwardStamps = new int[costs.getBackwardClassCount()];
+        this.backwardGroups = new int[costs.getBackwardClassCount()];
+    }
+
+    /**
+     * Starts relaxing the nodes at a new position
+     *
+     * @param endingNodes  nodes that end at the position, possibly followed by nulls
+     */
+    public void reset(ViterbiNode[] endingNodes) {
+        nextStamp();
+        leftCount = 0;
+        rightCount = 0;
+
+        for (int i = 0; i < endingNodes.length; i++) {
+            ViterbiNode node = endingNodes[i];
+
+            if (node == null) {
+                break;
+            }
+
+            int forwardClass = costs.getForwardClass(node.getRightId());
+            int pathCost = node.getPathCost();
+
+            if (forwardStamps[forwardClass] != stamp) {
+                forwardStamps[forwardClass] = stamp;
+                forwardGroups[forwardClass] = leftCount;
+                addLeftGroup(forwardClass, pathCost, i, node);
+            } else {
+                int group = forwardGroups[forwardClass];
+
+                if (pathCost < leftCosts[group]) {
+                    leftCosts[group] = pathCost;
+                    leftIndices[group] = i;
+                    leftNodes[group] = node;
+                }
+            }
+        }
+
+        if (leftCount > 1 && (leftCount > beamWidth || beamCostMargin != Integer.MAX_VALUE)) {
+            pruneLeftGroups();
+        }
+    }
+
+    /**
+     * Starts relaxing the nodes at a new position where a single node ends
+     * <p>
+     * The path cost of the node is given rather than read from it, which allows relaxing the nodes after it before
+     * its path cost is known
+     *
+     * @param endingNode  node that ends at the position
+     * @param pathCost  path cost to use for the node
+     */
+    public void reset(ViterbiNode endingNode, int pathCost) {
+        nextStamp();
+        leftCount = 0;
+        rightCount = 0;
+
+        addLeftGroup(costs.getForwardClass(endingNode.getRightId()), pathCost, 0, endingNode);
+    }
+
+    /**
+     * Gets the best left node of a node that starts at the current position
+     *
+     * @param node  node that starts at the current position
+     * @return best left node, or null if no node ends at the position
+     */
+    public ViterbiNode getBestLeftNode(ViterbiNode node) {
+        int group = getRightGroup(node);
+        return group < 0 ? null : rightNodes[group];
+    }
+
+    /**
+     * Gets the path cost up to a node that starts at the current position through its best left node, excluding the
+     * cost of the node itself
+     *
+     * @param node  node that starts at the current position
+     * @return path cost of the best left node plus the connection cost to the node
+     */
+    public int getBestConnectedCost(ViterbiNode node) {
+        int group = getRightGroup(node);
+        return group < 0 ? 0 : rightCosts[group];
+    }
+
+    private int getRightGroup(ViterbiNode node) {
+        if (leftCount == 0) {
+            return -1;
+        }
+
+        int backwardClass = costs.getBackwardClass(node.getLeftId());
+
+        if (backwardStamps[backwardClass] == stamp) {
+            return backwardGroups[backwardClass];
+        }
+
+        int bestCost = 0;
+        int bestIndex = -1;
+        ViterbiNode bestNode = null;
+
+        for (int group = 0; group < leftCount; group++) {
+            int cost = leftCosts[group] + costs.getClassCost(leftClasses[group], backwardClass);
+
+            if (bestNode == null || cost < bestCost || (cost == bestCost && leftIndices[group] < bestIndex)) {
+                bestCost = cost;
+                bestIndex = leftIndices[group];
+                bestNode = leftNodes[group];
+            }
+        }
+
+        if (rightCount == rightCosts.length) {
+            rightCosts = Arrays.copyOf(rightCosts, rightCount * 2);
+            rightNodes = Arrays.copyOf(rightNodes, rightCount * 2);
+        }
+
+        backwardStamps[backwardClass] = stamp;
+        backwardGroups[backwardClass] = rightCount;
+        rightCosts[rightCount] = bestCost;
+        rightNodes[rightCount] = bestNode;
+
+        return rightCount++;
+    }
+
+    /**
+     * Drops the nodes of the last position, so a reused instance does not keep a lattice reachable
+     */
+    public void clear() {
+        Arrays.fill(leftNodes, 0, leftCount, null);
+        Arrays.fill(rightNodes, 0, rightCount, null);
+        leftCount = 0;
+        rightCount = 0;
+    }
+
+    private void nextStamp() {
+        if (stamp == Integer.MAX_VALUE) {
+            // Stamps of earlier positions could otherwise come around again
+            Arrays.fill(forwardStamps, 0);
+            Arrays.fill(backwardStamps, 0);
+            stamp = 0;
+        }
+        stamp++;
+    }
+
+    private void pruneLeftGroups() {
+        int threshold = Integer.MAX_VALUE;
+
+        if (beamCostMargin != Integer.MAX_VALUE) {
+            int bestCost = leftCosts[0];
+
+            for (int group = 1; group < leftCount; group++) {
+                bestCost = Math.min(bestCost, leftCosts[group]);
+            }
+            threshold = (int) Math.min(Integer.MAX_VALUE, (long) bestCost + beamCostMargin);
+        }
+
+        if (leftCount > beamWidth) {
+            if (sortedCosts == null || sortedCosts.length < leftCount) {
+                sortedCosts = new int[leftClasses.length];
+            }
+
+            System.arraycopy(leftCosts, 0, sortedCosts, 0, leftCount);
+            Arrays.sort(sortedCosts, 0, leftCount);
+            threshold = Math.min(threshold, sortedCosts[beamWidth - 1]);
+        }
+
+        // Groups that cost as much as the threshold are kept in order while the beam has room
+        int below = 0;
+
+        for (int group = 0; group < leftCount; group++) {
+            if (leftCosts[group] < threshold) {
+                below++;
+            }
+        }
+
+        int atThreshold = beamWidth - below;
+        int kept = 0;
+
+        for (int group = 0; group < leftCount; group++) {
+            int cost = leftCosts[group];
+
+            if (cost < threshold || (cost == threshold && atThreshold-- > 0)) {
+                leftClasses[kept] = leftClasses[group];
+                leftCosts[kept] = cost;
+                leftIndices[kept] = leftIndices[group];
+                leftNodes[kept] = leftNodes[group];
+                kept++;
+            }
+        }
+
+        Arrays.fill(leftNodes, kept, leftCount, null);
+        leftCount = kept;
+    }
+
+    private void addLeftGroup(int forwardClass, int pathCost, int index, ViterbiNode node) {
+        if (leftCount == leftClasses.length) {
+            leftClasses = Arrays.copyOf(leftClasses, leftCount * 2);
+            leftCosts = Arrays.copyOf(leftCosts, leftCount * 2);
+            leftIndices = Arrays.copyOf(leftIndices, leftCount * 2);
+            leftNodes = Arrays.copyOf(leftNodes, leftCount * 2);
+        }
+
+        leftClasses[leftCount] = forwardClass;
+        leftCosts[leftCount] = pathCost;
+        leftIndices[leftCount] = index;
+        leftNodes[leftCount] = node;
+        leftCount++;
+    }
+}
@@ -25,6 +25,9 @@ import com.atilika.kuromoji.fst.FST;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class ViterbiBuilder {
 
@@ -71,10 +74,160 @@ public class ViterbiBuilder {
      * @return built lattice, not null
      */
     public ViterbiLattice build(String text) {
+        return build(text, 0);
+    }
+
+    /**
+     * Build lattice from input text that continues after a known token
+     *
+     * @param text  source text for the lattice
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @return built lattice, not null
+     */
+    public ViterbiLattice build(CharSequence text, int contextId) {
+        return build(text, contextId, null, null);
+    }
+
+    /**
+     * Build lattice from input text, leaving out the nodes that cross a boundary or start or end inside a protected span
+     * <p>
+     * Dictionary words are looked up no further than the next boundary, so constrained text has a smaller lattice that
+     * is also built faster. A protected span that is not a dictionary word is added as an unknown word of the category
+     * of its first character
+     *
+     * @param text  source text for the lattice
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @param constraints  constraints with indices in the text, or null if there are none
+     * @return built lattice, not null
+     */
+    public ViterbiLattice build(CharSequence text, int contextId, LatticeConstraints constraints) {
+        return build(text, contextId, constraints, null);
+    }
+
+    /**
+     * Build lattice from input text, looking up dictionary words in windows of the text in parallel
+     * <p>
+     * The lattice is the same as the lattice built by {@link #build(CharSequence, int)}
+     *
+     * @param text  source text for the lattice
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @param executor  executor to look up dictionary words with
+     * @param windowLength  number of characters looked up by each task, at least 1
+     * @return built lattice, not null
+     */
+    public ViterbiLattice build(CharSequence text, int contextId, ExecutorService executor, int windowLength) {
+        return build(text, contextId, null, executor, windowLength);
+    }
+
+    /**
+     * Build lattice from input text like {@link #build(CharSequence, int, LatticeConstraints)}, looking up dictionary
+     * words in windows of the text in parallel
+     * <p>
+     * If a lookup fails or the calling thread is interrupted, the remaining lookups are cancelled, and an interrupt
+     * is reported by restoring the thread's interrupt status
+     *
+     * @param text  source text for the lattice
+     * @param contextId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     * @param constraints  constraints with indices in the text, or null if there are none
+     * @param executor  executor to look up dictionary words with
+     * @param windowLength  number of characters looked up by each task, at least 1
+     * @return built lattice, not null
+     */
+    public ViterbiLattice build(final CharSequence text, int contextId, final LatticeConstraints constraints,
+                                ExecutorService executor, int windowLength) {
+        final int textLength = text.length();
+        final ViterbiNode[][] knownNodes = new ViterbiNode[textLength][];
+        List<Future<?>> lookups = new ArrayList<>();
+        boolean lookedUp = false;
+
+        try {
+            for (int windowStart = 0; windowStart < textLength; windowStart += windowLength) {
+                final int start = windowStart;
+                final int end = Math.min(textLength, windowStart + windowLength);
+
+                lookups.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<ViterbiNode> nodes = new ArrayList<>();
+
+                        for (int startIndex = start; startIndex < end; startIndex++) {
+                            if (processIndex(null, nodes, startIndex, text, constraints)) {
+                                knownNodes[startIndex] = nodes.toArray(new ViterbiNode[nodes.size()]);
+                            }
+                            nodes.clear();
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> lookup : lookups) {
+                lookup.get();
+            }
+            lookedUp = true;
+        } catch (InterruptedException ouch) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while looking up dictionary words", ouch);
+        } catch (ExecutionException ouch) {
+            throw new RuntimeException("Could not look up dictionary words", ouch.getCause());
+        } finally {
+            if (!lookedUp) {
+                // Stop the remaining lookups, which may be running on a caller's executor
+                for (Future<?> lookup : lookups) {
+                    lookup.cancel(true);
+                }
+            }
+        }
+
+        return build(text, contextId, constraints, knownNodes);
+    }
+
+    /**
+     * Finds the first index of the text where a word may start that continues past the end of the text
+     * <p>
+     * The nodes that start before this index are the same in the lattice of any longer text that starts with this
+     * text, so the best path up to a node that all paths before this index pass through does not depend on the text
+     * that follows
+     *
+     * @param text  source text of the lattice
+     * @param lattice  lattice built from the text without constraints
+     * @return index of the first character of a word that may continue past the end, or the length of the text
+     */
+    public int findOpenIndex(CharSequence text, ViterbiLattice lattice) {
+        int textLength = text.length();
+        int openIndex = textLength;
+
+        // Unknown words that reach the end may group more characters of the same category
+        ViterbiNode[] endNodes = lattice.getEndIndexArr()[textLength + 1];
+
+        for (int i = 0; i < lattice.getEndSizeArr()[textLength + 1]; i++) {
+            if (endNodes[i].getType() == ViterbiNode.Type.UNKNOWN) {
+                openIndex = Math.min(openIndex, endNodes[i].getStartIndex());
+            }
+        }
+
+        for (int startIndex = 0; startIndex < openIndex; startIndex++) {
+            if (fst.lookup(text, startIndex, textLength - startIndex) >= 0 ||
+                useUserDictionary && userDictionary.continuesPastEnd(text, startIndex)) {
+                return startIndex;
+            }
+        }
+        return openIndex;
+    }
+
+    /**
+     * Build lattice from input text
+     *
+     * @param text  source text for the lattice
+     * @param contextId  right connection id of the token before the text
+     * @param constraints  constraints with indices in the text, or null if there are none
+     * @param knownNodes  dictionary words at each index of the text, null if there are none, or null to look them up
+     * @return built lattice, not null
+     */
+    private ViterbiLattice build(CharSequence text, int contextId, LatticeConstraints constraints, ViterbiNode[][] knownNodes) {
         int textLength = text.length();
         ViterbiLattice lattice = new ViterbiLattice(textLength + 2);
 
-        lattice.addBos();
+        lattice.addBos(contextId);
 
         int unknownWordEndIndex = -1; // index of the last character of unknown word
 
@@ -82,24 +235,37 @@ public class ViterbiBuilder {
             // If no token ends where current token starts, skip this index
             if (lattice.tokenEndsWhereCurrentTokenStarts(startIndex)) {
 
-                String suffix = text.substring(startIndex);
-                boolean found = processIndex(lattice, startIndex, suffix);
+                boolean found;
+
+                if (knownNodes == null) {
+                    found = processIndex(lattice, null, startIndex, text, constraints);
+                } else {
+                    found = addKnownNodes(lattice, knownNodes[startIndex], startIndex);
+                }
 
                 // In the case of normal mode, it doesn't process unknown word greedily.
                 if (searchMode || unknownWordEndIndex <= startIndex) {
 
-                    int[] categories = characterDefinitions.lookupCategories(suffix.charAt(0));
+                    int[] categories = characterDefinitions.lookupCategories(text.charAt(startIndex));
 
                     for (int i = 0; i < categories.length; i++) {
                         int category = categories[i];
-                        unknownWordEndIndex = processUnknownWord(category, i, lattice, unknownWordEndIndex, startIndex, suffix, found);
+                        unknownWordEndIndex = processUnknownWord(category, i, lattice, unknownWordEndIndex, startIndex, text, found, constraints);
+                    }
+                }
+
+                if (constraints != null) {
+                    int protectedSpanEnd = constraints.getProtectedSpanEnd(startIndex);
+
+                    if (protectedSpanEnd > 0 && !markProtectedSpan(lattice, startIndex, protectedSpanEnd)) {
+                        addProtectedSpan(lattice, startIndex, protectedSpanEnd, text);
                     }
                 }
             }
         }
 
         if (useUserDictionary) {
-            processUserDictionary(text, lattice);
+            processUserDictionary(text, lattice, constraints);
         }
 
         lattice.addEos();
@@ -107,17 +273,47 @@ public class ViterbiBuilder {
         return lattice;
     }
 
-    private boolean processIndex(ViterbiLattice lattice, int startIndex, String suffix) {
+    /**
+     * Looks up the dictionary words that start at an index
+     *
+     * @param lattice  lattice to add the words to, or null to add them to nodes
+     * @param nodes  list to add the words to if lattice is null
+     * @param startIndex  index of the first character of the words
+     * @param text  source text for the lattice
+     * @param constraints  constraints the words must satisfy, or null if there are none
+     * @return whether any word was found
+     */
+    private boolean processIndex(ViterbiLattice lattice, List<ViterbiNode> nodes, int startIndex, CharSequence text, LatticeConstraints constraints) {
         boolean found = false;
-        for (int endIndex = 1; endIndex < suffix.length() + 1; endIndex++) {
-            String prefix = suffix.substring(0, endIndex);
-            int result = fst.lookup(prefix);
+        int maxLength = text.length() - startIndex;
+
+        if (constraints != null) {
+            if (constraints.isProtected(startIndex)) {
+                return false;
+            }
+            maxLength = constraints.getMaxEnd(startIndex) - startIndex;
+        }
+
+        for (int endIndex = 1; endIndex < maxLength + 1; endIndex++) {
+            int result = fst.lookup(text, startIndex, endIndex);
 
             if (result > 0) {
+                if (constraints != null && !constraints.allows(startIndex, startIndex + endIndex)) {
+                    continue; // Ends inside a protected span
+                }
+
                 found = true; // Don't produce unknown word starting from this index
-                for (int wordId : dictionary.lookupWordIds(result)) {
-                    ViterbiNode node = new ViterbiNode(wordId, prefix, dictionary, startIndex, ViterbiNode.Type.KNOWN);
-                    lattice.addNode(node, startIndex + 1, startIndex + 1 + endIndex);
+                int wordIdCount = dictionary.lookupWordIdCount(result);
+
+                for (int i = 0; i < wordIdCount; i++) {
+                    int wordId = dictionary.lookupWordId(result, i);
+                    ViterbiNode node = new ViterbiNode(wordId, text, startIndex, endIndex, dictionary, ViterbiNode.Type.KNOWN);
+
+                    if (lattice == null) {
+                        nodes.add(node);
+                    } else {
+                        lattice.addNode(node, startIndex + 1, startIndex + 1 + endIndex);
+                    }
                 }
             } else if (result < 0) { // If result is less than zero, continue to next position
                 break;
@@ -126,17 +322,29 @@ public class ViterbiBuilder {
         return found;
     }
 
-    private int processUnknownWord(int category, int i, ViterbiLattice lattice, int unknownWordEndIndex, int startIndex, String suffix, boolean found) {
+    private boolean addKnownNodes(ViterbiLattice lattice, ViterbiNode[] nodes, int startIndex) {
+        if (nodes == null) {
+            return false;
+        }
+
+        for (ViterbiNode node : nodes) {
+            lattice.addNode(node, startIndex + 1, startIndex + 1 + node.getLength());
+        }
+        return true;
+    }
+
+    private int processUnknownWord(int category, int i, ViterbiLattice lattice, int unknownWordEndIndex, int startIndex, CharSequence text, boolean found, LatticeConstraints constraints) {
         int unknownWordLength = 0;
         int[] definition = characterDefinitions.lookupDefinition(category);
+        int maxEnd = constraints == null ? text.length() : constraints.getMaxEnd(startIndex);
 
         if (definition[CharacterDefinitions.INVOKE] == 1 || found == false) {
             if (definition[CharacterDefinitions.GROUP] == 0) {
                 unknownWordLength = 1;
             } else {
                 unknownWordLength = 1;
-                for (int j = 1; j < suffix.length(); j++) {
-                    char c = suffix.charAt(j);
+                for (int j = startIndex + 1; j < maxEnd; j++) {
+                    char c = text.charAt(j);
 
                     int[] categories = characterDefinitions.lookupCategories(c);
 
@@ -151,14 +359,17 @@ public class ViterbiBuilder {
                     }
                 }
             }
+
+            if (constraints != null && !constraints.allows(startIndex, startIndex + unknownWordLength)) {
+                unknownWordLength = 0; // Starts a protected span, which is added as a whole
+            }
         }
 
         if (unknownWordLength > 0) {
-            String unkWord = suffix.substring(0, unknownWordLength);
             int[] wordIds = unknownDictionary.lookupWordIds(category); // characters in input text are supposed to be the same
 
             for (int wordId : wordIds) {
-                ViterbiNode node = new ViterbiNode(wordId, unkWord, unknownDictionary, startIndex, ViterbiNode.Type.UNKNOWN);
+                ViterbiNode node = new ViterbiNode(wordId, text, startIndex, unknownWordLength, unknownDictionary, ViterbiNode.Type.UNKNOWN);
                 lattice.addNode(node, startIndex + 1, startIndex + 1 + unknownWordLength);
             }
             unknownWordEndIndex = startIndex + unknownWordLength;
@@ -167,13 +378,58 @@ public class ViterbiBuilder {
         return unknownWordEndIndex;
     }
 
+    /**
+     * Marks the nodes that cover a protected span exactly, so that unknown words are not split into unigrams
+     *
+     * @param lattice  lattice with the nodes that start at startIndex
+     * @param startIndex  index of the first character of the span
+     * @param endIndex  index after the last character of the span
+     * @return whether any node covers the span
+     */
+    private boolean markProtectedSpan(ViterbiLattice lattice, int startIndex, int endIndex) {
+        ViterbiNode[] nodes = lattice.getStartIndexArr()[startIndex + 1];
+        boolean found = false;
+
+        if (nodes != null) {
+            for (ViterbiNode node : nodes) {
+                if (node == null) {
+                    break;
+                }
+                if (node.getLength() == endIndex - startIndex) {
+                    node.setProtectedSpan(true);
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds a protected span that is not a dictionary word as an unknown word of the category of its first character
+     *
+     * @param lattice  lattice to add the span to
+     * @param startIndex  index of the first character of the span
+     * @param endIndex  index after the last character of the span
+     * @param text  source text for the lattice
+     */
+    private void addProtectedSpan(ViterbiLattice lattice, int startIndex, int endIndex, CharSequence text) {
+        int category = characterDefinitions.lookupCategories(text.charAt(startIndex))[0];
+
+        for (int wordId : unknownDictionary.lookupWordIds(category)) {
+            ViterbiNode node = new ViterbiNode(wordId, text, startIndex, endIndex - startIndex, unknownDictionary, ViterbiNode.Type.UNKNOWN);
+            node.setProtectedSpan(true);
+            lattice.addNode(node, startIndex + 1, endIndex + 1);
+        }
+    }
+
     /**
      * Find token(s) in input text and set found token(s) in arrays as normal tokens
      *
      * @param text
      * @param lattice
+     * @param constraints  constraints the matches must satisfy, or null if there are none
      */
-    private void processUserDictionary(final String text, ViterbiLattice lattice) {
+    private void processUserDictionary(final CharSequence text, ViterbiLattice lattice, LatticeConstraints constraints) {
         List<UserDictionary.UserDictionaryMatch> matches = userDictionary.findUserDictionaryMatches(text);
 
         for (UserDictionary.UserDictionaryMatch match : matches) {
@@ -181,9 +437,11 @@ public class ViterbiBuilder {
             int index = match.getMatchStartIndex();
             int length = match.getMatchLength();
 
-            String word = text.substring(index, index + length);
+            if (constraints != null && !constraints.allows(index, index + length)) {
+                continue;
+            }
 
-            ViterbiNode node = new ViterbiNode(wordId, word, userDictionary, index, ViterbiNode.Type.USER);
+            ViterbiNode node = new ViterbiNode(wordId, text, index, length, userDictionary, ViterbiNode.Type.USER);
             int nodeStartIndex = index + 1;
             int nodeEndIndex = nodeStartIndex + length;
 
@@ -244,7 +502,7 @@ public class ViterbiBuilder {
                     int length = index + 1 - startIndex;
                     String surface = glueBase.getSurface().substring(0, length);
                     ViterbiNode glueNode = makeGlueNode(startIndex, glueBase, surface);
-                    lattice.addNode(glueNode, startIndex, startIndex + glueNode.getSurface().length());
+                    lattice.addNode(glueNode, startIndex, startIndex + glueNode.getLength());
                     return;
                 }
             }
@@ -268,7 +526,7 @@ public class ViterbiBuilder {
                     String glueBaseSurface = glueBase.getSurface();
                     String surface = glueBaseSurface.substring(glueBaseSurface.length() - delta);
                     ViterbiNode glueNode = makeGlueNode(nodeEndIndex, glueBase, surface);
-                    lattice.addNode(glueNode, nodeEndIndex, nodeEndIndex + glueNode.getSurface().length());
+                    lattice.addNode(glueNode, nodeEndIndex, nodeEndIndex + glueNode.getLength());
                     return;
                 }
             }
@@ -317,8 +575,8 @@ public class ViterbiBuilder {
      * @return whether candidate is acceptable
      */
     private boolean isAcceptableCandidate(int targetLength, ViterbiNode glueBase, ViterbiNode candidate) {
-        return (glueBase == null || candidate.getSurface().length() < glueBase.getSurface().length()) &&
-            candidate.getSurface().length() >= targetLength;
+        return (glueBase == null || candidate.getLength() < glueBase.getLength()) &&
+            candidate.getLength() >= targetLength;
     }
 
     /**
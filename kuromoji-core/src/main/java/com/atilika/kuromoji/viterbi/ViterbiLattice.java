@@ -52,7 +52,16 @@ public class ViterbiLattice {
     }
 
     public void addBos() {
-        ViterbiNode bosNode = new ViterbiNode(-1, BOS, 0, 0, 0, -1, ViterbiNode.Type.KNOWN);
+        addBos(0);
+    }
+
+    /**
+     * Adds the beginning of the text
+     *
+     * @param rightId  right connection id of the token before the text, or 0 at the beginning of a sentence
+     */
+    public void addBos(int rightId) {
+        ViterbiNode bosNode = new ViterbiNode(-1, BOS, 0, rightId, 0, -1, ViterbiNode.Type.KNOWN);
         addNode(bosNode, 0, 1);
     }
 
@@ -0,0 +1,89 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.viterbi;
+
+import java.util.List;
+
+/**
+ * The best path of a lattice with the cost margins and marginal probabilities of its nodes and of the boundaries
+ * between characters
+ * <p>
+ * The cost margin of a node is how much more the best path without the node costs than the best path, and the cost
+ * margin of a boundary is how much more the best path that disagrees with the best path on whether there is a node
+ * boundary there costs. The probabilities weigh every path by exp(-cost / temperature).
+ */
+public class ViterbiMarginals {
+
+    /**
+     * Cost margin when there is no other path
+     */
+    public static final int NO_ALTERNATIVE = Integer.MAX_VALUE;
+
+    private final List<ViterbiNode> bestPath;
+    private final int[] nodeMargins;
+    private final double[] nodeProbabilities;
+    private final int[] boundaryMargins;
+    private final double[] boundaryProbabilities;
+
+    public ViterbiMarginals(List<ViterbiNode> bestPath, int[] nodeMargins, double[] nodeProbabilities,
+                            int[] boundaryMargins, double[] boundaryProbabilities) {
+        this.bestPath = bestPath;
+        this.nodeMargins = nodeMargins;
+        this.nodeProbabilities = nodeProbabilities;
+        this.boundaryMargins = boundaryMargins;
+        this.boundaryProbabilities = boundaryProbabilities;
+    }
+
+    /**
+     * @return the nodes of the best path, excluding BOS and EOS
+     */
+    public List<ViterbiNode> getBestPath() {
+        return bestPath;
+    }
+
+    /**
+     * @param index  index of the node in the best path
+     * @return the cost margin of the node, or NO_ALTERNATIVE
+     */
+    public int getNodeMargin(int index) {
+        return nodeMargins[index];
+    }
+
+    /**
+     * @param index  index of the node in the best path
+     * @return the probability that a path contains the node
+     */
+    public double getNodeProbability(int index) {
+        return nodeProbabilities[index];
+    }
+
+    /**
+     * @param position  character position from 0 to the length of the text, both inclusive
+     * @return the cost margin of the boundary at the position, or NO_ALTERNATIVE
+     */
+    public int getBoundaryMargin(int position) {
+        return boundaryMargins[position];
+    }
+
+    /**
+     * @param position  character position from 0 to the length of the text, both inclusive
+     * @return the probability that a path has a node boundary at the position
+     */
+    public double getBoundaryProbability(int position) {
+        return boundaryProbabilities[position];
+    }
+}
@@ -28,7 +28,9 @@ public class ViterbiNode {
     }
 
     private final int wordId;
-    private final String surface;
+    private String surface;
+    private final CharSequence text;
+    private final int length;
     private final int leftId;
     private final int rightId;
 
@@ -41,6 +43,21 @@ public class ViterbiNode {
      * minimum path cost found thus far
      */
     private int pathCost;
+
+    /**
+     * minimum cost from this node to EOS, excluding the word cost of this node
+     */
+    private int backwardCost;
+
+    /**
+     * log-sum-exp score of the paths from BOS to this node, or from this node to EOS once searched backwards
+     */
+    private double logScore;
+
+    /**
+     * whether this node covers a protected span, which is never split
+     */
+    private boolean protectedSpan;
     private ViterbiNode leftNode;
     private final Type type;
     private final int startIndex;
@@ -49,6 +66,8 @@ public class ViterbiNode {
     public ViterbiNode(int wordId, String surface, int leftId, int rightId, int wordCost, int startIndex, Type type) {
         this.wordId = wordId;
         this.surface = surface;
+        this.text = null;
+        this.length = surface.length();
         this.leftId = leftId;
         this.rightId = rightId;
         this.wordCost = wordCost;
@@ -60,6 +79,30 @@ public class ViterbiNode {
         this(wordId, word, dictionary.getLeftId(wordId), dictionary.getRightId(wordId), dictionary.getWordCost(wordId), startIndex, type);
     }
 
+    /**
+     * Constructor for a node whose surface is text[startIndex, startIndex + length). The surface string is only
+     * created if it is asked for, so the text must not change until the lattice has been searched and its path
+     * surfaces have been taken
+     *
+     * @param wordId  word id
+     * @param text  text the lattice is built from
+     * @param startIndex  index of the first surface character in text
+     * @param length  number of surface characters
+     * @param dictionary  dictionary with the word
+     * @param type  node type
+     */
+    public ViterbiNode(int wordId, CharSequence text, int startIndex, int length, Dictionary dictionary, Type type) {
+        this.wordId = wordId;
+        this.surface = null;
+        this.text = text;
+        this.length = length;
+        this.leftId = dictionary.getLeftId(wordId);
+        this.rightId = dictionary.getRightId(wordId);
+        this.wordCost = dictionary.getWordCost(wordId);
+        this.startIndex = startIndex;
+        this.type = type;
+    }
+
     /**
      * @return the wordId
      */
@@ -71,9 +114,19 @@ public class ViterbiNode {
      * @return the surface
      */
     public String getSurface() {
+        if (surface == null) {
+            surface = text.subSequence(startIndex, startIndex + length).toString();
+        }
         return surface;
     }
 
+    /**
+     * @return the number of characters in the surface
+     */
+    public int getLength() {
+        return length;
+    }
+
     /**
      * @return the leftId
      */
@@ -111,6 +164,48 @@ public class ViterbiNode {
         this.pathCost = pathCost;
     }
 
+    /**
+     * @return the backward cost
+     */
+    public int getBackwardCost() {
+        return backwardCost;
+    }
+
+    /**
+     * @param backwardCost  minimum cost from this node to EOS to set for this node
+     */
+    public void setBackwardCost(int backwardCost) {
+        this.backwardCost = backwardCost;
+    }
+
+    /**
+     * @return the log-sum-exp score
+     */
+    public double getLogScore() {
+        return logScore;
+    }
+
+    /**
+     * @param logScore  log-sum-exp score to set for this node
+     */
+    public void setLogScore(double logScore) {
+        this.logScore = logScore;
+    }
+
+    /**
+     * @return whether this node covers a protected span
+     */
+    public boolean isProtectedSpan() {
+        return protectedSpan;
+    }
+
+    /**
+     * @param protectedSpan  whether this node covers a protected span
+     */
+    public void setProtectedSpan(boolean protectedSpan) {
+        this.protectedSpan = protectedSpan;
+    }
+
     public void setLeftNode(ViterbiNode node) {
         leftNode = node;
     }
@@ -20,8 +20,15 @@ import com.atilika.kuromoji.TokenizerBase;
 import com.atilika.kuromoji.dict.ConnectionCosts;
 import com.atilika.kuromoji.dict.UnknownDictionary;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class ViterbiSearcher {
 
@@ -37,12 +44,52 @@ public class ViterbiSearcher {
 
     private final TokenizerBase.Mode mode;
 
+    private final int beamWidth;
+
+    private final int beamCostMargin;
+
     private MultiSearcher multiSearcher;
 
+    // Scratch state of the path cost calculation, reused by the searches of each thread
+    private final ThreadLocal<PathRelaxation> relaxations = new ThreadLocal<PathRelaxation>() {
+        @Override
+        protected PathRelaxation initialValue() {
+            return new PathRelaxation(costs, beamWidth, beamCostMargin);
+        }
+    };
+
+    private final ThreadLocal<PathRelaxation> exactRelaxations = new ThreadLocal<PathRelaxation>() {
+        @Override
+        protected PathRelaxation initialValue() {
+            return beamWidth == Integer.MAX_VALUE && beamCostMargin == Integer.MAX_VALUE ?
+                relaxations.get() : new PathRelaxation(costs);
+        }
+    };
+
     public ViterbiSearcher(TokenizerBase.Mode mode,
                            ConnectionCosts costs,
                            UnknownDictionary unknownDictionary,
                            List<Integer> penalties) {
+        this(mode, costs, unknownDictionary, penalties, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for a searcher that finds the best path with a beam search
+     *
+     * @param mode  tokenization mode
+     * @param costs  connection costs
+     * @param unknownDictionary  unknown word dictionary
+     * @param penalties  search mode penalties
+     * @param beamWidth  maximum number of left nodes kept at each position, or {@link Integer#MAX_VALUE}
+     * @param beamCostMargin  maximum path cost above the cheapest left node of left nodes kept at each position,
+     *                        or {@link Integer#MAX_VALUE}
+     */
+    public ViterbiSearcher(TokenizerBase.Mode mode,
+                           ConnectionCosts costs,
+                           UnknownDictionary unknownDictionary,
+                           List<Integer> penalties,
+                           int beamWidth,
+                           int beamCostMargin) {
         if (!penalties.isEmpty()) {
             this.kanjiPenaltyLengthThreshold = penalties.get(0);
             this.kanjiPenalty = penalties.get(1);
@@ -51,6 +98,8 @@ public class ViterbiSearcher {
         }
 
         this.mode = mode;
+        this.beamWidth = beamWidth;
+        this.beamCostMargin = beamCostMargin;
         this.costs = costs;
         this.unknownDictionary = unknownDictionary;
         multiSearcher = new MultiSearcher(costs, mode, this);
@@ -58,19 +107,191 @@ public class ViterbiSearcher {
 
     /**
      * Find best path from input lattice.
+     * <p>
+     * If the searcher has a beam, the path is the best path found within the beam
      *
      * @param lattice the result of build method
      * @return List of ViterbiNode which consist best path
      */
     public List<ViterbiNode> search(ViterbiLattice lattice) {
 
-        ViterbiNode[][] endIndexArr = calculatePathCosts(lattice);
+        ViterbiNode[][] endIndexArr = calculatePathCosts(lattice, relaxations.get());
         LinkedList<ViterbiNode> result = backtrackBestPath(endIndexArr[0][0]);
         return result;
     }
 
+    /**
+     * Find best path from input lattice, searching segments of the lattice in parallel
+     * <p>
+     * The lattice is cut where every path passes through the same node, so the segments can be searched without
+     * knowing the path cost up to that node, which is added afterwards. The path is the same as the path found by
+     * {@link #search(ViterbiLattice)}, which is used if the lattice can not be cut.
+     * If a segment fails or the calling thread is interrupted, the remaining segments are cancelled, and an interrupt
+     * is reported by restoring the thread's interrupt status
+     *
+     * @param lattice  the result of build method
+     * @param executor  executor to search segments with
+     * @param minSegmentLength  minimum number of characters in a segment, at least 1
+     * @return List of ViterbiNode which consist best path
+     */
+    public List<ViterbiNode> search(ViterbiLattice lattice, ExecutorService executor, int minSegmentLength) {
+        List<Integer> cuts = findCuts(lattice, minSegmentLength);
+
+        if (cuts.isEmpty()) {
+            return search(lattice);
+        }
+
+        final ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        final ViterbiNode[][] endIndexArr = lattice.getEndIndexArr();
+
+        cuts.add(0, 1);
+        cuts.add(startIndexArr.length);
+
+        List<Future<?>> segments = new ArrayList<>();
+        boolean searched = false;
+
+        try {
+            for (int segment = 0; segment < cuts.size() - 1; segment++) {
+                final int start = cuts.get(segment);
+                final int end = cuts.get(segment + 1);
+
+                segments.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        PathRelaxation relaxation = relaxations.get();
+
+                        for (int i = start; i < end; i++) {
+                            if (startIndexArr[i] == null || endIndexArr[i] == null) {
+                                continue;
+                            }
+
+                            if (i == start && start > 1) {
+                                // Path costs in the segment are relative to the path cost of the node at the cut
+                                relaxation.reset(endIndexArr[i][0], 0);
+                            } else {
+                                relaxation.reset(endIndexArr[i]);
+                            }
+
+                            for (ViterbiNode node : startIndexArr[i]) {
+                                if (node == null) {
+                                    break;
+                                }
+
+                                updateNode(relaxation, node);
+                            }
+                        }
+                        relaxation.clear();
+                    }
+                }));
+            }
+
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+            searched = true;
+        } catch (InterruptedException ouch) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while searching the lattice", ouch);
+        } catch (ExecutionException ouch) {
+            throw new RuntimeException("Could not search the lattice", ouch.getCause());
+        } finally {
+            if (!searched) {
+                // Stop the remaining segments, which may be running on a caller's executor
+                for (Future<?> segment : segments) {
+                    segment.cancel(true);
+                }
+            }
+        }
+
+        // Add the path cost up to each cut to the nodes after it
+        for (int segment = 1; segment < cuts.size() - 1; segment++) {
+            int pathCost = endIndexArr[cuts.get(segment)][0].getPathCost();
+
+            for (int i = cuts.get(segment); i < cuts.get(segment + 1); i++) {
+                if (startIndexArr[i] == null) {
+                    continue;
+                }
+
+                for (ViterbiNode node : startIndexArr[i]) {
+                    if (node == null) {
+                        break;
+                    }
+                    node.setPathCost(node.getPathCost() + pathCost);
+                }
+            }
+        }
+
+        return backtrackBestPath(endIndexArr[0][0]);
+    }
+
+    /**
+     * Finds the last node in a lattice that ends where no other node ends or crosses, so all paths pass through it
+     * and the best path up to it is known without searching the rest of the lattice
+     *
+     * @param lattice  lattice to find the node in
+     * @param maxEnd  maximum end of the node in the text
+     * @return last node all paths pass through, or null if there is none
+     */
+    public ViterbiNode findLastCut(ViterbiLattice lattice, int maxEnd) {
+        List<Integer> cuts = findCuts(lattice, 1);
+
+        for (int i = cuts.size() - 1; i >= 0; i--) {
+            int cut = cuts.get(i);
+
+            // Lattice positions are one after text positions because of the BOS node
+            if (cut - 1 <= maxEnd) {
+                return lattice.getEndIndexArr()[cut][0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the positions in a lattice where a single node ends and no node crosses, so all paths pass through that
+     * node. Positions are at least minSegmentLength apart. No positions are found if some node has no left node, since
+     * its path cost does not depend on the nodes before it
+     *
+     * @param lattice  lattice to find positions in
+     * @param minSegmentLength  minimum distance between positions
+     * @return list of positions in the lattice, not null
+     */
+    private List<Integer> findCuts(ViterbiLattice lattice, int minSegmentLength) {
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        int[] endSizeArr = lattice.getEndSizeArr();
+        List<Integer> cuts = new ArrayList<>();
+
+        int maxEnd = 1; // End of the BOS node
+        int lastCut = 1;
+
+        for (int i = 1; i < startIndexArr.length; i++) {
+            if (startIndexArr[i] == null) {
+                continue;
+            }
+
+            if (endSizeArr[i] == 0) {
+                return new ArrayList<>();
+            }
+
+            if (maxEnd <= i && endSizeArr[i] == 1 && i - lastCut >= minSegmentLength &&
+                startIndexArr.length - 1 - i >= minSegmentLength) {
+                cuts.add(i);
+                lastCut = i;
+            }
+
+            for (ViterbiNode node : startIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+                maxEnd = Math.max(maxEnd, i + node.getLength());
+            }
+        }
+        return cuts;
+    }
+
     /**
      * Find the best paths with cost at most OPT + costSlack, where OPT is the optimal solution. At most maxCount paths will be returned. The paths are ordered by cost in ascending order.
+     * <p>
+     * The paths are always found by an exact search, since their costs are relative to the optimal path costs
      *
      * @param lattice  the result of a build method
      * @param maxCount  the maximum number of paths to find
@@ -78,12 +299,335 @@ public class ViterbiSearcher {
      * @return  MultiSearchResult containing the shortest paths and their costs
      */
     public MultiSearchResult searchMultiple(ViterbiLattice lattice, int maxCount, int costSlack) {
-        calculatePathCosts(lattice);
+        calculatePathCosts(lattice, exactRelaxations.get());
         MultiSearchResult result = multiSearcher.getShortestPaths(lattice, maxCount, costSlack);
         return result;
     }
 
-    private ViterbiNode[][] calculatePathCosts(ViterbiLattice lattice) {
+    /**
+     * Get the best path of a lattice that has already been searched by {@link #searchMultiple(ViterbiLattice, int, int)}
+     * <p>
+     * The path costs are not calculated again, so the best path and the shortest paths share a single pass over the
+     * lattice. The path is the same as the path found by {@link #search(ViterbiLattice)} without a beam
+     *
+     * @param lattice  the lattice searched by searchMultiple
+     * @return best path
+     */
+    public List<ViterbiNode> getBestPath(ViterbiLattice lattice) {
+        return backtrackBestPath(lattice.getEndIndexArr()[0][0]);
+    }
+
+    /**
+     * Find the nodes of input lattice on paths with cost at most OPT + costSlack, where OPT is the optimal solution.
+     * <p>
+     * The path cost of a node is the cost of the best path from BOS up to and including the node, and its backward
+     * cost is the cost of the best path from the node to EOS, so the best path through the node costs OPT plus the
+     * cost margin path cost + backward cost - OPT. Every found node is on a path of found nodes from BOS to EOS.
+     * The costs are found by an exact search and a single backward pass
+     *
+     * @param lattice  the result of a build method
+     * @param costSlack  the maximum cost margin of a node
+     * @return nodes ordered by start index, excluding BOS and EOS
+     */
+    public List<ViterbiNode> searchLattice(ViterbiLattice lattice, int costSlack) {
+        calculatePathCosts(lattice, exactRelaxations.get());
+        calculateBackwardCosts(lattice);
+
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        int bestCost = lattice.getEndIndexArr()[0][0].getPathCost();
+        List<ViterbiNode> result = new ArrayList<>();
+
+        for (int i = 1; i < startIndexArr.length - 1; i++) {
+            if (startIndexArr[i] == null) {
+                continue;
+            }
+
+            for (ViterbiNode node : startIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+
+                if (getMargin(node, bestCost) <= costSlack) {
+                    result.add(node);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the best path of input lattice with the cost margins and marginal probabilities of its nodes and of the
+     * boundaries between characters
+     * <p>
+     * The margins follow from the exact path costs and a single backward pass, and the probabilities from a forward
+     * and a backward log-sum-exp pass, so no paths are enumerated and the time is linear in the number of lattice
+     * edges. Unknown words are not split into unigrams in extended mode
+     *
+     * @param lattice  the result of a build method
+     * @param temperature  cost scale of the probabilities, where a higher temperature gives a flatter distribution
+     * @return best path with its margins and probabilities
+     */
+    public ViterbiMarginals searchMarginals(ViterbiLattice lattice, double temperature) {
+        calculatePathCosts(lattice, exactRelaxations.get());
+        calculateBackwardCosts(lattice);
+
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        ViterbiNode eos = lattice.getEndIndexArr()[0][0];
+        int length = startIndexArr.length - 2;
+        int bestCost = eos.getPathCost();
+
+        LinkedList<ViterbiNode> bestPath = new LinkedList<>();
+
+        for (ViterbiNode node = eos.getLeftNode(); node.getLeftNode() != null; node = node.getLeftNode()) {
+            bestPath.addFirst(node);
+        }
+
+        // Margins of the best paths with and without a node boundary at each position
+        long[] boundaryMargins = new long[length + 1];
+        long[] crossingMargins = new long[length + 1];
+        Arrays.fill(boundaryMargins, Long.MAX_VALUE);
+        Arrays.fill(crossingMargins, Long.MAX_VALUE);
+        boundaryMargins[0] = 0;
+
+        for (int i = 1; i < startIndexArr.length - 1; i++) {
+            if (startIndexArr[i] == null) {
+                continue;
+            }
+
+            for (ViterbiNode node : startIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+
+                long margin = getMargin(node, bestCost);
+                int start = node.getStartIndex();
+                int end = start + node.getLength();
+
+                boundaryMargins[end] = Math.min(boundaryMargins[end], margin);
+
+                for (int position = start + 1; position < end; position++) {
+                    crossingMargins[position] = Math.min(crossingMargins[position], margin);
+                }
+            }
+        }
+
+        int[] nodeMargins = new int[bestPath.size()];
+        Map<ViterbiNode, Integer> pathIndices = new IdentityHashMap<>();
+        boolean[] pathBoundaries = new boolean[length + 1];
+        pathBoundaries[0] = true;
+
+        for (ViterbiNode node : bestPath) {
+            int start = node.getStartIndex();
+            int end = start + node.getLength();
+
+            // A path without the node crosses its start or end, has a boundary inside it or has another node in its place
+            long margin = Math.min(crossingMargins[start], crossingMargins[end]);
+
+            for (int position = start + 1; position < end; position++) {
+                margin = Math.min(margin, boundaryMargins[position]);
+            }
+
+            for (ViterbiNode other : startIndexArr[start + 1]) {
+                if (other == null) {
+                    break;
+                }
+
+                if (other != node && other.getLength() == node.getLength()) {
+                    margin = Math.min(margin, getMargin(other, bestCost));
+                }
+            }
+
+            nodeMargins[pathIndices.size()] = toMargin(margin);
+            pathIndices.put(node, pathIndices.size());
+            pathBoundaries[end] = true;
+        }
+
+        int[] pathBoundaryMargins = new int[length + 1];
+
+        for (int position = 0; position <= length; position++) {
+            pathBoundaryMargins[position] = toMargin(pathBoundaries[position] ? crossingMargins[position] : boundaryMargins[position]);
+        }
+
+        double[] nodeProbabilities = new double[bestPath.size()];
+        double[] boundaryProbabilities = new double[length + 1];
+
+        calculateForwardLogScores(lattice, temperature);
+        calculateBackwardLogScores(lattice, temperature, pathIndices, nodeProbabilities, boundaryProbabilities);
+
+        return new ViterbiMarginals(bestPath, nodeMargins, nodeProbabilities, pathBoundaryMargins, boundaryProbabilities);
+    }
+
+    private long getMargin(ViterbiNode node, int bestCost) {
+        if (node.getLeftNode() == null || node.getBackwardCost() == DEFAULT_COST) {    // Not on any path
+            return Long.MAX_VALUE;
+        }
+        return (long) node.getPathCost() + node.getBackwardCost() - bestCost;
+    }
+
+    private static int toMargin(long margin) {
+        return (int) Math.min(margin, ViterbiMarginals.NO_ALTERNATIVE);
+    }
+
+    private void calculateForwardLogScores(ViterbiLattice lattice, double temperature) {
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        ViterbiNode[][] endIndexArr = lattice.getEndIndexArr();
+        double[] scores = new double[0];
+
+        startIndexArr[0][0].setLogScore(0);
+
+        for (int i = 1; i < startIndexArr.length; i++) {
+            if (startIndexArr[i] == null) {
+                continue;
+            }
+
+            ViterbiNode[] leftNodes = endIndexArr[i] == null ? new ViterbiNode[0] : endIndexArr[i];
+
+            if (scores.length < leftNodes.length) {
+                scores = new double[leftNodes.length];
+            }
+
+            for (ViterbiNode node : startIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+
+                int count = 0;
+
+                for (; count < leftNodes.length && leftNodes[count] != null; count++) {
+                    ViterbiNode leftNode = leftNodes[count];
+                    scores[count] = leftNode.getLogScore() - costs.get(leftNode.getRightId(), node.getLeftId()) / temperature;
+                }
+
+                node.setLogScore(logSumExp(scores, count) - getNodeCost(node) / temperature);
+            }
+        }
+    }
+
+    private void calculateBackwardLogScores(ViterbiLattice lattice, double temperature, Map<ViterbiNode, Integer> pathIndices,
+                                            double[] nodeProbabilities, double[] boundaryProbabilities) {
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        ViterbiNode[][] endIndexArr = lattice.getEndIndexArr();
+        ViterbiNode eos = endIndexArr[0][0];
+        double logPartition = eos.getLogScore();
+        double[] rightScores = new double[0];
+        double[] scores = new double[0];
+
+        eos.setLogScore(0);
+
+        for (int i = startIndexArr.length - 1; i > 0; i--) {
+            if (endIndexArr[i] == null) {
+                continue;
+            }
+
+            ViterbiNode[] rightNodes = startIndexArr[i] == null ? new ViterbiNode[0] : startIndexArr[i];
+
+            if (rightScores.length < rightNodes.length) {
+                rightScores = new double[rightNodes.length];
+                scores = new double[rightNodes.length];
+            }
+
+            int count = 0;
+
+            // The right nodes were searched at their end positions, so they hold their backward scores
+            for (; count < rightNodes.length && rightNodes[count] != null; count++) {
+                rightScores[count] = rightNodes[count].getLogScore() - getNodeCost(rightNodes[count]) / temperature;
+            }
+
+            for (ViterbiNode node : endIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+
+                for (int j = 0; j < count; j++) {
+                    scores[j] = rightScores[j] - costs.get(node.getRightId(), rightNodes[j].getLeftId()) / temperature;
+                }
+
+                double backwardScore = logSumExp(scores, count);
+                double probability = Math.min(1.0, Math.exp(node.getLogScore() + backwardScore - logPartition));
+                Integer pathIndex = pathIndices.get(node);
+
+                if (pathIndex != null) {
+                    nodeProbabilities[pathIndex] = probability;
+                }
+
+                // Every path has at most one node ending at a position
+                boundaryProbabilities[i - 1] = Math.min(1.0, boundaryProbabilities[i - 1] + probability);
+                node.setLogScore(backwardScore);
+            }
+        }
+    }
+
+    private static double logSumExp(double[] values, int count) {
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values[i]);
+        }
+
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+
+        double sum = 0;
+
+        for (int i = 0; i < count; i++) {
+            sum += Math.exp(values[i] - max);
+        }
+        return max + Math.log(sum);
+    }
+
+    private void calculateBackwardCosts(ViterbiLattice lattice) {
+        ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
+        ViterbiNode[][] endIndexArr = lattice.getEndIndexArr();
+        int[] rightCosts = new int[0];
+
+        endIndexArr[0][0].setBackwardCost(0);
+
+        for (int i = startIndexArr.length - 1; i > 0; i--) {
+            if (endIndexArr[i] == null) {
+                continue;
+            }
+
+            ViterbiNode[] rightNodes = startIndexArr[i] == null ? new ViterbiNode[0] : startIndexArr[i];
+
+            if (rightCosts.length < rightNodes.length) {
+                rightCosts = new int[rightNodes.length];
+            }
+
+            // The cost of each right node and the best path after it, which is the same for all left nodes
+            for (int j = 0; j < rightNodes.length && rightNodes[j] != null; j++) {
+                ViterbiNode rightNode = rightNodes[j];
+
+                if (rightNode.getBackwardCost() == DEFAULT_COST) {
+                    rightCosts[j] = DEFAULT_COST;
+                    continue;
+                }
+
+                rightCosts[j] = getNodeCost(rightNode) + rightNode.getBackwardCost();
+            }
+
+            for (ViterbiNode node : endIndexArr[i]) {
+                if (node == null) {
+                    break;
+                }
+
+                long backwardCost = DEFAULT_COST;
+
+                for (int j = 0; j < rightNodes.length && rightNodes[j] != null; j++) {
+                    if (rightCosts[j] != DEFAULT_COST) {
+                        backwardCost = Math.min(
+                            backwardCost,
+                            (long) costs.get(node.getRightId(), rightNodes[j].getLeftId()) + rightCosts[j]
+                        );
+                    }
+                }
+
+                node.setBackwardCost((int) Math.min(backwardCost, DEFAULT_COST));
+            }
+        }
+    }
+
+    private ViterbiNode[][] calculatePathCosts(ViterbiLattice lattice, PathRelaxation relaxation) {
         ViterbiNode[][] startIndexArr = lattice.getStartIndexArr();
         ViterbiNode[][] endIndexArr = lattice.getEndIndexArr();
 
@@ -93,54 +637,62 @@ public class ViterbiSearcher {
                 continue;
             }
 
+            relaxation.reset(endIndexArr[i]);
+
             for (ViterbiNode node : startIndexArr[i]) {
                 if (node == null) {    // If array doesn't contain ViterbiNode any more, continue to next index
                     break;
                 }
 
-                updateNode(endIndexArr[i], node);
+                updateNode(relaxation, node);
             }
         }
+        relaxation.clear();
         return endIndexArr;
     }
 
-    private void updateNode(ViterbiNode[] viterbiNodes, ViterbiNode node) {
-        int backwardConnectionId = node.getLeftId();
-        int wordCost = node.getWordCost();
-        int leastPathCost = DEFAULT_COST;
+    private void updateNode(PathRelaxation relaxation, ViterbiNode node) {
+        ViterbiNode leftNode = relaxation.getBestLeftNode(node);
 
-        for (ViterbiNode leftNode : viterbiNodes) {
-            // If array doesn't contain any more ViterbiNodes, continue to next index
-            if (leftNode == null) {
-                return;
-            } else {
-                // cost = [total cost from BOS to previous node] + [connection cost between previous node and current node] + [word cost]
-                int pathCost = leftNode.getPathCost() +
-                    costs.get(leftNode.getRightId(), backwardConnectionId) +
-                    wordCost;
+        if (leftNode == null) {
+            return;
+        }
 
-                // Add extra cost for long nodes in "Search mode".
-                if (mode == TokenizerBase.Mode.SEARCH || mode == TokenizerBase.Mode.EXTENDED) {
-                    pathCost += getPenaltyCost(node);
-                }
+        // cost = [total cost from BOS to previous node] + [connection cost between previous node and current node] + [word cost]
+        int pathCost = relaxation.getBestConnectedCost(node) + node.getWordCost();
 
-                // If total cost is lower than before, set current previous node as best left node (previous means left).
-                if (pathCost < leastPathCost) {
-                    leastPathCost = pathCost;
-                    node.setPathCost(leastPathCost);
-                    node.setLeftNode(leftNode);
-                }
-            }
+        // Add extra cost for long nodes in "Search mode".
+        if (mode == TokenizerBase.Mode.SEARCH || mode == TokenizerBase.Mode.EXTENDED) {
+            pathCost += getPenaltyCost(node);
+        }
+
+        if (pathCost < DEFAULT_COST) {
+            node.setPathCost(pathCost);
+            node.setLeftNode(leftNode);
+        }
+    }
+
+    /**
+     * Get the word cost of a node, including the penalty for long nodes in search and extended mode
+     *
+     * @param node  node to get the cost of
+     * @return node cost
+     */
+    private int getNodeCost(ViterbiNode node) {
+        int nodeCost = node.getWordCost();
+
+        if (mode == TokenizerBase.Mode.SEARCH || mode == TokenizerBase.Mode.EXTENDED) {
+            nodeCost += getPenaltyCost(node);
         }
+        return nodeCost;
     }
 
     int getPenaltyCost(ViterbiNode node) {
         int pathCost = 0;
-        String surface = node.getSurface();
-        int length = surface.length();
+        int length = node.getLength();
 
         if (length > kanjiPenaltyLengthThreshold) {
-            if (isKanjiOnly(surface)) {    // Process only Kanji keywords
+            if (isKanjiOnly(node.getSurface())) {    // Process only Kanji keywords
                 pathCost += (length - kanjiPenaltyLengthThreshold) * kanjiPenalty;
             } else if (length > otherPenaltyLengthThreshold) {
                 pathCost += (length - otherPenaltyLengthThreshold) * otherPenalty;
@@ -172,8 +724,8 @@ public class ViterbiSearcher {
             if (leftNode == null) {
                 break;
             } else {
-                // Extended mode converts unknown word into unigram nodes
-                if (mode == TokenizerBase.Mode.EXTENDED && leftNode.getType() == ViterbiNode.Type.UNKNOWN) {
+                // Extended mode converts unknown word into unigram nodes, unless it is a protected span
+                if (mode == TokenizerBase.Mode.EXTENDED && leftNode.getType() == ViterbiNode.Type.UNKNOWN && !leftNode.isProtectedSpan()) {
                     LinkedList<ViterbiNode> uniGramNodes = convertUnknownWordToUnigramNode(leftNode);
                     result.addAll(uniGramNodes);
                 } else {
@@ -18,9 +18,18 @@ package com.atilika.kuromoji.buffer;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class StringValueMapBufferTest {
 
@@ -40,4 +49,155 @@ public class StringValueMapBufferTest {
         assertEquals("日本", values.get(2));
         assertEquals("カタカナ", values.get(3));
     }
+
+    @Test
+    public void testMaterializedMap() throws Exception {
+        TreeMap<Integer, String> input = new TreeMap<>();
+
+        input.put(0, "名詞");
+        input.put(1, "カタカナ");
+        input.put(2, "*");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StringValueMapBuffer(input).write(output);
+        byte[] bytes = output.toByteArray();
+
+        StringValueMapBuffer lazy = new StringValueMapBuffer(new ByteArrayInputStream(bytes));
+        StringValueMapBuffer materialized = new StringValueMapBuffer(new ByteArrayInputStream(bytes), true);
+
+        assertFalse(lazy.isMaterialized());
+        assertTrue(materialized.isMaterialized());
+        assertEquals(3, materialized.size());
+
+        for (int i = 0; i < input.size(); i++) {
+            assertEquals(input.get(i), lazy.get(i));
+            assertEquals(input.get(i), materialized.get(i));
+        }
+
+        assertSame(materialized.get(0), materialized.get(0));
+        assertEquals(lazy.getEncodedSize(), materialized.getEncodedSize());
+        assertTrue(materialized.getMaterializedSize() > 0);
+
+        output = new ByteArrayOutputStream();
+        materialized.write(output);
+        StringValueMapBuffer copy = new StringValueMapBuffer(new ByteArrayInputStream(output.toByteArray()));
+
+        assertEquals("カタカナ", copy.get(1));
+    }
+
+    @Test
+    public void testMaterializedMapSharesEqualValues() throws Exception {
+        TreeMap<Integer, String> input = new TreeMap<>();
+
+        input.put(0, "名詞");
+        input.put(1, "動詞");
+        input.put(2, "名詞");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StringValueMapBuffer(input).write(output);
+        byte[] bytes = output.toByteArray();
+
+        StringValueMapBuffer materialized = new StringValueMapBuffer(new ByteArrayInputStream(bytes), true);
+
+        assertSame(materialized.get(0), materialized.get(2));
+        assertNotSame(materialized.get(0), materialized.get(1));
+
+        input.put(2, "形容詞");
+        output = new ByteArrayOutputStream();
+        new StringValueMapBuffer(input).write(output);
+        StringValueMapBuffer distinct = new StringValueMapBuffer(new ByteArrayInputStream(output.toByteArray()), true);
+
+        assertTrue(materialized.getMaterializedSize() < distinct.getMaterializedSize());
+    }
+
+    @Test
+    public void testCompactEncodings() throws Exception {
+        String[] strings = {
+            "",
+            "ひらがな",
+            "カタカナ",
+            "「ー」",
+            "base form",
+            "café",
+            "0",
+            "17",
+            "8191",
+            "8192",
+            "007",
+            "-1",
+            "漢字",
+            "漢字とかな",
+            "Ωmega",
+            "𠮷野家"
+        };
+
+        TreeMap<Integer, String> input = new TreeMap<>();
+
+        for (int i = 0; i < strings.length; i++) {
+            input.put(i, strings[i]);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StringValueMapBuffer(input).write(output);
+
+        StringValueMapBuffer values = new StringValueMapBuffer(new ByteArrayInputStream(output.toByteArray()));
+
+        for (int i = 0; i < strings.length; i++) {
+            assertEquals(strings[i], values.get(i));
+        }
+    }
+
+    @Test
+    public void testEncodedSizes() throws Exception {
+        // One length short per value, no bytes for small integers, one byte per kana or Latin-1 char
+        assertEquals(2, getValueSize("12"));
+        assertEquals(2 + 4, getValueSize("ひらがな"));
+        assertEquals(2 + 4, getValueSize("abcd"));
+        assertEquals(2 + 4, getValueSize("漢字"));
+        assertEquals(2 + 5, getValueSize("ab漢"));
+        assertEquals(2 + 6, getValueSize("漢字a"));
+    }
+
+    @Test
+    public void testUnversionedMapRejected() throws Exception {
+        byte[] bytes = getUnversionedMap();
+
+        try {
+            new StringValueMapBuffer(new ByteArrayInputStream(bytes));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("recompiled"));
+        }
+
+        try {
+            StringValueMapBuffer.verify(new ByteArrayInputStream(bytes));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("recompiled"));
+        }
+    }
+
+    private byte[] getUnversionedMap() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        // One katakana value marked with the 0x8000 flag, as written before values had an encoding field
+        dataOutput.writeInt(4 + 4 + 2 + 2);
+        dataOutput.writeInt(1);
+        dataOutput.writeInt(8);
+        dataOutput.writeShort(0x8000 | 2);
+        dataOutput.writeByte(0xab);
+        dataOutput.writeByte(0xbf);
+        dataOutput.close();
+
+        return output.toByteArray();
+    }
+
+    private int getValueSize(String value) {
+        TreeMap<Integer, String> input = new TreeMap<>();
+        input.put(0, value);
+
+        // Subtract the header and the key index
+        return new StringValueMapBuffer(input).getEncodedSize() - 16;
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BuildManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDigest() throws IOException {
+        File first = write("first.def", "0 0 1\n");
+        File second = write("second.def", "0 0 1\n");
+        File third = write("third.def", "0 0 2\n");
+
+        assertEquals(new BuildManifest.Digest().update(first).finish(), new BuildManifest.Digest().update(second).finish());
+        assertNotEquals(new BuildManifest.Digest().update(first).finish(), new BuildManifest.Digest().update(third).finish());
+
+        // Concatenations are distinguished
+        assertNotEquals(
+            new BuildManifest.Digest().update("ab").update("c").finish(),
+            new BuildManifest.Digest().update("a").update("bc").finish()
+        );
+    }
+
+    @Test
+    public void testUpToDate() throws IOException {
+        File outputDir = folder.newFolder();
+
+        BuildManifest manifest = BuildManifest.read(outputDir);
+        assertFalse(manifest.isUpToDate("stage", "digest"));
+
+        manifest.put("stage", "digest");
+        manifest.write();
+
+        write(outputDir, "resource.bin", "");
+
+        manifest = BuildManifest.read(outputDir);
+        assertTrue(manifest.isUpToDate("stage", "digest", "resource.bin"));
+        assertFalse(manifest.isUpToDate("stage", "other", "resource.bin"));
+        assertFalse(manifest.isUpToDate("stage", "digest", "missing.bin"));
+        assertFalse(manifest.isUpToDate("other", "digest"));
+
+        assertFalse(BuildManifest.empty(outputDir).isUpToDate("stage", "digest", "resource.bin"));
+
+        manifest.delete();
+        assertFalse(BuildManifest.read(outputDir).isUpToDate("stage", "digest", "resource.bin"));
+    }
+
+    private File write(String filename, String content) throws IOException {
+        return write(folder.getRoot(), filename, content);
+    }
+
+    private File write(File dir, String filename, String content) throws IOException {
+        File file = new File(dir, filename);
+        OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
@@ -24,19 +24,26 @@ import org.junit.Test;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class CharacterDefinitionsCompilerTest {
 
@@ -99,6 +106,53 @@ public class CharacterDefinitionsCompilerTest {
         assertCharacterCategories(characterDefinition, '・', "SYMBOL", "KATAKANA");
     }
 
+    @Test
+    public void testUnversionedArraysRejected() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        // A sparse array with one inner array as written before arrays were written as versioned blocks
+        dataOutput.writeInt(3);
+        dataOutput.writeInt(1);
+        dataOutput.writeInt(2);
+        dataOutput.writeInt(7);
+        dataOutput.writeInt(8);
+        dataOutput.writeInt(-1);
+        dataOutput.close();
+
+        byte[] bytes = output.toByteArray();
+
+        try {
+            IntegerArrayIO.readSparseArray2D(new ByteArrayInputStream(bytes));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("recompiled"));
+        }
+
+        try {
+            CharacterDefinitions.read(ByteBuffer.wrap(bytes));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("recompiled"));
+        }
+    }
+
+    @Test
+    public void testReadFromBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(charDef.toPath()));
+
+        CharacterDefinitions bufferCharacterDefinition = CharacterDefinitions.read(buffer);
+
+        assertEquals(0, buffer.remaining());
+
+        for (char c : "\u0000〇 。AＡ・漢あ".toCharArray()) {
+            assertArrayEquals(
+                characterDefinition.lookupCategories(c),
+                bufferCharacterDefinition.lookupCategories(c)
+            );
+        }
+    }
+
     public void assertCharacterCategories(CharacterDefinitions characterDefinition,
                                           char c,
                                           String... categories) {
@@ -17,18 +17,22 @@
 package com.atilika.kuromoji.compile;
 
 import com.atilika.kuromoji.dict.ConnectionCosts;
-import com.atilika.kuromoji.io.ByteBufferIO;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
 
@@ -65,15 +69,17 @@ public class ConnectionCostsCompilerTest {
 
         compiler.compile();
 
-        DataInputStream dataInput = new DataInputStream(
-            new FileInputStream(costsFile)
-        );
+        connectionCosts = read(costsFile);
+    }
 
-        int size = dataInput.readInt();
-        ShortBuffer costsBuffer = ByteBufferIO.read(dataInput).asShortBuffer();
-        dataInput.close();
+    private static ConnectionCosts read(File costsFile) throws IOException {
+        InputStream input = new FileInputStream(costsFile);
 
-        connectionCosts = new ConnectionCosts(size, costsBuffer);
+        try {
+            return ConnectionCosts.read(input);
+        } finally {
+            input.close();
+        }
     }
 
     @Test
@@ -86,4 +92,159 @@ public class ConnectionCostsCompilerTest {
             }
         }
     }
+
+    @Test
+    public void testEquivalentIds() throws IOException {
+        File costsFile = File.createTempFile("kuromoji-connectioncosts-", ".bin");
+        costsFile.deleteOnExit();
+
+        // Forward ids 0 and 2 have identical rows, backward ids 1 and 2 have identical columns
+        String costs = "" +
+            "3 3\n" +
+            "0 0 1\n" +
+            "0 1 2\n" +
+            "0 2 2\n" +
+            "1 0 4\n" +
+            "1 1 -5\n" +
+            "1 2 -5\n" +
+            "2 0 1\n" +
+            "2 1 2\n" +
+            "2 2 2\n";
+
+        ConnectionCostsCompiler compiler = new ConnectionCostsCompiler(
+            new FileOutputStream(costsFile)
+        );
+
+        compiler.readCosts(
+            new ByteArrayInputStream(
+                costs.getBytes(StandardCharsets.UTF_8)
+            )
+        );
+
+        compiler.compile();
+
+        ConnectionCosts connectionCosts = read(costsFile);
+        ShortBuffer dense = compiler.getCosts();
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(dense.get(j + i * 3), connectionCosts.get(i, j));
+            }
+        }
+
+        // Two forward classes and two backward classes
+        assertEquals(4 * 2 + 6 * 4, connectionCosts.getByteSize());
+    }
+
+    @Test
+    public void testWhitespaceAndLineEnds() throws IOException {
+        String costs = "" +
+            "2 2\r\n" +
+            "0\t0  -1\r\n" +
+            "\n" +
+            "  0 1 +2\n" +
+            "1 0\t\t-32768\r\n" +
+            "1 1 32767";
+
+        ConnectionCostsCompiler compiler = new ConnectionCostsCompiler(new ByteArrayOutputStream());
+
+        compiler.readCosts(
+            new ByteArrayInputStream(
+                costs.getBytes(StandardCharsets.UTF_8)
+            )
+        );
+
+        ShortBuffer dense = compiler.getCosts();
+
+        assertEquals(2, compiler.getCardinality());
+        assertEquals(-1, dense.get(0));
+        assertEquals(2, dense.get(1));
+        assertEquals(Short.MIN_VALUE, dense.get(2));
+        assertEquals(Short.MAX_VALUE, dense.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCostOutOfRange() throws IOException {
+        ConnectionCostsCompiler compiler = new ConnectionCostsCompiler(new ByteArrayOutputStream());
+
+        compiler.readCosts(
+            new ByteArrayInputStream(
+                "1 1\n0 0 32768\n".getBytes(StandardCharsets.UTF_8)
+            )
+        );
+    }
+
+    @Test(expected = IOException.class)
+    public void testDenseCostsRejected() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        // A 2x2 dense matrix as written before the costs were split into classes
+        dataOutput.writeInt(2);
+        dataOutput.writeInt(4 * 2);
+
+        for (int i = 0; i < 4; i++) {
+            dataOutput.writeShort(i);
+        }
+        dataOutput.close();
+
+        ConnectionCosts.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testClassCountMismatchRejected() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        // Two ids in one class each way need 2 * 2 class shorts and a single cost, but two costs follow
+        dataOutput.writeInt(ConnectionCosts.MAGIC);
+        dataOutput.writeInt(ConnectionCosts.VERSION);
+        dataOutput.writeInt(2);
+        dataOutput.writeInt(1);
+        dataOutput.writeInt(1);
+        dataOutput.writeInt(6 * 2);
+
+        for (int i = 0; i < 6; i++) {
+            dataOutput.writeShort(0);
+        }
+        dataOutput.close();
+
+        ConnectionCosts.read(ByteBuffer.wrap(output.toByteArray()));
+    }
+
+    @Test
+    public void testConcurrentRead() throws IOException {
+        int size = 700;
+        StringBuilder costs = new StringBuilder();
+
+        costs.append(size).append(' ').append(size).append('\n');
+
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                costs.append(i).append(' ').append(j).append(' ').append((i * 31 + j * 17) % 2000 - 1000).append('\n');
+            }
+        }
+
+        ConnectionCostsCompiler compiler = new ConnectionCostsCompiler(new ByteArrayOutputStream());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            compiler.setExecutor(executor);
+            compiler.readCosts(
+                new ByteArrayInputStream(
+                    costs.toString().getBytes(StandardCharsets.UTF_8)
+                )
+            );
+        } finally {
+            executor.shutdown();
+        }
+
+        ShortBuffer dense = compiler.getCosts();
+
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                assertEquals((i * 31 + j * 17) % 2000 - 1000, dense.get(j + i * size));
+            }
+        }
+    }
 }
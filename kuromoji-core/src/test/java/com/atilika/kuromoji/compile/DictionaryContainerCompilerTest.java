@@ -0,0 +1,117 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import com.atilika.kuromoji.dict.ConnectionCosts;
+import com.atilika.kuromoji.util.PackedResourceResolver;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryContainerCompilerTest {
+
+    private static PackedResourceResolver resolver;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        File costsFile = File.createTempFile("kuromoji-connectioncosts-", ".bin");
+        costsFile.deleteOnExit();
+
+        ConnectionCostsCompiler costsCompiler = new ConnectionCostsCompiler(
+            new FileOutputStream(costsFile)
+        );
+
+        costsCompiler.readCosts(
+            new ByteArrayInputStream(
+                "2 2\n0 0 1\n0 1 2\n1 0 3\n1 1 4\n".getBytes(StandardCharsets.UTF_8)
+            )
+        );
+
+        costsCompiler.compile();
+
+        File textFile = File.createTempFile("kuromoji-text-", ".bin");
+        textFile.deleteOnExit();
+
+        FileOutputStream textOutput = new FileOutputStream(textFile);
+        textOutput.write("abc".getBytes(StandardCharsets.UTF_8));
+        textOutput.close();
+
+        File containerFile = File.createTempFile("kuromoji-container-", ".bin");
+        containerFile.deleteOnExit();
+
+        DictionaryContainerCompiler compiler = new DictionaryContainerCompiler(
+            new FileOutputStream(containerFile)
+        );
+
+        compiler.addSection("text.bin", textFile);
+        compiler.addSection(ConnectionCosts.CONNECTION_COSTS_FILENAME, costsFile);
+        compiler.compile();
+
+        resolver = new PackedResourceResolver(containerFile);
+    }
+
+    @Test
+    public void testResolve() throws IOException {
+        InputStream input = resolver.resolve("text.bin");
+
+        assertEquals('a', input.read());
+        assertEquals('b', input.read());
+        assertEquals('c', input.read());
+        assertEquals(-1, input.read());
+    }
+
+    @Test
+    public void testMap() throws IOException {
+        ByteBuffer first = resolver.map("text.bin");
+        ByteBuffer second = resolver.map("text.bin");
+
+        assertEquals(3, first.remaining());
+        assertEquals('a', first.get());
+
+        // Every mapping is an independent view
+        assertEquals(3, second.remaining());
+    }
+
+    @Test
+    public void testConnectionCosts() throws IOException {
+        ConnectionCosts connectionCosts = ConnectionCosts.newInstance(resolver);
+        int cost = 1;
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(cost++, connectionCosts.get(i, j));
+            }
+        }
+
+        assertTrue(resolver.map(ConnectionCosts.CONNECTION_COSTS_FILENAME).isReadOnly());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingResource() throws IOException {
+        resolver.resolve("missing.bin");
+    }
+}
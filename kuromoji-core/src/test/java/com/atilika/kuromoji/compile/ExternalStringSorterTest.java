@@ -0,0 +1,72 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExternalStringSorterTest {
+
+    @Test
+    public void testInMemory() throws IOException {
+        assertSorted(1000, 100);
+    }
+
+    @Test
+    public void testSpilledRuns() throws IOException {
+        assertSorted(7, 1000);
+    }
+
+    private void assertSorted(int runSize, int count) throws IOException {
+        Random random = new Random(42);
+        TreeSet<String> expected = new TreeSet<>();
+
+        ExternalStringSorter sorter = new ExternalStringSorter(runSize);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                // Duplicates within and across runs
+                String string = "s" + random.nextInt(count / 2);
+
+                expected.add(string);
+                sorter.add(string);
+            }
+
+            // Iterating again gives the same strings
+            for (int pass = 0; pass < 2; pass++) {
+                List<String> actual = new ArrayList<>();
+                Iterator<String> iterator = sorter.iterator();
+
+                while (iterator.hasNext()) {
+                    actual.add(iterator.next());
+                }
+
+                assertEquals(new ArrayList<>(expected), actual);
+            }
+        } finally {
+            sorter.close();
+        }
+    }
+}
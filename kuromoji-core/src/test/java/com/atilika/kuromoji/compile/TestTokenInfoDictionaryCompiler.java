@@ -0,0 +1,81 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import com.atilika.kuromoji.dict.GenericDictionaryEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Token info compiler for synthetic entries with two part-of-speech features and two other features
+ */
+public class TestTokenInfoDictionaryCompiler extends TokenInfoDictionaryCompilerBase<GenericDictionaryEntry> {
+
+    public TestTokenInfoDictionaryCompiler() {
+        super("UTF-8");
+    }
+
+    /**
+     * Makes entries in the format read by this compiler
+     *
+     * @param count  number of entries
+     * @param surfaceCount  number of distinct surfaces
+     * @param partOfSpeechCount  number of distinct part-of-speech values
+     * @return entries, one per line
+     */
+    public static String makeEntries(int count, int surfaceCount, int partOfSpeechCount) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            builder.append("surface").append(i % surfaceCount).append(',')
+                .append(i % 13).append(',')
+                .append(i % 17).append(',')
+                .append(i % 1000).append(',')
+                .append("pos").append(i % partOfSpeechCount).append(',')
+                .append("*,")
+                .append("feature").append(i % 5003).append(',')
+                .append("feature").append(i % 7).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static InputStream toStream(String entries) {
+        return new ByteArrayInputStream(entries.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected GenericDictionaryEntry parse(String line) {
+        String[] fields = line.split(",");
+
+        return new GenericDictionaryEntry.Builder()
+            .surface(fields[0])
+            .leftId(Short.parseShort(fields[1]))
+            .rightId(Short.parseShort(fields[2]))
+            .wordCost(Short.parseShort(fields[3]))
+            .partOfSpeech(Arrays.asList(fields[4], fields[5]))
+            .features(Arrays.asList(fields[6], fields[7]))
+            .build();
+    }
+
+    @Override
+    protected GenericDictionaryEntry makeGenericDictionaryEntry(GenericDictionaryEntry entry) {
+        return entry;
+    }
+}
@@ -18,11 +18,15 @@ package com.atilika.kuromoji.compile;
 
 import com.atilika.kuromoji.buffer.BufferEntry;
 import com.atilika.kuromoji.buffer.TokenInfoBuffer;
+import com.atilika.kuromoji.io.ByteBufferIO;
+import com.atilika.kuromoji.util.ResourceResolver;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -30,6 +34,8 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TokenInfoBufferCompilerTest {
 
@@ -157,4 +163,112 @@ public class TokenInfoBufferCompilerTest {
         assertEquals("hello", resultMap.get(result.featureInfos[0]));
         assertEquals("素敵な世界", resultMap.get(result.featureInfos[1]));
     }
+
+    @Test
+    public void testLazyFeatures() throws Exception {
+        List<BufferEntry> bufferEntries = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            BufferEntry entry = new BufferEntry();
+            entry.tokenInfo.add((short) (10 + i));
+            entry.tokenInfo.add((short) (20 + i));
+            entry.tokenInfo.add((short) (-30 - i));
+            entry.tokenInfo.add((short) (40 + i));
+            entry.posInfo.add((byte) (50 + i));
+            entry.features.add(60 + i);
+            bufferEntries.add(entry);
+        }
+
+        final File file = File.createTempFile("kuromoji-tokeinfo-buffer-", ".bin");
+        file.deleteOnExit();
+
+        new TokenInfoBufferCompiler(new FileOutputStream(file), bufferEntries).compile();
+
+        TokenInfoBuffer tokenInfoBuffer = new TokenInfoBuffer(
+            new ResourceResolver() {
+                @Override
+                public InputStream resolve(String resourceName) throws IOException {
+                    return new FileInputStream(file);
+                }
+            },
+            file.getName()
+        );
+
+        assertEquals(3, tokenInfoBuffer.size());
+        assertEquals(11, tokenInfoBuffer.lookupLeftId(1));
+        assertEquals(22, tokenInfoBuffer.lookupRightId(2));
+        assertEquals(-30, tokenInfoBuffer.lookupWordCost(0));
+        assertFalse(tokenInfoBuffer.isFeaturesLoaded());
+
+        assertEquals(41, tokenInfoBuffer.lookupTokenInfo(1, 3));
+        assertEquals(52, tokenInfoBuffer.lookupPartOfSpeechFeature(2, 0));
+        assertEquals(60, tokenInfoBuffer.lookupFeature(0, 1));
+        assertTrue(tokenInfoBuffer.isFeaturesLoaded());
+
+        BufferEntry entry = tokenInfoBuffer.lookupEntry(2);
+        assertEquals(12, entry.tokenInfos[0]);
+        assertEquals(42, entry.tokenInfos[3]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTokenInfoWithoutVersion() throws Exception {
+        // Layout from before the costs were split from the features, with a single section and no version
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 4 + 3 * 2 + 4);
+        buffer.putInt(1);
+        buffer.putInt(3);
+        buffer.putInt(0);
+        buffer.putInt(1);
+        buffer.putShort((short) 10);
+        buffer.putShort((short) 20);
+        buffer.putShort((short) -30);
+        buffer.putInt(60);
+
+        File file = File.createTempFile("kuromoji-tokeinfo-buffer-", ".bin");
+        file.deleteOnExit();
+
+        FileOutputStream output = new FileOutputStream(file);
+        ByteBufferIO.write(output, buffer);
+        output.close();
+
+        new TokenInfoBuffer(new FileInputStream(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFeaturesFailWhenLoading() throws Exception {
+        BufferEntry entry = new BufferEntry();
+        entry.tokenInfo.add((short) 10);
+        entry.tokenInfo.add((short) 20);
+        entry.tokenInfo.add((short) -30);
+        entry.features.add(60);
+
+        List<BufferEntry> bufferEntries = new ArrayList<>();
+        bufferEntries.add(entry);
+
+        File file = File.createTempFile("kuromoji-tokeinfo-buffer-", ".bin");
+        file.deleteOnExit();
+
+        new TokenInfoBufferCompiler(new FileOutputStream(file), bufferEntries).compile();
+
+        // Keep only the cost section
+        InputStream input = new FileInputStream(file);
+        ByteBuffer costs = ByteBufferIO.read(input);
+        input.close();
+
+        final File truncated = File.createTempFile("kuromoji-tokeinfo-buffer-", ".bin");
+        truncated.deleteOnExit();
+
+        FileOutputStream output = new FileOutputStream(truncated);
+        ByteBufferIO.write(output, costs);
+        output.close();
+
+        new TokenInfoBuffer(
+            new ResourceResolver() {
+                @Override
+                public InputStream resolve(String resourceName) throws IOException {
+                    return new FileInputStream(truncated);
+                }
+            },
+            truncated.getName()
+        );
+    }
 }
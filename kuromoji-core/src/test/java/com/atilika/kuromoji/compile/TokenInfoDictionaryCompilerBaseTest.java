@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.compile;
+
+import com.atilika.kuromoji.buffer.TokenInfoBuffer;
+import com.atilika.kuromoji.dict.TokenInfoDictionary;
+import com.atilika.kuromoji.util.ResourceResolver;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.atilika.kuromoji.compile.TestTokenInfoDictionaryCompiler.makeEntries;
+import static com.atilika.kuromoji.compile.TestTokenInfoDictionaryCompiler.toStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenInfoDictionaryCompilerBaseTest {
+
+    @Test
+    public void testParallelReadIsDeterministic() throws IOException {
+        String entries = makeEntries(30000, 997, 16);
+
+        File serialDir = compile(entries, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        File parallelDir;
+
+        try {
+            parallelDir = compile(entries, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (String filename : Arrays.asList(
+            TokenInfoDictionary.TOKEN_INFO_DICTIONARY_FILENAME,
+            TokenInfoDictionary.POS_MAP_FILENAME,
+            TokenInfoDictionary.FEATURE_MAP_FILENAME)) {
+            assertArrayEquals(
+                filename,
+                Files.readAllBytes(new File(serialDir, filename).toPath()),
+                Files.readAllBytes(new File(parallelDir, filename).toPath())
+            );
+        }
+    }
+
+    @Test
+    public void testPartOfSpeechIdSize() throws IOException {
+        File dir = compile(makeEntries(100, 997, 16), null);
+        TokenInfoBuffer buffer = readTokenInfo(dir);
+
+        // Part-of-speech ids fit in a byte
+        assertEquals(3, buffer.getTokenInfoCount());
+        assertEquals(2, buffer.getPartOfSpeechInfoCount());
+        assertTrue(readDictionary(dir).getAllFeaturesArray(0)[0].startsWith("pos"));
+
+        dir = compile(makeEntries(1000, 997, 1000), null);
+        buffer = readTokenInfo(dir);
+
+        // Part-of-speech ids are stored as shorts after the costs
+        assertEquals(5, buffer.getTokenInfoCount());
+        assertEquals(0, buffer.getPartOfSpeechInfoCount());
+        assertTrue(readDictionary(dir).getAllFeaturesArray(0)[0].startsWith("pos"));
+    }
+
+    private TokenInfoBuffer readTokenInfo(File dir) throws IOException {
+        InputStream input = new FileInputStream(new File(dir, TokenInfoDictionary.TOKEN_INFO_DICTIONARY_FILENAME));
+
+        try {
+            return new TokenInfoBuffer(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private TokenInfoDictionary readDictionary(final File dir) throws IOException {
+        return TokenInfoDictionary.newInstance(new ResourceResolver() {
+            @Override
+            public InputStream resolve(String resourceName) throws IOException {
+                return new FileInputStream(new File(dir, resourceName));
+            }
+        });
+    }
+
+    private File compile(String entries, ExecutorService executor) throws IOException {
+        File dir = Files.createTempDirectory("kuromoji-tokeninfo-").toFile();
+        dir.deleteOnExit();
+
+        TestTokenInfoDictionaryCompiler compiler = new TestTokenInfoDictionaryCompiler();
+        compiler.setExecutor(executor);
+        compiler.readTokenInfo(toStream(entries));
+        compiler.write(dir.getPath());
+
+        for (File file : dir.listFiles()) {
+            file.deleteOnExit();
+        }
+        return dir;
+    }
+}
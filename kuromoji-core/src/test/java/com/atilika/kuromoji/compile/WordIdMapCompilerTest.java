@@ -66,5 +66,11 @@ public class WordIdMapCompilerTest {
         assertEquals("[1, 2, 3]", Arrays.toString(wordIds.lookUp(3)));
         assertEquals("[0]", Arrays.toString(wordIds.lookUp(10)));
         assertEquals("[]", Arrays.toString(wordIds.lookUp(1)));
+
+        assertEquals(3, wordIds.lookUpCount(3));
+        assertEquals(2, wordIds.lookUp(3, 1));
+        assertEquals(1, wordIds.lookUpCount(10));
+        assertEquals(0, wordIds.lookUp(10, 0));
+        assertEquals(0, wordIds.lookUpCount(1));
     }
 }
@@ -20,6 +20,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class InsertedDictionaryTest {
 
@@ -40,4 +43,24 @@ public class InsertedDictionaryTest {
             dictionary2.getAllFeaturesArray(0)
         );
     }
+
+    @Test
+    public void testFeatureRecord() {
+        InsertedDictionary dictionary = new InsertedDictionary(5);
+
+        FeatureRecord all = dictionary.getFeatureRecord(0);
+        assertEquals(5, all.size());
+        assertEquals("*", all.get(4));
+
+        FeatureRecord projection = dictionary.getFeatureRecord(0, 1, 3);
+        assertEquals(5, projection.size());
+        assertEquals("*", projection.get(3));
+        assertNull(projection.get(2));
+        assertTrue(projection.contains(1));
+        assertFalse(projection.contains(0));
+
+        FeatureRecord offset = new FeatureRecord(projection, 4);
+        assertEquals("*", offset.get(5));
+        assertFalse(offset.contains(1));
+    }
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.dict;
+
+import com.atilika.kuromoji.TokenBase;
+import com.atilika.kuromoji.compile.TestTokenInfoDictionaryCompiler;
+import com.atilika.kuromoji.util.ResourceResolver;
+import com.atilika.kuromoji.viterbi.ViterbiNode;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static com.atilika.kuromoji.compile.TestTokenInfoDictionaryCompiler.makeEntries;
+import static com.atilika.kuromoji.compile.TestTokenInfoDictionaryCompiler.toStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TokenInfoDictionaryTest {
+
+    @Test
+    public void testSingleFeatureWithBytePartOfSpeech() throws IOException {
+        assertSingleFeatures(compile(100, 16), 100, 16);
+    }
+
+    @Test
+    public void testSingleFeatureWithShortPartOfSpeech() throws IOException {
+        // More than 255 part-of-speech values are stored as shorts after the costs
+        assertSingleFeatures(compile(1000, 1000), 1000, 1000);
+    }
+
+    @Test
+    public void testFeatureRecord() throws IOException {
+        TokenInfoDictionary dictionary = compile(100, 16);
+
+        FeatureRecord all = dictionary.getFeatureRecord(42);
+        assertArrayEquals(new String[]{"pos10", "*", "feature42", "feature0"}, all.toArray());
+
+        FeatureRecord projection = dictionary.getFeatureRecord(42, 0, 3);
+        assertEquals(4, projection.size());
+        assertEquals("pos10", projection.get(0));
+        assertEquals("feature0", projection.get(3));
+        assertNull(projection.get(1));
+        assertTrue(projection.contains(3));
+        assertFalse(projection.contains(2));
+    }
+
+    @Test
+    public void testTokenFeatureRecord() throws IOException {
+        TokenInfoDictionary dictionary = compile(100, 16);
+        TokenBase token = new TokenBase(42, "surface42", ViterbiNode.Type.KNOWN, 0, dictionary) {
+        };
+
+        // Token features are numbered after the four metadata fields
+        FeatureRecord all = token.getFeatureRecord();
+        assertEquals("pos10", all.get(4));
+        assertEquals("feature0", all.get(7));
+        assertFalse(all.contains(3));
+
+        FeatureRecord projection = token.getFeatureRecord(4, 6);
+        assertEquals("pos10", projection.get(4));
+        assertEquals("feature42", projection.get(6));
+        assertFalse(projection.contains(5));
+        assertFalse(projection.contains(7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFeatureRecordFieldOutOfRange() throws IOException {
+        compile(100, 16).getFeatureRecord(42, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenFeatureRecordMetadataField() throws IOException {
+        TokenBase token = new TokenBase(42, "surface42", ViterbiNode.Type.KNOWN, 0, compile(100, 16)) {
+        };
+
+        token.getFeatureRecord(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProjectFieldOutOfRange() {
+        FeatureRecord.project(new String[]{"a", "b"}, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFeatureValuesFailWhenLoading() throws IOException {
+        final File dir = compileDirectory(10, 4);
+
+        new File(dir, TokenInfoDictionary.FEATURE_MAP_FILENAME).delete();
+
+        TokenInfoDictionary.newInstance(new ResourceResolver() {
+            @Override
+            public InputStream resolve(String resourceName) throws IOException {
+                return new FileInputStream(new File(dir, resourceName));
+            }
+        });
+    }
+
+    private static void assertSingleFeatures(TokenInfoDictionary dictionary, int count, int partOfSpeechCount) {
+        for (int wordId = 0; wordId < count; wordId++) {
+            String[] features = new String[]{
+                "pos" + (wordId % partOfSpeechCount), "*", "feature" + (wordId % 5003), "feature" + (wordId % 7)
+            };
+
+            assertArrayEquals(features, dictionary.getAllFeaturesArray(wordId));
+
+            for (int field = 0; field < features.length; field++) {
+                assertEquals(features[field], dictionary.getFeature(wordId, field));
+            }
+        }
+    }
+
+    static TokenInfoDictionary compile(int count, int partOfSpeechCount) throws IOException {
+        final File dir = compileDirectory(count, partOfSpeechCount);
+
+        return TokenInfoDictionary.newInstance(new ResourceResolver() {
+            @Override
+            public InputStream resolve(String resourceName) throws IOException {
+                return new FileInputStream(new File(dir, resourceName));
+            }
+        });
+    }
+
+    private static File compileDirectory(int count, int partOfSpeechCount) throws IOException {
+        File dir = Files.createTempDirectory("kuromoji-tokeninfo-").toFile();
+        dir.deleteOnExit();
+
+        String entries = makeEntries(count, count, partOfSpeechCount);
+        TestTokenInfoDictionaryCompiler compiler = new TestTokenInfoDictionaryCompiler();
+        compiler.readTokenInfo(toStream(entries));
+        compiler.addMapping(0, 0);
+        compiler.write(dir.getPath());
+
+        for (File file : dir.listFiles()) {
+            file.deleteOnExit();
+        }
+        return dir;
+    }
+}
@@ -134,6 +134,32 @@ public class UserDictionaryTest {
         assertEquals(2, positions.size());
     }
 
+    @Test
+    public void testCharSequenceMatchesAndAddedEntries() throws IOException {
+        String userDictionaryEntries = "" +
+            "クロ,クロ,クロ,カスタム名詞\n" +
+            "アクロ,アクロ,アクロ,カスタム名詞";
+        UserDictionary dictionary = new UserDictionary(
+            new ByteArrayInputStream(userDictionaryEntries.getBytes(StandardCharsets.UTF_8)),
+            9, 7, 0
+        );
+        StringBuilder text = new StringBuilder("この丘はアクロポリスと呼ばれている");
+        List<UserDictionary.UserDictionaryMatch> positions = dictionary.findUserDictionaryMatches(text);
+        assertEquals(2, positions.size());
+        assertEquals(4, positions.get(0).getMatchStartIndex());
+        assertEquals(3, positions.get(0).getMatchLength());
+        assertEquals(5, positions.get(1).getMatchStartIndex());
+
+        // Entries added after matching are matched as well
+        dictionary.addEntry("アクロポリス,アクロ ポリス,アクロ ポリス,カスタム名詞");
+        positions = dictionary.findUserDictionaryMatches(text);
+        assertEquals(3, positions.size());
+        assertEquals(4, positions.get(0).getMatchStartIndex());
+        assertEquals(7, positions.get(1).getMatchStartIndex());
+        assertEquals(3, positions.get(1).getMatchLength());
+        assertEquals(5, positions.get(2).getMatchStartIndex());
+    }
+
     private InputStream getResource(String resource) {
         return this.getClass().getClassLoader().getResourceAsStream(resource);
     }
@@ -18,7 +18,16 @@ package com.atilika.kuromoji.fst;
 
 import org.junit.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BuilderTest {
 
@@ -37,4 +46,83 @@ public class BuilderTest {
             );
         }
     }
+
+    @Test
+    public void testBoundedRegister() throws Exception {
+        List<String> inputValues = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            // The common suffix is far apart from its previous use compared to the register size
+            inputValues.add(String.format("%04d-%04d%s", i, i * 7919 % 10000, i % 100 == 0 ? "common" : ""));
+        }
+
+        Collections.sort(inputValues);
+
+        Builder unbounded = new Builder();
+        Builder bounded = new Builder(16);
+
+        unbounded.build(inputValues.toArray(new String[0]), null);
+        bounded.build(inputValues.toArray(new String[0]), null);
+
+        for (int i = 0; i < inputValues.size(); i++) {
+            assertEquals(i + 1, unbounded.transduce(inputValues.get(i)));
+            assertEquals(i + 1, bounded.transduce(inputValues.get(i)));
+        }
+
+        assertEquals(-1, unbounded.transduce("0000x"));
+
+        // Forgotten equivalent states are compiled again
+        assertTrue(unbounded.getCompiler().getSize() < bounded.getCompiler().getSize());
+    }
+
+    @Test
+    public void testFrozenStatesNotReachable() throws Exception {
+        List<String> inputValues = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            inputValues.add(String.format("%06d", i * 7));
+        }
+
+        Collections.sort(inputValues);
+
+        Builder builder = new Builder();
+        builder.build(inputValues.toArray(new String[0]), null);
+
+        // Only the start state and the compiled states its arcs point to are left
+        Set<State> reachable = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+        Deque<State> pending = new ArrayDeque<>();
+        pending.push(builder.getStartState());
+
+        while (!pending.isEmpty()) {
+            State state = pending.pop();
+
+            if (reachable.add(state)) {
+                for (Arc arc : state.arcs) {
+                    pending.push(arc.getDestination());
+                }
+            }
+        }
+
+        assertEquals(1 + builder.getStartState().arcs.size(), reachable.size());
+        assertEquals(20000, builder.transduce(inputValues.get(19999)));
+    }
+
+    @Test
+    public void testEquivalentStates() throws Exception {
+        // All words share the suffixes after their first character
+        String inputValues[] = {"acat", "adog", "bcat", "bdog"};
+        int outputValues[] = {1, 1, 1, 1};
+
+        String singleValues[] = {"acat", "adog"};
+        int singleOutputs[] = {1, 1};
+
+        Builder builder = new Builder();
+        builder.build(inputValues, outputValues);
+
+        Builder single = new Builder();
+        single.build(singleValues, singleOutputs);
+
+        // Only the start state differs, with one more arc to the shared state
+        assertEquals(single.getCompiler().getSize() + 2 + 1 + 1, builder.getCompiler().getSize());
+    }
 }
@@ -19,8 +19,12 @@ package com.atilika.kuromoji.fst;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 public class FSTTest {
 
@@ -51,5 +55,55 @@ public class FSTTest {
         assertEquals(7, fst.lookup("dogs"));
         assertEquals(11, fst.lookup("rat"));
         assertEquals(-1, fst.lookup("rats")); // No match
+
+        StringBuilder text = new StringBuilder("hotdogs");
+        assertEquals(5, fst.lookup(text, 3, 3));
+        assertEquals(7, fst.lookup(text, 3, 4));
+        assertEquals(-1, fst.lookup(text, 2, 4));
+        assertEquals(0, fst.lookup("a brat", 2, 4)); // Prefix match
+    }
+
+    @Test
+    public void testDirectAddressedArcs() throws IOException {
+        List<String> inputValues = new ArrayList<>();
+
+        // Many arcs from the start state and from the states after "a" and "b", with gaps between labels
+        for (char first = 'a'; first <= 'z'; first++) {
+            for (char second = 'A'; second <= 'z'; second += 2) {
+                inputValues.add("" + first + second);
+
+                if (second % 3 == 0) {
+                    inputValues.add("" + first + second + "s");
+                }
+            }
+        }
+
+        Collections.sort(inputValues);
+
+        Builder sorted = new Builder();
+        sorted.getCompiler().setDirectAddressing(0, 0);
+        sorted.build(inputValues.toArray(new String[0]), null);
+
+        Builder direct = new Builder();
+        direct.getCompiler().setDirectAddressing(2, 100);
+        direct.build(inputValues.toArray(new String[0]), null);
+
+        assertNotEquals(sorted.getCompiler().getSize(), direct.getCompiler().getSize());
+
+        FST sortedFST = new FST(sorted.getCompiler().getBytes());
+        FST directFST = new FST(direct.getCompiler().getBytes());
+
+        for (int i = 0; i < inputValues.size(); i++) {
+            String input = inputValues.get(i);
+
+            assertEquals(i + 1, sortedFST.lookup(input));
+            assertEquals(i + 1, directFST.lookup(input));
+            assertEquals(i + 1, direct.transduce(input));
+        }
+
+        for (String input : new String[]{"aB", "a@", "a{", "aAx", "aA", "a", "zzzz", "\u3042"}) {
+            assertEquals(input, sortedFST.lookup(input), directFST.lookup(input));
+            assertEquals(input, sorted.transduce(input), direct.transduce(input));
+        }
     }
 }
@@ -0,0 +1,200 @@
+/**
+ * Copyright © 2010-2018 Atilika Inc. and contributors (see CONTRIBUTORS.md)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  A copy of the
+ * License is distributed with this work in the LICENSE.md file.  You may
+ * also obtain a copy of the License from
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atilika.kuromoji.viterbi;
+
+import com.atilika.kuromoji.dict.ConnectionCosts;
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PathRelaxationTest {
+
+    @Test
+    public void testSameAsRelaxingEveryPair() {
+        Random random = new Random(1234);
+        int size = 20;
+        int[] forwardClasses = new int[size];
+        int[] backwardClasses = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            forwardClasses[i] = random.nextInt(5);
+            backwardClasses[i] = random.nextInt(4);
+        }
+
+        // Few distinct costs, so that there are many ties
+        short[] classCosts = new short[5 * 4];
+
+        for (int i = 0; i < classCosts.length; i++) {
+            classCosts[i] = (short) random.nextInt(3);
+        }
+
+        ConnectionCosts costs = new ConnectionCosts(size, forwardClasses, backwardClasses, ShortBuffer.wrap(classCosts));
+        PathRelaxation relaxation = new PathRelaxation(costs);
+
+        for (int position = 0; position < 200; position++) {
+            ViterbiNode[] leftNodes = new ViterbiNode[1 + random.nextInt(12)];
+            int leftCount = 1 + random.nextInt(leftNodes.length);
+
+            for (int i = 0; i < leftCount; i++) {
+                leftNodes[i] = new ViterbiNode(i, "l", random.nextInt(size), random.nextInt(size), 0, 0, ViterbiNode.Type.KNOWN);
+                leftNodes[i].setPathCost(random.nextInt(4));
+            }
+
+            relaxation.reset(leftNodes);
+
+            for (int i = 0; i < 10; i++) {
+                ViterbiNode node = new ViterbiNode(i, "r", random.nextInt(size), random.nextInt(size), 0, 1, ViterbiNode.Type.KNOWN);
+                ViterbiNode expectedNode = null;
+                int expectedCost = Integer.MAX_VALUE;
+
+                for (int j = 0; j < leftCount; j++) {
+                    int cost = leftNodes[j].getPathCost() + costs.get(leftNodes[j].getRightId(), node.getLeftId());
+
+                    if (cost < expectedCost) {
+                        expectedCost = cost;
+                        expectedNode = leftNodes[j];
+                    }
+                }
+
+                assertSame(expectedNode, relaxation.getBestLeftNode(node));
+                assertEquals(expectedCost, relaxation.getBestConnectedCost(node));
+            }
+
+            // Reused for the next search, as by ViterbiSearcher
+            if (position % 50 == 49) {
+                relaxation.clear();
+            }
+        }
+    }
+
+    @Test
+    public void testBeam() {
+        Random random = new Random(5678);
+        int size = 30;
+        int[] forwardClasses = new int[size];
+        int[] backwardClasses = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            forwardClasses[i] = random.nextInt(10);
+            backwardClasses[i] = random.nextInt(4);
+        }
+
+        short[] classCosts = new short[10 * 4];
+
+        for (int i = 0; i < classCosts.length; i++) {
+            classCosts[i] = (short) random.nextInt(5);
+        }
+
+        ConnectionCosts costs = new ConnectionCosts(size, forwardClasses, backwardClasses, ShortBuffer.wrap(classCosts));
+        int[][] beams = {{1, Integer.MAX_VALUE}, {3, Integer.MAX_VALUE}, {Integer.MAX_VALUE, 0}, {2, 3}};
+
+        for (int[] beam : beams) {
+            PathRelaxation relaxation = new PathRelaxation(costs, beam[0], beam[1]);
+
+            for (int position = 0; position < 200; position++) {
+                int leftCount = 1 + random.nextInt(15);
+                ViterbiNode[] leftNodes = new ViterbiNode[leftCount];
+
+                for (int i = 0; i < leftCount; i++) {
+                    leftNodes[i] = new ViterbiNode(i, "l", random.nextInt(size), random.nextInt(size), 0, 0, ViterbiNode.Type.KNOWN);
+                    leftNodes[i].setPathCost(random.nextInt(8));
+                }
+
+                List<ViterbiNode> kept = getBeam(leftNodes, costs, beam[0], beam[1]);
+
+                relaxation.reset(leftNodes);
+
+                for (int i = 0; i < 10; i++) {
+                    ViterbiNode node = new ViterbiNode(i, "r", random.nextInt(size), random.nextInt(size), 0, 1, ViterbiNode.Type.KNOWN);
+                    ViterbiNode expectedNode = null;
+                    int expectedCost = Integer.MAX_VALUE;
+
+                    for (ViterbiNode leftNode : kept) {
+                        int cost = leftNode.getPathCost() + costs.get(leftNode.getRightId(), node.getLeftId());
+
+                        if (cost < expectedCost) {
+                            expectedCost = cost;
+                            expectedNode = leftNode;
+                        }
+                    }
+
+                    assertSame(expectedNode, relaxation.getBestLeftNode(node));
+                    assertEquals(expectedCost, relaxation.getBestConnectedCost(node));
+                }
+            }
+        }
+    }
+
+    private List<ViterbiNode> getBeam(ViterbiNode[] leftNodes, ConnectionCosts costs, int width, int costMargin) {
+        // The first cheapest node of each forward class, in order
+        Map<Integer, ViterbiNode> classNodes = new LinkedHashMap<>();
+
+        for (ViterbiNode node : leftNodes) {
+            int forwardClass = costs.getForwardClass(node.getRightId());
+            ViterbiNode classNode = classNodes.get(forwardClass);
+
+            if (classNode == null || node.getPathCost() < classNode.getPathCost()) {
+                classNodes.put(forwardClass, node);
+            }
+        }
+
+        List<ViterbiNode> byCost = new ArrayList<>(classNodes.values());
+
+        Collections.sort(byCost, new Comparator<ViterbiNode>() {
+            @Override
+            public int compare(ViterbiNode a, ViterbiNode b) {
+                return a.getPathCost() - b.getPathCost();
+            }
+        });
+
+        int bestCost = byCost.get(0).getPathCost();
+        List<ViterbiNode> beam = new ArrayList<>();
+
+        for (ViterbiNode node : byCost) {
+            if (beam.size() < width && node.getPathCost() <= (long) bestCost + costMargin) {
+                beam.add(node);
+            }
+        }
+
+        // Keep the beam in node order, so ties go to the first node
+        List<ViterbiNode> ordered = new ArrayList<>(Arrays.asList(leftNodes));
+        ordered.retainAll(beam);
+        return ordered;
+    }
+
+    @Test
+    public void testNoLeftNodes() {
+        ConnectionCosts costs = new ConnectionCosts(1, ShortBuffer.wrap(new short[]{0}));
+        PathRelaxation relaxation = new PathRelaxation(costs);
+
+        relaxation.reset(new ViterbiNode[4]);
+
+        assertNull(relaxation.getBestLeftNode(new ViterbiNode(0, "r", 0, 0, 0, 1, ViterbiNode.Type.KNOWN)));
+    }
+}
@@ -16,14 +16,10 @@
  */
 package com.atilika.kuromoji.ipadic;
 
+import com.atilika.kuromoji.BoundaryHints;
 import com.atilika.kuromoji.TokenizerBase;
 import com.atilika.kuromoji.dict.CharacterDefinitions;
-import com.atilika.kuromoji.dict.ConnectionCosts;
 import com.atilika.kuromoji.dict.Dictionary;
-import com.atilika.kuromoji.dict.InsertedDictionary;
-import com.atilika.kuromoji.dict.TokenInfoDictionary;
-import com.atilika.kuromoji.dict.UnknownDictionary;
-import com.atilika.kuromoji.fst.FST;
 import com.atilika.kuromoji.ipadic.compile.DictionaryEntry;
 import com.atilika.kuromoji.util.SimpleResourceResolver;
 import com.atilika.kuromoji.viterbi.TokenFactory;
@@ -87,6 +83,30 @@ public class Tokenizer extends TokenizerBase {
         return createTokenList(text);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(CharSequence text) {
+        return createTokenList(text);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(char[] text, int offset, int length) {
+        return createTokenList(text, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(String text, BoundaryHints hints) {
+        return createTokenList(text, hints);
+    }
+
     /**
      * Builder class for creating a customized tokenizer instance
      */
@@ -112,6 +132,8 @@ public class Tokenizer extends TokenizerBase {
             readingFeature = DictionaryEntry.READING_FEATURE;
             partOfSpeechFeature = DictionaryEntry.PART_OF_SPEECH_FEATURE;
 
+            resolver = new SimpleResourceResolver(this.getClass());
+
             tokenFactory = new TokenFactory<Token>() {
                 @Override
                 public Token createToken(int wordId,
@@ -211,24 +233,13 @@ public class Tokenizer extends TokenizerBase {
             penalties.add(otherPenaltyLengthThreshold);
             penalties.add(otherPenalty);
 
-            resolver = new SimpleResourceResolver(this.getClass());
-
-            try {
-                fst = FST.newInstance(resolver);
-                connectionCosts = ConnectionCosts.newInstance(resolver);
-                tokenInfoDictionary = TokenInfoDictionary.newInstance(resolver);
-                characterDefinitions = CharacterDefinitions.newInstance(resolver);
-
-                if (nakaguroSplit) {
-                    characterDefinitions.setCategories('・', new String[]{"SYMBOL"});
-                }
+            super.loadDictionaries();
+        }
 
-                unknownDictionary = UnknownDictionary.newInstance(
-                    resolver, characterDefinitions, totalFeatures
-                );
-                insertedDictionary = new InsertedDictionary(totalFeatures);
-            } catch (Exception ouch) {
-                throw new RuntimeException("Could not load dictionaries.", ouch);
+        @Override
+        protected void configureCharacterDefinitions(CharacterDefinitions characterDefinitions) {
+            if (nakaguroSplit) {
+                characterDefinitions.setCategories('・', new String[]{"SYMBOL"});
             }
         }
     }
@@ -16,15 +16,38 @@
  */
 package com.atilika.kuromoji.ipadic;
 
+import com.atilika.kuromoji.BoundaryHints;
 import com.atilika.kuromoji.CommonCornerCasesTest;
+import com.atilika.kuromoji.NBestResult;
+import com.atilika.kuromoji.TokenConsumer;
+import com.atilika.kuromoji.TokenLattice;
+import com.atilika.kuromoji.TokenMarginals;
+import com.atilika.kuromoji.Utf8TokenConsumer;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.atilika.kuromoji.TestUtils.assertEqualTokenFeatureLengths;
 import static com.atilika.kuromoji.TestUtils.assertTokenSurfacesEquals;
@@ -33,6 +56,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TokenizerTest {
 
@@ -100,6 +124,17 @@ public class TokenizerTest {
         assertNotEquals(0, tokenLists.size());
     }
 
+    @Test
+    public void testMultiTokenizationsAreDistinct() {
+        String input = "寿司が食べたいです";
+        List<List<Token>> tokenLists = tokenizer.multiTokenizeBySlack(input, 3000);
+        Set<List<String>> distinct = new HashSet<>();
+
+        for (List<Token> tokens : tokenLists) {
+            assertTrue(distinct.add(toStrings(tokens)));
+        }
+    }
+
     @Test
     public void testMultiEmptyString() {
         String input = "";
@@ -255,6 +290,71 @@ public class TokenizerTest {
         );
     }
 
+    @Test
+    public void testBuildAsync() throws Exception {
+        Future<Tokenizer> future = new Tokenizer.Builder()
+            .isSplitOnNakaguro(true)
+            .buildAsync();
+
+        Tokenizer tokenizer = future.get();
+
+        assertTokenSurfacesEquals(
+            Arrays.asList("ラレ", "・", "プールカリム", "の", "音楽", "が", "好き", "。"),
+            tokenizer.tokenize("ラレ・プールカリムの音楽が好き。")
+        );
+
+        Map<String, Long> loadTimes = tokenizer.getDictionaryLoadTimes();
+
+        assertTrue(loadTimes.containsKey(Tokenizer.FST_PHASE));
+        assertTrue(loadTimes.containsKey(Tokenizer.TOKEN_INFO_DICTIONARY_PHASE));
+        assertTrue(loadTimes.containsKey(Tokenizer.TOTAL_PHASE));
+    }
+
+    @Test
+    public void testInterruptedLoadCancelsPendingLoads() throws Exception {
+        final List<Future<?>> loads = new ArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                RunnableFuture<T> future = super.newTaskFor(callable);
+                loads.add(future);
+                return future;
+            }
+        };
+
+        // Keep the only loader thread busy, so no load starts before the interrupt is seen
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ouch) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Thread.currentThread().interrupt();
+
+        try {
+            new Tokenizer.Builder().loadExecutor(executor).build();
+            fail("Expected the interrupted load to fail");
+        } catch (RuntimeException expected) {
+            assertTrue(Thread.interrupted());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+
+        assertFalse(loads.isEmpty());
+
+        for (Future<?> load : loads) {
+            assertTrue(load.isCancelled());
+        }
+    }
+
     @Test
     public void testAllFeatures() {
         Tokenizer tokenizer = new Tokenizer();
@@ -312,4 +412,396 @@ public class TokenizerTest {
     public void testPunctuation() {
         CommonCornerCasesTest.testPunctuation(new Tokenizer());
     }
+
+    @Test
+    public void testTokenizeReader() throws IOException {
+        String bocchan = readBocchan();
+
+        // A long text without any 句読点, so the buffer has no cut point
+        StringBuilder unpunctuated = new StringBuilder();
+
+        while (unpunctuated.length() < 200000) {
+            unpunctuated.append("寿司が食べたいですabc123");
+        }
+
+        assertTokenizedReaderEquals(bocchan, tokenizer);
+        assertTokenizedReaderEquals(unpunctuated.toString(), tokenizer);
+        assertTokenizedReaderEquals("", tokenizer);
+    }
+
+    @Test
+    public void testTokenizeCharSequenceAndCharArray() throws IOException {
+        String bocchan = readBocchan();
+        List<String> expected = new ArrayList<>();
+
+        for (Token token : tokenizer.tokenize(bocchan)) {
+            expected.add(token.getPosition() + "\t" + toString(token));
+        }
+
+        List<String> tokenizedBuilder = new ArrayList<>();
+
+        for (Token token : tokenizer.tokenize(new StringBuilder(bocchan))) {
+            tokenizedBuilder.add(token.getPosition() + "\t" + toString(token));
+        }
+
+        assertEquals(expected, tokenizedBuilder);
+
+        char[] buffer = ("xyz" + bocchan + "xyz").toCharArray();
+        List<String> tokenizedArray = new ArrayList<>();
+
+        for (Token token : tokenizer.tokenize(buffer, 3, bocchan.length())) {
+            tokenizedArray.add(token.getPosition() + "\t" + toString(token));
+        }
+
+        assertEquals(expected, tokenizedArray);
+    }
+
+    @Test
+    public void testTokenizeUtf8() throws IOException {
+        StringBuilder unpunctuated = new StringBuilder();
+
+        while (unpunctuated.length() < 100000) {
+            unpunctuated.append("寿司が食べたいですabc123\uD842\uDFB7");
+        }
+
+        assertTokenizedUtf8Equals(readBocchan().getBytes(StandardCharsets.UTF_8));
+        assertTokenizedUtf8Equals(unpunctuated.toString().getBytes(StandardCharsets.UTF_8));
+        assertTokenizedUtf8Equals(new byte[0]);
+
+        // Malformed and truncated sequences
+        byte[] sushi = "寿司が食べたい".getBytes(StandardCharsets.UTF_8);
+        byte[] malformed = new byte[sushi.length + 3];
+        System.arraycopy(sushi, 0, malformed, 1, sushi.length);
+        malformed[0] = (byte) 0xFF;
+        malformed[malformed.length - 2] = (byte) 0xE5;
+        malformed[malformed.length - 1] = (byte) 0xAF;
+
+        assertTokenizedUtf8Equals(malformed);
+    }
+
+    @Test(timeout = 60000)
+    public void testTokenizeUtf8SurrogatePairAtBufferEnd() throws IOException {
+        StringBuilder text = new StringBuilder();
+
+        while (text.length() < 65535) {
+            text.append("寿司が食べたいです。");
+        }
+
+        // The surrogate pair starts in the last character of the 64K character buffer
+        text.setLength(65530);
+        text.append("abcde\uD83D\uDE00bbb");
+
+        assertTokenizedUtf8Equals(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTokenizeUtf8ExtendedMode() throws IOException {
+        Tokenizer extendedTokenizer = new Tokenizer.Builder().mode(Tokenizer.Mode.EXTENDED).build();
+        String text = "寿司がＸＹＺＷ食べたいxyzwvu寿司";
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final List<String> decoded = new ArrayList<>();
+
+        // Unigrams of unknown words come after the other tokens, so they are checked by their own positions
+        extendedTokenizer.tokenize(utf8, 0, utf8.length, new Utf8TokenConsumer<Token>() {
+            @Override
+            public void accept(Token token, long position, long bytePosition, int byteLength) {
+                String bytes = new String(utf8, (int) bytePosition, byteLength, StandardCharsets.UTF_8);
+                decoded.add(position + "\t" + bytePosition + "\t" + bytes + "\t" + TokenizerTest.this.toString(token));
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+
+        for (Token token : extendedTokenizer.tokenize(text)) {
+            int bytePosition = text.substring(0, token.getPosition()).getBytes(StandardCharsets.UTF_8).length;
+            expected.add(token.getPosition() + "\t" + bytePosition + "\t" + token.getSurface() + "\t" + toString(token));
+        }
+
+        assertEquals(expected, decoded);
+    }
+
+    private void assertTokenizedUtf8Equals(final byte[] utf8) throws IOException {
+        final List<String> decoded = new ArrayList<>();
+        final byte[] payload = new byte[utf8.length + 4];
+        System.arraycopy(utf8, 0, payload, 2, utf8.length);
+
+        tokenizer.tokenize(payload, 2, utf8.length, new Utf8TokenConsumer<Token>() {
+            @Override
+            public void accept(Token token, long position, long bytePosition, int byteLength) {
+                String bytes = new String(utf8, (int) bytePosition, byteLength, StandardCharsets.UTF_8);
+                decoded.add(position + "\t" + bytes + "\t" + TokenizerTest.this.toString(token));
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+
+        for (Token token : tokenizer.tokenize(new String(utf8, StandardCharsets.UTF_8))) {
+            expected.add(token.getPosition() + "\t" + token.getSurface() + "\t" + toString(token));
+        }
+
+        assertEquals(expected, decoded);
+    }
+
+    @Test
+    public void testBeamSearch() throws IOException {
+        String bocchan = readBocchan();
+        Tokenizer.Builder builder = new Tokenizer.Builder();
+        builder.beamWidth(1);
+        Tokenizer beamTokenizer = builder.build();
+
+        // The best path within the beam still covers the entire text
+        StringBuilder surfaces = new StringBuilder();
+
+        for (Token token : beamTokenizer.tokenize(bocchan)) {
+            assertEquals(surfaces.length(), token.getPosition());
+            surfaces.append(token.getSurface());
+        }
+
+        assertEquals(bocchan, surfaces.toString());
+    }
+
+    @Test
+    public void testParallelSegments() throws IOException {
+        // A single long segment without 句読点
+        String text = readBocchan().replace("。", "").replace("、", "");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (Tokenizer.Mode mode : Tokenizer.Mode.values()) {
+                Tokenizer serialTokenizer = new Tokenizer.Builder().mode(mode).build();
+                Tokenizer.Builder builder = new Tokenizer.Builder().mode(mode);
+                builder.segmentExecutor(executor, 256);
+                Tokenizer parallelTokenizer = builder.build();
+
+                List<String> expected = new ArrayList<>();
+
+                for (Token token : serialTokenizer.tokenize(text)) {
+                    expected.add(token.getPosition() + "\t" + toString(token));
+                }
+
+                List<String> actual = new ArrayList<>();
+
+                for (Token token : parallelTokenizer.tokenize(text)) {
+                    actual.add(token.getPosition() + "\t" + toString(token));
+                }
+
+                assertEquals(expected, actual);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTokenizeWithNBest() throws IOException {
+        String bocchan = readBocchan().substring(0, 2000);
+        String[] texts = {bocchan, bocchan.replace("。", "").replace("、", ""), "寿司が食べたいです。", ""};
+
+        for (Tokenizer.Mode mode : Tokenizer.Mode.values()) {
+            Tokenizer tokenizer = new Tokenizer.Builder().mode(mode).build();
+
+            for (String text : texts) {
+                NBestResult<Token> result = tokenizer.tokenizeWithNBest(text, 3);
+
+                assertEquals(toStrings(tokenizer.tokenize(text)), toStrings(result.getBestTokens()));
+
+                List<List<Token>> expected = tokenizer.multiTokenizeNBest(text, 3);
+
+                assertEquals(expected.size(), result.getTokenizations().size());
+
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(toStrings(expected.get(i)), toStrings(result.getTokenizations().get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTokenizeLattice() {
+        String[] texts = {"スペースステーションに行きます。うたがわしい。", "寿司が食べたいです", ""};
+
+        for (Tokenizer.Mode mode : Tokenizer.Mode.values()) {
+            Tokenizer tokenizer = new Tokenizer.Builder().mode(mode).build();
+
+            for (String text : texts) {
+                TokenLattice<Token> lattice = tokenizer.tokenizeLattice(text, 3000);
+                Map<String, Integer> margins = new HashMap<>();
+
+                for (int i = 0; i < lattice.size(); i++) {
+                    String token = lattice.getTokens().get(i).getPosition() + "\t" + toString(lattice.getTokens().get(i));
+
+                    assertFalse(margins.containsKey(token));
+                    assertTrue(0 <= lattice.getMargin(i) && lattice.getMargin(i) <= 3000);
+                    margins.put(token, lattice.getMargin(i));
+                }
+
+                // Tokens of the tokenizations within the cost slack, which do not split unknown words
+                Set<String> expected = new HashSet<>();
+
+                for (String sentence : text.split("(?<=。)")) {
+                    int offset = text.indexOf(sentence);
+
+                    for (List<Token> tokens : tokenizer.<Token>multiTokenizeBySlack(sentence, 3000)) {
+                        for (Token token : tokens) {
+                            expected.add((offset + token.getPosition()) + "\t" + toString(token));
+                        }
+                    }
+                }
+
+                assertEquals(expected, margins.keySet());
+
+                if (mode != Tokenizer.Mode.EXTENDED) {
+                    for (String token : toStrings(tokenizer.tokenize(text))) {
+                        assertEquals(Integer.valueOf(0), margins.get(token));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTokenizeWithMarginals() {
+        String text = "寿司が食べたいです。";
+        TokenMarginals<Token> marginals = tokenizer.tokenizeWithMarginals(text, 1000);
+        List<String> best = toStrings(marginals.getTokens());
+
+        assertEquals(toStrings(tokenizer.tokenize(text)), best);
+        assertEquals(1.0, marginals.getBoundaryProbability(0), 1e-9);
+        assertEquals(1.0, marginals.getBoundaryProbability(text.length()), 1e-9);
+        assertEquals(Integer.MAX_VALUE, marginals.getBoundaryMargin(0));
+
+        for (int i = 0; i < best.size(); i++) {
+            Token token = marginals.getTokens().get(i);
+            int margin = marginals.getMargin(i);
+
+            assertTrue(margin >= 0);
+            assertTrue(marginals.getProbability(i) > 0 && marginals.getProbability(i) <= 1);
+            assertTrue(marginals.getProbability(i) <= marginals.getBoundaryProbability(token.getPosition()) + 1e-9);
+
+            if (margin <= 3000) {
+                // Every tokenization within the margin has the token, unlike one at the margin
+                for (List<Token> tokens : tokenizer.<Token>multiTokenize(text, 100000, margin - 1)) {
+                    assertTrue(toStrings(tokens).contains(best.get(i)));
+                }
+
+                boolean found = false;
+
+                for (List<Token> tokens : tokenizer.<Token>multiTokenizeBySlack(text, margin)) {
+                    found |= !toStrings(tokens).contains(best.get(i));
+                }
+                assertTrue(found);
+            }
+        }
+
+        for (int position = 0; position <= text.length(); position++) {
+            assertTrue(marginals.getBoundaryMargin(position) >= 0);
+            assertTrue(marginals.getBoundaryProbability(position) >= 0 && marginals.getBoundaryProbability(position) <= 1);
+        }
+
+        // Almost all weight is on the best tokenization at a low temperature
+        TokenMarginals<Token> sharp = tokenizer.tokenizeWithMarginals(text, 0.01);
+
+        for (int i = 0; i < sharp.getTokens().size(); i++) {
+            if (sharp.getMargin(i) > 0) {
+                assertEquals(1.0, sharp.getProbability(i), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testTokenizeWithMarginalsEmptyString() {
+        TokenMarginals<Token> marginals = tokenizer.tokenizeWithMarginals("", 1000);
+
+        assertTrue(marginals.getTokens().isEmpty());
+        assertEquals(1.0, marginals.getBoundaryProbability(0), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenizeWithMarginalsTemperature() {
+        tokenizer.tokenizeWithMarginals("寿司", 0);
+    }
+
+    @Test
+    public void testTokenizeWithBoundaryHints() {
+        String text = "寿司が食べたいです。";
+
+        assertEquals(toStrings(tokenizer.tokenize(text)), toStrings(tokenizer.tokenize(text, new BoundaryHints())));
+
+        assertTokenSurfacesEquals(
+            Arrays.asList("寿", "司", "が", "食べたい", "です", "。"),
+            tokenizer.tokenize(text, new BoundaryHints().boundary(1).boundary(2).protectedSpan(3, 7).protectedSpan(7, 9))
+        );
+    }
+
+    @Test
+    public void testTokenizeWithBoundaryHintsProtectedSpanOverSplit() {
+        List<Token> tokens = tokenizer.tokenize("寿司、ラーメン", new BoundaryHints().protectedSpan(1, 4));
+        Set<Integer> positions = new HashSet<>();
+
+        for (Token token : tokens) {
+            positions.add(token.getPosition());
+
+            if (token.getPosition() == 1) {
+                assertEquals("司、ラ", token.getSurface());
+            }
+        }
+        assertTrue(positions.contains(1));
+        assertTrue(positions.contains(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundaryHintsEmptySpan() {
+        new BoundaryHints().protectedSpan(2, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBeamWidthTooSmall() {
+        new Tokenizer.Builder().beamWidth(0);
+    }
+
+    private List<String> toStrings(List<Token> tokens) {
+        List<String> strings = new ArrayList<>();
+
+        for (Token token : tokens) {
+            strings.add(token.getPosition() + "\t" + toString(token));
+        }
+        return strings;
+    }
+
+    private void assertTokenizedReaderEquals(String text, Tokenizer tokenizer) throws IOException {
+        final List<String> streamed = new ArrayList<>();
+
+        tokenizer.tokenize(new StringReader(text), new TokenConsumer<Token>() {
+            @Override
+            public void accept(Token token, long position) {
+                streamed.add(position + "\t" + token.getPosition() + "\t" + TokenizerTest.this.toString(token));
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+
+        for (Token token : tokenizer.tokenize(text)) {
+            expected.add(token.getPosition() + "\t" + token.getPosition() + "\t" + toString(token));
+        }
+
+        assertEquals(expected, streamed);
+    }
+
+    private String readBocchan() throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(getClass().getResourceAsStream("/bocchan.txt"), StandardCharsets.UTF_8)
+        );
+
+        try {
+            StringBuilder text = new StringBuilder();
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
+        } finally {
+            reader.close();
+        }
+    }
 }
@@ -17,6 +17,7 @@
 
 package com.atilika.kuromoji.jumandic;
 
+import com.atilika.kuromoji.BoundaryHints;
 import com.atilika.kuromoji.TokenizerBase;
 import com.atilika.kuromoji.dict.Dictionary;
 import com.atilika.kuromoji.jumandic.compile.DictionaryEntry;
@@ -81,6 +82,30 @@ public class Tokenizer extends TokenizerBase {
         return createTokenList(text);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(CharSequence text) {
+        return createTokenList(text);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(char[] text, int offset, int length) {
+        return createTokenList(text, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Token> tokenize(String text, BoundaryHints hints) {
+        return createTokenList(text, hints);
+    }
+
     /**
      * Builder class for creating a customized tokenizer instance
      */
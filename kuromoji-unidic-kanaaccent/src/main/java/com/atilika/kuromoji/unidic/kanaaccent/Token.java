@@ -24,6 +24,16 @@ import com.atilika.kuromoji.viterbi.ViterbiNode;
 /**
  * UniDic Kana Accent token produced by the UniDic Kana Accent tokenizer
  * with various morphological features
+ * <p>
+ * Each getter looks up its feature in the dictionary separately.
+ * Applications that read most features of each token, such as speech synthesis front ends, can decode the
+ * dictionary entry once using {@link #getFeatureRecord(int...)} and the {@link DictionaryEntry} feature numbers:
+ * <pre>{@code
+ * FeatureRecord features = token.getFeatureRecord(DictionaryEntry.KANA, DictionaryEntry.ACCENT_TYPE);
+ * String kana = features.get(DictionaryEntry.KANA);
+ * String accentType = features.get(DictionaryEntry.ACCENT_TYPE);
+ * }
+ * </pre>
  */
 public class Token extends TokenBase {
 